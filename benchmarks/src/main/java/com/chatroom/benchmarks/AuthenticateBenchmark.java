@@ -0,0 +1,68 @@
+package com.chatroom.benchmarks;
+
+import com.chatroom.server.PasswordHasher;
+import com.chatroom.server.UserManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link UserManager#authenticate} for a successful login.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AuthenticateBenchmark {
+
+    /**
+     * How the password is stored and checked: in plain text, as a hash verified in full on every login, or as
+     * a hash whose successful verification is cached.
+     */
+    @Param({"plaintext", "hashed", "cached"})
+    private String storage;
+
+    private UserManager userManager;
+
+    /**
+     * Writes a user file holding the benchmark user among others, and opens it.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Setup
+    public void setUp() throws IOException {
+        Path file = Files.createTempDirectory("chatroom-bench").resolve("users.txt");
+        String password = storage.equals("plaintext") ? "secret" : PasswordHasher.hash("secret", PasswordHasher.DEFAULT_ITERATIONS);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            lines.add("user-" + i + ":password-" + i);
+        lines.add("alice:" + password);
+        Files.write(file, lines);
+        userManager = new UserManager(file.toString(), storage.equals("cached") ? 300 : 0, 0, 1000);
+    }
+
+    /**
+     * Closes the user manager.
+     */
+    @TearDown
+    public void tearDown() {
+        userManager.close();
+    }
+
+    /**
+     * Authenticates the benchmark user.
+     *
+     * @return true
+     */
+    @Benchmark
+    public boolean authenticate() {
+        return userManager.authenticate("alice", "secret");
+    }
+}
@@ -0,0 +1,52 @@
+package com.chatroom.benchmarks;
+
+import com.chatroom.server.Server;
+import com.chatroom.server.ServerConfig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Creates servers whose files live in a temporary directory, for benchmarks that need a {@link Server} without
+ * starting it.
+ */
+final class BenchmarkServer {
+
+    /**
+     * Prevents instantiation of this utility class.
+     */
+    private BenchmarkServer() {
+    }
+
+    /**
+     * Creates a server that is never started, with an empty user file, log and message history.
+     *
+     * @return the server
+     * @throws IOException if the temporary directory cannot be created
+     */
+    static Server create() throws IOException {
+        Path directory = Files.createTempDirectory("chatroom-bench");
+        Path users = Files.createFile(directory.resolve("users.txt"));
+        Properties properties = new Properties();
+        properties.setProperty("chatroom.userFile", users.toString());
+        properties.setProperty("chatroom.logFile", directory.resolve("server.log").toString());
+        properties.setProperty("chatroom.historyDir", directory.resolve("history").toString());
+        properties.setProperty("chatroom.historySync", "false");
+        return new Server(new ServerConfig(properties));
+    }
+
+    /**
+     * Releases the resources of a server created by {@link #create()}. {@link Server#stop()} is not used, as it
+     * exits the JVM.
+     *
+     * @param server the server
+     */
+    static void close(Server server) {
+        server.getAuthService().close();
+        server.getResumeTokens().close();
+        server.getUserManager().close();
+        server.getMessageStore().close();
+    }
+}
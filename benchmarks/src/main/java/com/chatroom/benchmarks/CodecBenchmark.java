@@ -0,0 +1,101 @@
+package com.chatroom.benchmarks;
+
+import com.chatroom.common.message.*;
+import com.chatroom.common.protocol.CodecType;
+import com.chatroom.common.protocol.MessageCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding and decoding each message type with each codec.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"BINARY", "SERIALIZATION"})
+    private CodecType codecType;
+
+    @Param({"UserBroadcastMessage", "UserPrivateMessage", "SystemBroadcast", "SystemReply", "SystemRequest",
+            "SystemUserList", "SystemPresence"})
+    private String messageType;
+
+    private MessageCodec codec;
+    private Message message;
+    private byte[] encoded;
+
+    /**
+     * Builds a typical message of the selected type and encodes it once for the decoding benchmark.
+     *
+     * @throws IOException if the message cannot be encoded
+     */
+    @Setup
+    public void setUp() throws IOException {
+        codec = codecType.getCodec();
+        message = newMessage(messageType);
+        encoded = codec.encode(message);
+    }
+
+    /**
+     * Builds a typical message.
+     *
+     * @param type the simple name of the message class
+     * @return the message
+     */
+    static Message newMessage(String type) {
+        LocalDateTime now = LocalDateTime.now();
+        TextMessageContent text = new TextMessageContent("Has anyone finished the lab report for this week yet?");
+        return switch (type) {
+            case "UserBroadcastMessage" -> new UserBroadcastMessage("alice", false, text, now, "lobby");
+            case "UserPrivateMessage" -> new UserPrivateMessage("alice", false, "bob", text, now);
+            case "SystemBroadcast" -> new SystemBroadcast(new TextMessageContent("alice has joined the chat."), "join", "alice", now, "lobby");
+            case "SystemReply" -> new SystemReply(new TextMessageContent("Authentication successful. Welcome to the chat room!"), now);
+            case "SystemRequest" -> new SystemRequest("alice", new TextMessageContent("history before 1024 20"), now);
+            case "SystemUserList" -> new SystemUserList(new TextMessageContent(""), usernames(50), now, "lobby", 4096);
+            case "SystemPresence" -> new SystemPresence(new TextMessageContent(""), now, "lobby", 4090, 4096,
+                    List.of("user-51", "user-52"), List.of("user-7"));
+            default -> throw new IllegalArgumentException("Unknown message type: " + type);
+        };
+    }
+
+    /**
+     * Generates usernames.
+     *
+     * @param count the number of usernames
+     * @return user-1 to user-count
+     */
+    private static List<String> usernames(int count) {
+        return IntStream.rangeClosed(1, count).mapToObj(i -> "user-" + i).toList();
+    }
+
+    /**
+     * Encodes the message.
+     *
+     * @return the payload
+     * @throws IOException if the message cannot be encoded
+     */
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return codec.encode(message);
+    }
+
+    /**
+     * Decodes the encoded message.
+     *
+     * @return the message
+     * @throws IOException if the payload is malformed
+     */
+    @Benchmark
+    public Message decode() throws IOException {
+        return codec.decode(encoded, 0, encoded.length);
+    }
+}
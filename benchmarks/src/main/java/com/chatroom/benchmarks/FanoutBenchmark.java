@@ -0,0 +1,74 @@
+package com.chatroom.benchmarks;
+
+import com.chatroom.common.message.Message;
+import com.chatroom.common.message.TextMessageContent;
+import com.chatroom.common.message.UserBroadcastMessage;
+import com.chatroom.common.protocol.CodecType;
+import com.chatroom.server.Room;
+import com.chatroom.server.Server;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures {@link Server#broadcastMessage} delivering one message to every member of a room, each member being
+ * an in-memory sink.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FanoutBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    private int recipients;
+
+    /**
+     * The codecs of the members: all binary, or alternately binary and serialization so that the message is
+     * encoded twice.
+     */
+    @Param({"BINARY", "MIXED"})
+    private String codecs;
+
+    private Server server;
+    private Room room;
+    private Message message;
+
+    /**
+     * Creates the server and fills a room with sinks.
+     *
+     * @throws IOException if the server cannot be created
+     */
+    @Setup
+    public void setUp() throws IOException {
+        server = BenchmarkServer.create();
+        room = new Room("bench", 0, 16, new AtomicLong());
+        for (int i = 0; i < recipients; i++) {
+            CodecType codecType = codecs.equals("MIXED") && i % 2 == 1 ? CodecType.SERIALIZATION : CodecType.BINARY;
+            room.getMembers().add(new MemorySink(server, codecType));
+        }
+        message = new UserBroadcastMessage("alice", false,
+                new TextMessageContent("Has anyone finished the lab report for this week yet?"), LocalDateTime.now(), "bench");
+    }
+
+    /**
+     * Releases the server.
+     */
+    @TearDown
+    public void tearDown() {
+        BenchmarkServer.close(server);
+    }
+
+    /**
+     * Broadcasts the message to the room.
+     */
+    @Benchmark
+    public void broadcast() {
+        server.broadcastMessage(room, message);
+    }
+}
@@ -0,0 +1,50 @@
+package com.chatroom.benchmarks;
+
+import com.chatroom.server.Logger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link Logger#log}, which the server calls for every line it outputs. Run it with
+ * more threads, e.g. {@code -t 4}, to measure contention between them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggerBenchmark {
+
+    private Logger logger;
+
+    /**
+     * Creates a logger writing to a temporary file with the default buffering.
+     *
+     * @throws IOException if the temporary directory cannot be created
+     */
+    @Setup
+    public void setUp() throws IOException {
+        logger = new Logger(Files.createTempDirectory("chatroom-bench").resolve("server.log").toString());
+    }
+
+    /**
+     * Closes the logger and reports the lines dropped because the writer could not keep up.
+     */
+    @TearDown
+    public void tearDown() {
+        logger.close();
+        System.out.println("Lines dropped: " + logger.getDroppedCount());
+    }
+
+    /**
+     * Logs a typical line.
+     */
+    @Benchmark
+    public void log() {
+        logger.log("Login successful for user alice from IP 127.0.0.1");
+    }
+}
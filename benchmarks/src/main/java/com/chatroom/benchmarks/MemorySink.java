@@ -0,0 +1,90 @@
+package com.chatroom.benchmarks;
+
+import com.chatroom.common.protocol.CodecType;
+import com.chatroom.server.ClientSession;
+import com.chatroom.server.Server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A logged-in client session without a socket: frames queued for it are counted and discarded at once, so a
+ * benchmark measures the server side of sending and nothing of the network.
+ */
+final class MemorySink extends ClientSession {
+
+    private final CodecType codecType;
+    private long bytes;
+
+    /**
+     * Creates a sink.
+     *
+     * @param server    the server the session belongs to
+     * @param codecType the codec the simulated client agreed on
+     */
+    MemorySink(Server server, CodecType codecType) {
+        super(server, false);
+        this.codecType = codecType;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Drains the queue on the sending thread, as an event loop with an always writable socket would.
+     */
+    @Override
+    protected void frameQueued() {
+        ByteBuffer frame;
+        while ((frame = outbound.peek()) != null) {
+            bytes += frame.remaining();
+            outbound.remove();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void closeTransport() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getIpAddress() {
+        return "127.0.0.1";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int getReadBufferBytes() {
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isAuthenticated() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CodecType getCodecType() {
+        return codecType;
+    }
+
+    /**
+     * Gets the number of bytes sent to the sink.
+     *
+     * @return the bytes of every frame drained so far
+     */
+    long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,42 @@
+package com.chatroom.benchmarks;
+
+import com.chatroom.common.message.Message;
+import com.chatroom.common.message.Messages;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Messages#getMessagePrefix}, run by the client for every message it displays.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessagesBenchmark {
+
+    @Param({"UserBroadcastMessage", "UserPrivateMessage", "SystemBroadcast", "SystemReply"})
+    private String messageType;
+
+    private Message message;
+
+    /**
+     * Builds a message of the selected type.
+     */
+    @Setup
+    public void setUp() {
+        message = CodecBenchmark.newMessage(messageType);
+    }
+
+    /**
+     * Formats the prefix of the message as seen by a user other than its sender.
+     *
+     * @return the prefix
+     */
+    @Benchmark
+    public String getMessagePrefix() {
+        return Messages.getMessagePrefix(message, "bob");
+    }
+}
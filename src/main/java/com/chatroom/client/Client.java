@@ -6,30 +6,37 @@
 package com.chatroom.client;
 
 import com.chatroom.common.message.*;
+import com.chatroom.common.protocol.CodecType;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
 import java.util.List;
 import java.util.Objects;
 
 import static com.chatroom.common.message.SystemReply.LOGIN_SUCCESS;
+import static com.chatroom.common.message.SystemReply.REGISTER_SUCCESS;
+import static com.chatroom.common.message.SystemReply.RESUME_SUCCESS;
+import static com.chatroom.common.message.SystemReply.RESUME_TOKEN;
 
 /**
  * Represents a chatroom client.
  */
 public class Client {
 
-    private Socket socket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private static final int RESUME_ATTEMPTS = 5;
+    private static final long RESUME_DELAY_MILLIS = 500;
+
+    private volatile Connection connection;
+    private String address;
+    private int port;
+    private volatile String resumeToken;
     private String username;
     private boolean isAnonymous;
     private ClientView clientView;
+    private String presenceRoom;
+    private long presenceVersion;
 
     /**
      * Constructs a new `Client` instance.
@@ -64,12 +71,28 @@ public class Client {
      */
     public void sendSystemRequest(MessageContent content) {
         try {
-            out.writeObject(new SystemRequest(username, content));
+            writeMessage(new SystemRequest(username, content));
         } catch (IOException e) {
             System.err.println("Error sending system request: " + e.getMessage());
         }
     }
 
+    /**
+     * Registers a new account with the server. The client must still log in with it afterwards.
+     *
+     * @param username The username to register.
+     * @param password The password of the new account.
+     * @return `null` if registration is successful, an error message otherwise.
+     */
+    public String register(String username, String password) {
+        try {
+            String result = connection.register(username, password);
+            return Objects.equals(result, REGISTER_SUCCESS) ? null : result;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Authenticates the client with the server.
      *
@@ -79,16 +102,13 @@ public class Client {
      */
     public String authenticate(String username, String password) {
         this.username = username;
-        sendSystemRequest(new TextMessageContent(username));
-        sendSystemRequest(new TextMessageContent(password));
         try {
-            SystemReply serverMessage = (SystemReply) in.readObject();
-            String result = (String) serverMessage.getContent().getContent();
+            String result = connection.login(username, password);
             if (Objects.equals(result, LOGIN_SUCCESS)) {
                 return null;
             } else
                 return result;
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
@@ -99,9 +119,17 @@ public class Client {
      * @param command The command to handle.
      */
     public void handleCommand(@NotNull String command) {
-        switch (command.toLowerCase()) {
+        switch (command.trim().split("\\s+", 2)[0].toLowerCase()) {
             case "list":
-                sendSystemRequest(new TextMessageContent("list"));
+                sendSystemRequest(new TextMessageContent(presenceRoom == null ? "list" : "list " + presenceRoom + " " + presenceVersion));
+                break;
+            case "join":
+            case "leave":
+            case "rooms":
+            case "history":
+            case "search":
+            case "passwd":
+                sendSystemRequest(new TextMessageContent(command.trim()));
                 break;
             case "quit":
                 sendSystemRequest(new TextMessageContent("quit"));
@@ -116,7 +144,7 @@ public class Client {
                 clientView.displayMessage("Chat mode changed to: " + (isAnonymous ? "Anonymous" : "Named"));
                 break;
             default:
-                clientView.displayMessage("Unknown command. Available commands: list, quit, showanonymous, anonymous");
+                clientView.displayMessage("Unknown command. Available commands: list, join, leave, rooms, history, search, passwd, quit, showanonymous, anonymous");
         }
     }
 
@@ -139,17 +167,14 @@ public class Client {
      */
     public boolean connect(String address, String port, boolean isTest) {
         try {
-            socket = new Socket(address, Integer.parseInt(port));
-            out = new ObjectOutputStream(socket.getOutputStream());
-            in = new ObjectInputStream(socket.getInputStream());
+            this.address = address;
+            this.port = Integer.parseInt(port);
+            openSocket();
             if (isTest) {
-                in.close();
-                in = null;
-                out.close();
-                out = null;
-                socket.close();
-                socket = null;
-            }
+                connection.close();
+                connection = null;
+            } else
+                negotiateCodec();
         } catch (IOException e) {
             System.err.println("Error connecting to " + address + ":" + port);
             return false;
@@ -157,6 +182,66 @@ public class Client {
         return true;
     }
 
+    /**
+     * Opens a connection to the server address and port given to {@link #connect}.
+     *
+     * @throws IOException If the connection cannot be opened.
+     */
+    private void openSocket() throws IOException {
+        connection = new Connection(address, port);
+    }
+
+    /**
+     * Reconnects after the connection dropped and resumes the session with the token the server gave at login,
+     * so that the user stays in the chat and receives the messages sent meanwhile. Gives up after a few attempts,
+     * or at once if the server no longer holds the session.
+     *
+     * @return `true` if the session was resumed, `false` otherwise.
+     */
+    private boolean resume() {
+        String token = resumeToken;
+        if (token == null)
+            return false;
+        for (int attempt = 1; attempt <= RESUME_ATTEMPTS; attempt++) {
+            try {
+                connection.close();
+                Thread.sleep(RESUME_DELAY_MILLIS * attempt);
+                openSocket();
+                negotiateCodec();
+                return Objects.equals(connection.resume(username, token), RESUME_SUCCESS);
+            } catch (IOException e) {
+                System.err.println("Error resuming session: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keeps the token the server sends to resume the session, as soon as it is read so that a resume attempt
+     * always uses the latest one.
+     *
+     * @param message The message read from the server.
+     * @return `true` if the message carried a resume token, `false` otherwise.
+     */
+    private boolean takeResumeToken(Message message) {
+        if (!(message instanceof SystemReply sr) || !(sr.getContent().getContent() instanceof String text) || !text.startsWith(RESUME_TOKEN))
+            return false;
+        resumeToken = text.substring(RESUME_TOKEN.length());
+        return true;
+    }
+
+    /**
+     * Agrees on a message codec with the server, preferring the compact binary encoding.
+     *
+     * @throws IOException If an I/O error occurs or the server accepts none of the offered codecs.
+     */
+    private void negotiateCodec() throws IOException {
+        connection.negotiateCodec(CodecType.BINARY, CodecType.SERIALIZATION);
+    }
+
     /**
      * Initiates the login process.
      */
@@ -171,15 +256,22 @@ public class Client {
         SwingWorker<Void, Message> worker = new SwingWorker<>() {
             @Override
             protected @Nullable Void doInBackground() {
-                try {
-                    Message serverMessage;
-                    while ((serverMessage = (Message) in.readObject()) != null)
-                        publish(serverMessage);
-                } catch (Exception ignored) {
-                    JOptionPane.showMessageDialog(clientView, "服务器连接错误", "服务器连接错误", JOptionPane.ERROR_MESSAGE);
-                    stop();
+                while (true) {
+                    try {
+                        Message serverMessage;
+                        while ((serverMessage = readMessage()) != null) {
+                            if (!takeResumeToken(serverMessage))
+                                publish(serverMessage);
+                        }
+                    } catch (Exception ignored) {
+                    }
+                    // The connection ended, whether the server closed it or it failed.
+                    if (!resume()) {
+                        JOptionPane.showMessageDialog(clientView, "服务器连接错误", "服务器连接错误", JOptionPane.ERROR_MESSAGE);
+                        stop();
+                        return null;
+                    }
                 }
-                return null;
             }
 
             @Override
@@ -191,7 +283,6 @@ public class Client {
         worker.execute();
         clientView = new ClientView(this);
         clientView.setAnonymous(isAnonymous);
-        sendSystemRequest(new TextMessageContent("list"));
     }
 
     /**
@@ -199,9 +290,7 @@ public class Client {
      */
     public void stop() {
         try {
-            in.close();
-            out.close();
-            socket.close();
+            connection.close();
         } catch (IOException e) {
             System.err.println("Error closing client connection: " + e.getMessage());
         }
@@ -248,12 +337,32 @@ public class Client {
         } else
             message = new UserBroadcastMessage(username, isAnonymous, new TextMessageContent(content));
         try {
-            out.writeObject(message);
+            writeMessage(message);
         } catch (IOException e) {
             System.err.println("Error sending message: " + e.getMessage());
         }
     }
 
+    /**
+     * Encodes a message and writes it to the server as a single frame.
+     *
+     * @param message The message to write.
+     * @throws IOException If an I/O error occurs.
+     */
+    private void writeMessage(Message message) throws IOException {
+        connection.write(message);
+    }
+
+    /**
+     * Reads the next frame from the server and decodes it.
+     *
+     * @return The received message, or `null` if the server closed the connection.
+     * @throws IOException If an I/O error occurs.
+     */
+    private @Nullable Message readMessage() throws IOException {
+        return connection.read();
+    }
+
     /**
      * Handles a server message received from the server.
      *
@@ -268,6 +377,18 @@ public class Client {
         }
         if (message instanceof SystemUserList sul) {
             clientView.setUserList(sul.getUsers());
+            presenceRoom = sul.getRoom();
+            presenceVersion = sul.getVersion();
+            return;
+        }
+        if (message instanceof SystemPresence sp) {
+            if (Objects.equals(sp.getRoom(), presenceRoom)) {
+                for (String user : sp.getJoined())
+                    clientView.addUser(user);
+                for (String user : sp.getLeft())
+                    clientView.delUser(user);
+                presenceVersion = Math.max(presenceVersion, sp.getVersion());
+            }
             return;
         }
         clientView.addTextMessage(message, username);
@@ -149,12 +149,13 @@ public class ClientView extends JFrame {
     }
 
     /**
-     * Adds a user to the online user list.
+     * Adds a user to the online user list, unless it is already there.
      *
      * @param username the username of the user to add
      */
     public void addUser(String username) {
-        onlineUserListModel.addElement(username);
+        if (!onlineUserListModel.contains(username))
+            onlineUserListModel.addElement(username);
         onlineUserList.setModel(onlineUserListModel);
     }
 
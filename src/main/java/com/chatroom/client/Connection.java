@@ -0,0 +1,156 @@
+package com.chatroom.client;
+
+import com.chatroom.common.message.Message;
+import com.chatroom.common.message.SystemReply;
+import com.chatroom.common.message.SystemRequest;
+import com.chatroom.common.message.TextMessageContent;
+import com.chatroom.common.protocol.CodecType;
+import com.chatroom.common.protocol.Frames;
+import com.chatroom.common.protocol.Handshake;
+import com.chatroom.common.protocol.MessageCodec;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * A connection to a chatroom server, speaking its wire protocol without any user interface: the codec handshake,
+ * length-prefixed frames of encoded messages, and the credential exchanges that start a session.
+ * <p>
+ * Messages may be written from one thread while another reads.
+ */
+public class Connection implements Closeable {
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private volatile MessageCodec codec;
+
+    /**
+     * Opens a connection. The codec must be agreed on with {@link #negotiateCodec} before messages are exchanged.
+     *
+     * @param address the server address
+     * @param port    the server port
+     * @throws IOException if the connection cannot be opened
+     */
+    public Connection(String address, int port) throws IOException {
+        this.socket = new Socket(address, port);
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    }
+
+    /**
+     * Agrees on a message codec with the server.
+     *
+     * @param offered the codecs the client supports, most preferred first
+     * @throws IOException if an I/O error occurs or the server accepts none of the offered codecs
+     */
+    public void negotiateCodec(CodecType... offered) throws IOException {
+        synchronized (out) {
+            Frames.write(out, Handshake.hello(offered));
+        }
+        byte[] answer = Frames.read(in);
+        if (answer == null)
+            throw new EOFException("Connection closed during handshake");
+        codec = Handshake.accepted(answer).getCodec();
+    }
+
+    /**
+     * Logs in. Messages the server sends after accepting the login are left to be read.
+     *
+     * @param username the username
+     * @param password the password
+     * @return the server's reply, {@link SystemReply#LOGIN_SUCCESS} if the user is logged in
+     * @throws IOException if an I/O error occurs
+     */
+    public String login(String username, String password) throws IOException {
+        write(new SystemRequest(username, new TextMessageContent(username)));
+        write(new SystemRequest(username, new TextMessageContent(password)));
+        return readReply();
+    }
+
+    /**
+     * Registers a new account. The client must still log in with it afterwards.
+     *
+     * @param username the username to register
+     * @param password the password of the new account
+     * @return the server's reply, {@link SystemReply#REGISTER_SUCCESS} if the account was created
+     * @throws IOException if an I/O error occurs
+     */
+    public String register(String username, String password) throws IOException {
+        write(new SystemRequest(username, new TextMessageContent(SystemRequest.REGISTER)));
+        write(new SystemRequest(username, new TextMessageContent(username)));
+        write(new SystemRequest(username, new TextMessageContent(password)));
+        return readReply();
+    }
+
+    /**
+     * Resumes a session the server holds after an earlier connection dropped.
+     *
+     * @param username the user of the session
+     * @param token    the resume token the server gave for the session
+     * @return the server's reply, {@link SystemReply#RESUME_SUCCESS} if the session was resumed
+     * @throws IOException if an I/O error occurs
+     */
+    public String resume(String username, String token) throws IOException {
+        write(new SystemRequest(username, new TextMessageContent(SystemRequest.RESUME)));
+        write(new SystemRequest(username, new TextMessageContent(username)));
+        write(new SystemRequest(username, new TextMessageContent(token)));
+        return readReply();
+    }
+
+    /**
+     * Reads the reply to a credential exchange, which is the first message the server sends after it.
+     *
+     * @return the text of the reply
+     * @throws IOException if an I/O error occurs or the server sent something else
+     */
+    private String readReply() throws IOException {
+        Message reply = read();
+        if (reply == null)
+            throw new EOFException("Connection closed before the server replied");
+        if (!(reply instanceof SystemReply sr) || !(sr.getContent().getContent() instanceof String text))
+            throw new IOException("Unexpected reply: " + reply);
+        return text;
+    }
+
+    /**
+     * Encodes a message and writes it to the server as a single frame.
+     *
+     * @param message the message to write
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(Message message) throws IOException {
+        byte[] payload = codec.encode(message);
+        synchronized (out) {
+            Frames.write(out, payload);
+        }
+    }
+
+    /**
+     * Reads the next frame from the server and decodes it. Must only be called from one thread at a time.
+     *
+     * @return the received message, or null if the server closed the connection
+     * @throws IOException if an I/O error occurs
+     */
+    public @Nullable Message read() throws IOException {
+        byte[] frame = Frames.read(in);
+        return frame == null ? null : codec.decode(frame, 0, frame.length);
+    }
+
+    /**
+     * Closes the connection, making a blocked {@link #read} fail.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
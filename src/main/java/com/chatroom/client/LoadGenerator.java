@@ -0,0 +1,619 @@
+package com.chatroom.client;
+
+import com.chatroom.common.message.Message;
+import com.chatroom.common.message.SystemRequest;
+import com.chatroom.common.message.TextMessageContent;
+import com.chatroom.common.message.UserBroadcastMessage;
+import com.chatroom.common.message.UserMessage;
+import com.chatroom.common.message.UserPrivateMessage;
+import com.chatroom.common.protocol.CodecType;
+import com.chatroom.util.Histogram;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.chatroom.common.message.SystemReply.LOGIN_SUCCESS;
+import static com.chatroom.common.message.SystemReply.SERVER_BUSY;
+import static com.chatroom.common.message.SystemReply.TOO_MANY_ATTEMPTS;
+
+/**
+ * A headless client that simulates many users at once to load-test a server.
+ * <p>
+ * {@code LoadGenerator users <file> <count>} writes a user file of {@code count} generated accounts, to be given to
+ * the server as {@code chatroom.userFile}. {@code LoadGenerator run <address> <port> <file>} logs every account of
+ * the file in on its own connection, each user on a virtual thread, then has every user send messages at a steady
+ * rate, some of them broadcast to its room and the others private to a random user. It prints the throughput as it
+ * runs and, at the end, the percentiles of the delivery latency: each message carries the time it was due to be
+ * sent, and the user receiving it records how long ago that was. Timing from the due time rather than from the
+ * write means a sender held up by a slow server does not hide the delay.
+ * <p>
+ * {@code LoadGenerator idle <address> <port> <count>} opens {@code count} connections that complete the codec
+ * handshake and then stay silent without logging in, holds them for {@code chatroom.load.seconds}, and reports how
+ * many the server dropped, to check that a server keeps many idle connections open cheaply. The client needs as
+ * many file descriptors as connections, e.g. {@code ulimit -n 20000} for 10,000.
+ * <p>
+ * {@code LoadGenerator soak <address> <port> <file> <metrics URL>} is a run that lasts ten minutes unless set
+ * otherwise and also follows the heap the server keeps after garbage collection, scraped from its metrics endpoint
+ * (started with {@code chatroom.metricsPort}) at every report. When the measurement starts and again when it ends,
+ * it has the server collect its whole heap, which needs {@code -Dchatroom.metricsGc=true}, and fails if what is
+ * left in use grew by more than {@code chatroom.load.maxHeapBytesPerMessage}, by default 1, per message sent in
+ * between, which nothing kept for each message fits in. At the default rate 2,000 users send over a million
+ * messages in ten minutes, each delivered many times over. The load must be one the server keeps up with, or the
+ * frames queued for the users fill the heap. The server should run with small history segments, e.g.
+ * {@code -Dchatroom.historySegmentMegabytes=8}, as the index of the segment being written is kept on the heap
+ * until the segment is sealed.
+ * <p>
+ * The load is set by properties prefixed with {@code chatroom.load.}, e.g.
+ * {@code java -Dchatroom.load.rate=2 -Dchatroom.load.rooms=10 -cp client.jar com.chatroom.client.LoadGenerator run
+ * localhost 8888 users.txt}. All users log in from one address, so the server should be started with
+ * {@code chatroom.loginBurst} and {@code chatroom.loginsPerMinute} high enough for them.
+ */
+public class LoadGenerator {
+
+    private static final String MARKER = "\u0001load ";
+    private static final long DRAIN_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final int LOGIN_ATTEMPTS = 10;
+    private static final long LOGIN_RETRY_MILLIS = 1000;
+    private static final String HEAP_AFTER_GC_METRIC = "chatroom_heap_after_gc_bytes ";
+
+    private final String address;
+    private final int port;
+    private final List<String[]> users;
+    private final double rate;
+    private final double privateShare;
+    private final int rooms;
+    private final int size;
+    private final long warmupNanos;
+    private final long measureNanos;
+    private final long reportNanos;
+    private final double loginsPerSecond;
+    private final String codec;
+    private final String metricsUrl;
+    private final double maxHeapBytesPerMessage;
+    private final String prefix = MARKER + Long.toHexString(ThreadLocalRandom.current().nextLong()) + " ";
+    private final CountDownLatch loggedIn;
+    private final CountDownLatch go = new CountDownLatch(1);
+    private final Histogram latency = new Histogram();
+    private final LongAdder broadcastsSent = new LongAdder();
+    private final LongAdder privatesSent = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder loginFailures = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final List<Bot> bots = new ArrayList<>();
+    private volatile long measureStart = Long.MAX_VALUE;
+    private volatile long measureEnd = Long.MAX_VALUE;
+    private volatile long stopAt = Long.MAX_VALUE;
+    private volatile boolean stopping;
+    private HeapReading heapAtStart;
+    private HeapReading heapAtEnd;
+
+    /**
+     * Creates a load generator.
+     *
+     * @param address    the server address
+     * @param port       the server port
+     * @param users      the usernames and passwords of the simulated users
+     * @param properties the settings, read from properties prefixed with {@code chatroom.load.}
+     */
+    public LoadGenerator(String address, int port, List<String[]> users, Properties properties) {
+        this.address = address;
+        this.port = port;
+        int connections = Integer.parseInt(properties.getProperty("chatroom.load.connections", String.valueOf(users.size())).trim());
+        this.users = users.subList(0, Math.min(users.size(), Math.max(1, connections)));
+        this.rate = Double.parseDouble(properties.getProperty("chatroom.load.rate", "1").trim());
+        this.privateShare = Double.parseDouble(properties.getProperty("chatroom.load.privateShare", "0.2").trim());
+        this.rooms = Math.max(1, Integer.parseInt(properties.getProperty("chatroom.load.rooms", "1").trim()));
+        this.size = Integer.parseInt(properties.getProperty("chatroom.load.size", "64").trim());
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(properties.getProperty("chatroom.load.warmupSeconds", "10").trim()));
+        this.measureNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(properties.getProperty("chatroom.load.seconds", "60").trim()));
+        this.reportNanos = TimeUnit.SECONDS.toNanos(Math.max(1, Long.parseLong(properties.getProperty("chatroom.load.reportSeconds", "5").trim())));
+        this.loginsPerSecond = Double.parseDouble(properties.getProperty("chatroom.load.loginsPerSecond", "200").trim());
+        this.codec = properties.getProperty("chatroom.load.codec", "binary").trim().toLowerCase();
+        this.metricsUrl = properties.getProperty("chatroom.load.metricsUrl");
+        this.maxHeapBytesPerMessage = Double.parseDouble(properties.getProperty("chatroom.load.maxHeapBytesPerMessage", "1").trim());
+        this.loggedIn = new CountDownLatch(this.users.size());
+    }
+
+    /**
+     * Runs the load generator.
+     *
+     * @param args {@code users <file> <count>}, {@code run <address> <port> <file>},
+     *             {@code idle <address> <port> <count>} or {@code soak <address> <port> <file> <metrics URL>}
+     * @throws Exception if the user file cannot be read or written, or the run is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("users")) {
+            writeUsers(Path.of(args[1]), Integer.parseInt(args[2]));
+            System.out.println("Wrote " + args[2] + " users to " + args[1]);
+        } else if (args.length == 4 && args[0].equals("run"))
+            new LoadGenerator(args[1], Integer.parseInt(args[2]), readUsers(Path.of(args[3])), System.getProperties()).run();
+        else if (args.length == 4 && args[0].equals("idle"))
+            idle(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), System.getProperties());
+        else if (args.length == 5 && args[0].equals("soak")) {
+            Properties defaults = new Properties();
+            defaults.setProperty("chatroom.load.seconds", "600");
+            defaults.setProperty("chatroom.load.reportSeconds", "10");
+            Properties properties = new Properties(defaults);
+            properties.putAll(System.getProperties());
+            properties.setProperty("chatroom.load.metricsUrl", args[4]);
+            LoadGenerator soak = new LoadGenerator(args[1], Integer.parseInt(args[2]), readUsers(Path.of(args[3])), properties);
+            soak.run();
+            if (!soak.checkHeap())
+                System.exit(1);
+        } else {
+            System.err.println("Usage: LoadGenerator users <file> <count> | LoadGenerator run <address> <port> <file> "
+                    + "| LoadGenerator idle <address> <port> <count> | LoadGenerator soak <address> <port> <file> <metrics URL>");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Writes a user file of generated accounts, named {@code bot1} to {@code bot<count>} with random passwords
+     * stored in plain text.
+     *
+     * @param file  the file to write
+     * @param count the number of accounts
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeUsers(Path file, int count) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 1; i <= count; i++) {
+                writer.write("bot" + i + ":" + Long.toString(random.nextLong() & Long.MAX_VALUE, 36));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Reads the accounts of a user file written by {@link #writeUsers}.
+     *
+     * @param file the file
+     * @return the username and password of each account, in file order
+     * @throws IOException if the file cannot be read
+     */
+    public static List<String[]> readUsers(Path file) throws IOException {
+        List<String[]> users = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] parts = line.split(":", 2);
+            if (parts.length == 2)
+                users.add(new String[]{parts[0].trim(), parts[1].trim()});
+        }
+        return users;
+    }
+
+    /**
+     * Opens connections that complete the codec handshake and then stay idle, each watched by a virtual thread
+     * blocked reading it, holds them for {@code chatroom.load.seconds}, then closes them and prints how many
+     * were opened and how many the server dropped meanwhile.
+     *
+     * @param address    the server address
+     * @param port       the server port
+     * @param count      the number of connections
+     * @param properties the settings, read from properties prefixed with {@code chatroom.load.}
+     * @throws InterruptedException if the run is interrupted
+     */
+    public static void idle(String address, int port, int count, Properties properties) throws InterruptedException {
+        long holdNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(properties.getProperty("chatroom.load.seconds", "60").trim()));
+        long reportNanos = TimeUnit.SECONDS.toNanos(Math.max(1, Long.parseLong(properties.getProperty("chatroom.load.reportSeconds", "5").trim())));
+        double connectsPerSecond = Double.parseDouble(properties.getProperty("chatroom.load.connectsPerSecond", "1000").trim());
+        Queue<Connection> connections = new ConcurrentLinkedQueue<>();
+        CountDownLatch opened = new CountDownLatch(count);
+        LongAdder open = new LongAdder();
+        LongAdder failed = new LongAdder();
+        LongAdder dropped = new LongAdder();
+        AtomicBoolean stopping = new AtomicBoolean();
+        System.out.printf("Opening %d idle connections to %s:%d%n", count, address, port);
+        long start = System.nanoTime();
+        long interval = connectsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / connectsPerSecond) : 0;
+        for (int i = 0; i < count; i++) {
+            Thread.ofVirtual().name("idle-" + i).start(() -> {
+                Connection connection;
+                try {
+                    connection = new Connection(address, port);
+                    connections.add(connection);
+                    connection.negotiateCodec(CodecType.BINARY);
+                } catch (IOException e) {
+                    failed.increment();
+                    opened.countDown();
+                    return;
+                }
+                open.increment();
+                opened.countDown();
+                try {
+                    while (connection.read() != null) {
+                        // An idle connection is sent nothing before logging in; anything read is ignored.
+                    }
+                } catch (IOException ignored) {
+                    // Counted as dropped below, unless the connection was closed by this run.
+                }
+                if (!stopping.get()) {
+                    open.decrement();
+                    dropped.increment();
+                }
+            });
+            if (interval > 0)
+                LockSupport.parkNanos(start + (i + 1) * interval - System.nanoTime());
+        }
+        opened.await();
+        System.out.printf("%d connections open, %d failed, in %.1f s%n", open.sum(), failed.sum(), (System.nanoTime() - start) / 1e9);
+        long holdStart = System.nanoTime();
+        long holdEnd = holdStart + holdNanos;
+        for (long now = holdStart; now < holdEnd; now = System.nanoTime()) {
+            LockSupport.parkNanos(Math.min(now + reportNanos, holdEnd) - now);
+            System.out.printf("idle    %6.0f s  open %8d  dropped %6d%n", (System.nanoTime() - holdStart) / 1e9, open.sum(), dropped.sum());
+        }
+        stopping.set(true);
+        for (Connection connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                System.err.println("Error closing idle connection: " + e.getMessage());
+            }
+        }
+        System.out.printf("Idle connections: %d opened, %d failed, %d dropped while held for %.0f s%n",
+                count - failed.sum(), failed.sum(), dropped.sum(), holdNanos / 1e9);
+    }
+
+    /**
+     * Logs the users in, has them send messages through the warm-up and the measurement, then disconnects them
+     * and prints the results.
+     *
+     * @throws InterruptedException if the run is interrupted
+     */
+    public void run() throws InterruptedException {
+        System.out.printf("Logging in %d users to %s:%d%n", users.size(), address, port);
+        long loginStart = System.nanoTime();
+        long loginInterval = loginsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / loginsPerSecond) : 0;
+        for (int i = 0; i < users.size(); i++) {
+            Bot bot = new Bot(i, users.get(i)[0], users.get(i)[1]);
+            bots.add(bot);
+            Thread.ofVirtual().name("bot-" + bot.username).start(bot::run);
+            if (loginInterval > 0)
+                LockSupport.parkNanos(loginStart + (i + 1) * loginInterval - System.nanoTime());
+        }
+        loggedIn.await();
+        System.out.printf("%d users logged in, %d failed, in %.1f s%n", users.size() - loginFailures.sum(),
+                loginFailures.sum(), (System.nanoTime() - loginStart) / 1e9);
+
+        long start = System.nanoTime();
+        measureStart = start + warmupNanos;
+        measureEnd = measureStart + measureNanos;
+        stopAt = measureEnd;
+        go.countDown();
+        long last = start;
+        long lastSent = 0;
+        long lastDelivered = 0;
+        while (last < measureEnd) {
+            LockSupport.parkNanos(Math.min(last + reportNanos, measureEnd) - System.nanoTime());
+            long now = System.nanoTime();
+            long sent = broadcastsSent.sum() + privatesSent.sum();
+            long received = delivered.sum();
+            double seconds = (now - last) / 1e9;
+            String heap = "";
+            if (metricsUrl != null) {
+                if (now >= measureStart && heapAtStart == null)
+                    heapAtStart = new HeapReading(sent, collectServerHeap());
+                else if (now >= measureEnd)
+                    heapAtEnd = new HeapReading(sent, collectServerHeap());
+                long used = scrapeHeapAfterGc();
+                heap = used < 0 ? "  heap ?" : String.format("  heap %d MiB", used >> 20);
+            }
+            System.out.printf("%s %6.0f s  sent %8.0f/s  delivered %9.0f/s  p50 %s  p99 %s  p999 %s ms%s%n",
+                    now < measureStart ? "warmup " : "measure", (now - start) / 1e9,
+                    (sent - lastSent) / seconds, (received - lastDelivered) / seconds,
+                    millis(latency.getPercentile(50)), millis(latency.getPercentile(99)), millis(latency.getPercentile(99.9)), heap);
+            last = now;
+            lastSent = sent;
+            lastDelivered = received;
+        }
+        LockSupport.parkNanos(DRAIN_NANOS);
+        stopping = true;
+        for (Bot bot : bots)
+            bot.close();
+        printSummary();
+    }
+
+    /**
+     * Prints the throughput and latency over the measurement.
+     */
+    private void printSummary() {
+        double seconds = measureNanos / 1e9;
+        System.out.printf("Users: %d, login failures: %d, disconnected: %d%n", users.size(), loginFailures.sum(), disconnects.sum());
+        System.out.printf("Sent: %d broadcast, %d private, %.0f messages/s overall%n", broadcastsSent.sum(),
+                privatesSent.sum(), (broadcastsSent.sum() + privatesSent.sum()) / (seconds + warmupNanos / 1e9));
+        System.out.printf("Delivered during measurement: %d, %.0f deliveries/s%n", latency.getCount(), latency.getCount() / seconds);
+        System.out.printf("Latency ms: mean %.3f  p50 %s  p99 %s  p999 %s  max %s%n", latency.getMean() / 1e6,
+                millis(latency.getPercentile(50)), millis(latency.getPercentile(99)),
+                millis(latency.getPercentile(99.9)), millis(latency.getMax()));
+    }
+
+    /**
+     * Reads the heap the server had in use after its most recent garbage collection from its metrics endpoint.
+     *
+     * @return the heap in bytes, or -1 if the metrics cannot be read
+     */
+    private long scrapeHeapAfterGc() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(URI.create(metricsUrl).toURL().openStream(),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null)
+                if (line.startsWith(HEAP_AFTER_GC_METRIC))
+                    return Long.parseLong(line.substring(HEAP_AFTER_GC_METRIC.length()).trim());
+            System.err.println("No " + HEAP_AFTER_GC_METRIC.trim() + " metric at " + metricsUrl);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error reading server metrics: " + e.getMessage());
+        }
+        return -1;
+    }
+
+    /**
+     * Has the server collect its whole heap through its metrics endpoint and reads the heap left in use, which is
+     * what the server keeps live.
+     *
+     * @return the heap in bytes, or -1 if the server does not collect on request or cannot be reached
+     */
+    private long collectServerHeap() {
+        try (HttpClient client = HttpClient.newHttpClient()) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(metricsUrl).resolve("gc"))
+                    .POST(HttpRequest.BodyPublishers.noBody()).build();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            if (response.statusCode() == 200)
+                return Long.parseLong(response.body().trim());
+            System.err.println("Server did not collect its heap (HTTP " + response.statusCode()
+                    + "); start it with -Dchatroom.metricsGc=true");
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error collecting server heap: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return -1;
+    }
+
+    /**
+     * Prints how the heap the server keeps live grew over the measurement of a soak run, per message sent, from
+     * the whole-heap collections at its start and end. The heap after an ordinary collection would not do, as it
+     * still holds old garbage until the next mixed or full collection.
+     *
+     * @return true if the heap grew by no more than the allowed bytes per message, false if it grew more or was
+     * not read
+     */
+    private boolean checkHeap() {
+        if (heapAtStart == null || heapAtEnd == null || heapAtStart.heap() < 0 || heapAtEnd.heap() < 0) {
+            System.out.println("Server heap: not collected at the start and end of the measurement");
+            return false;
+        }
+        long messages = Math.max(1, heapAtEnd.messages() - heapAtStart.messages());
+        double perMessage = (heapAtEnd.heap() - heapAtStart.heap()) / (double) messages;
+        boolean bounded = perMessage <= maxHeapBytesPerMessage;
+        System.out.printf("Server live heap: %.1f MiB at the start of the measurement, %.1f MiB at the end, %d "
+                        + "messages apart: %.2f bytes per message (limit %.1f), %s%n", heapAtStart.heap() / 1048576.0,
+                heapAtEnd.heap() / 1048576.0, messages, perMessage, maxHeapBytesPerMessage, bounded ? "bounded" : "growing");
+        return bounded;
+    }
+
+    /**
+     * Formats a duration in milliseconds.
+     *
+     * @param nanos the duration in nanoseconds
+     * @return the duration in milliseconds with three decimals
+     */
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    /**
+     * Picks the codec a user offers, per the {@code chatroom.load.codec} setting.
+     *
+     * @param index the index of the user
+     * @return the codec, alternating between the two for {@code mixed}
+     */
+    private CodecType codecFor(int index) {
+        return switch (codec) {
+            case "serialization" -> CodecType.SERIALIZATION;
+            case "mixed" -> index % 2 == 0 ? CodecType.BINARY : CodecType.SERIALIZATION;
+            default -> CodecType.BINARY;
+        };
+    }
+
+    /**
+     * The heap the server kept live at one point of a soak run.
+     *
+     * @param messages the number of messages sent by then
+     * @param heap     the heap in bytes, or -1 if it could not be read
+     */
+    private record HeapReading(long messages, long heap) {
+    }
+
+    /**
+     * One simulated user, logging in and sending on its own thread and reading on another.
+     */
+    private final class Bot {
+
+        private final int index;
+        private final String username;
+        private final String password;
+        private volatile Connection connection;
+        private volatile boolean active;
+        private long joinedAt;
+
+        /**
+         * Creates a simulated user.
+         *
+         * @param index    the index of the user in the user file
+         * @param username the username
+         * @param password the password
+         */
+        Bot(int index, String username, String password) {
+            this.index = index;
+            this.username = username;
+            this.password = password;
+        }
+
+        /**
+         * Logs in, waits for every user to be logged in, then sends messages until the measurement ends.
+         */
+        void run() {
+            try {
+                if (!login()) {
+                    loginFailures.increment();
+                    loggedIn.countDown();
+                    close();
+                    return;
+                }
+            } catch (IOException e) {
+                System.err.println("Error logging in " + username + ": " + e.getMessage());
+                loginFailures.increment();
+                loggedIn.countDown();
+                close();
+                return;
+            }
+            Thread.ofVirtual().name("reader-" + username).start(this::read);
+            loggedIn.countDown();
+            try {
+                go.await();
+                send();
+            } catch (IOException e) {
+                if (!stopping)
+                    System.err.println("Error sending from " + username + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Connects and logs in, retrying while the server turns the attempt away for being busy or rate limited,
+         * then joins the user's room.
+         *
+         * @return true if the user is logged in, false if the server refused the login
+         * @throws IOException if an I/O error occurs
+         */
+        private boolean login() throws IOException {
+            connection = new Connection(address, port);
+            connection.negotiateCodec(codecFor(index));
+            for (int attempt = 1; ; attempt++) {
+                String reply = connection.login(username, password);
+                if (reply.equals(LOGIN_SUCCESS))
+                    break;
+                if (attempt == LOGIN_ATTEMPTS || !reply.equals(SERVER_BUSY) && !reply.equals(TOO_MANY_ATTEMPTS)) {
+                    System.err.println("Login of " + username + " failed: " + reply);
+                    return false;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(LOGIN_RETRY_MILLIS * attempt));
+            }
+            if (rooms > 1)
+                connection.write(new SystemRequest(username, new TextMessageContent("join load-" + index % rooms)));
+            // Messages sent before now may reach this user as scrollback rather than live.
+            joinedAt = System.nanoTime();
+            active = true;
+            return true;
+        }
+
+        /**
+         * Sends messages at the configured rate, each due at a fixed interval from the previous one so that a
+         * late write is followed by the messages that fell due meanwhile. The first message is due at a random
+         * point of the first interval, so that users do not send in step.
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        private void send() throws IOException {
+            if (rate <= 0)
+                return;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            String padding = "x".repeat(Math.max(0, size - prefix.length() - 20));
+            for (long due = System.nanoTime() + random.nextLong(interval); due < stopAt; due += interval) {
+                LockSupport.parkNanos(due - System.nanoTime());
+                TextMessageContent content = new TextMessageContent(prefix + due + " " + padding);
+                if (users.size() > 1 && random.nextDouble() < privateShare) {
+                    int other = random.nextInt(users.size() - 1);
+                    String receiver = users.get(other < index ? other : other + 1)[0];
+                    connection.write(new UserPrivateMessage(username, false, receiver, content));
+                    privatesSent.increment();
+                } else {
+                    connection.write(new UserBroadcastMessage(username, false, content));
+                    broadcastsSent.increment();
+                }
+            }
+        }
+
+        /**
+         * Reads messages until the connection closes, recording the latency of those sent by other users during
+         * this run.
+         */
+        private void read() {
+            try {
+                Message message;
+                while ((message = connection.read()) != null) {
+                    long now = System.nanoTime();
+                    if (message instanceof UserMessage um && !username.equals(um.getSender())
+                            && um.getContent().getContent() instanceof String text && text.startsWith(prefix))
+                        record(text, now);
+                }
+                if (!stopping)
+                    disconnects.increment();
+            } catch (IOException e) {
+                if (!stopping) {
+                    System.err.println("Connection of " + username + " lost: " + e.getMessage());
+                    disconnects.increment();
+                }
+            }
+        }
+
+        /**
+         * Records the delivery of a message sent by another user.
+         *
+         * @param text     the text of the message
+         * @param received the {@link System#nanoTime()} at which it was read
+         */
+        private void record(String text, long received) {
+            int end = text.indexOf(' ', prefix.length());
+            long due = Long.parseLong(text, prefix.length(), end < 0 ? text.length() : end, 10);
+            if (due < joinedAt)
+                return;
+            delivered.increment();
+            if (due >= measureStart && due < measureEnd)
+                latency.record(received - due);
+        }
+
+        /**
+         * Logs out, so that the server does not hold the session for resuming, and closes the connection.
+         */
+        void close() {
+            Connection current = connection;
+            if (current == null)
+                return;
+            try {
+                if (active)
+                    current.write(new SystemRequest(username, new TextMessageContent("quit")));
+            } catch (IOException ignored) {
+                // The connection is already gone, and so is the session.
+            }
+            try {
+                current.close();
+            } catch (IOException e) {
+                System.err.println("Error closing connection of " + username + ": " + e.getMessage());
+            }
+        }
+    }
+}
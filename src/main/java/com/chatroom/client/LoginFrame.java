@@ -1,6 +1,7 @@
 package com.chatroom.client;
 
 import com.chatroom.common.Constants;
+import com.chatroom.common.message.SystemReply;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
@@ -37,6 +38,12 @@ public class LoginFrame extends JFrame {
                 String username = usernameField.getText();
                 String password = new String(passwordField.getPassword());
                 String result = client.authenticate(username, password);
+                if (SystemReply.USER_NOT_EXIST.equals(result) && JOptionPane.showConfirmDialog(LoginFrame.this,
+                        "用户不存在，是否以该用户名和密码注册新账号？", "注册", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+                    result = client.register(username, password);
+                    if (result == null)
+                        result = client.authenticate(username, password);
+                }
                 if (result == null) {
                     dispose();
                     client.loop();
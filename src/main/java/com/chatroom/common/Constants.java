@@ -20,6 +20,11 @@ public class Constants {
      */
     public static final String LOG_FILE = "logs/chat.log";
 
+    /**
+     * The path to the directory holding the persisted message history.
+     */
+    public static final String HISTORY_DIR = "history";
+
     /**
      * The path to the application icon file.
      */
@@ -17,8 +17,18 @@ public abstract class Message implements Serializable {
      * @param content the content of the message
      */
     public Message(MessageContent content) {
+        this(content, LocalDateTime.now());
+    }
+
+    /**
+     * Creates a new instance of a chat message with a given timestamp, e.g. when decoding it.
+     *
+     * @param content   the content of the message
+     * @param timestamp the time the message was created
+     */
+    public Message(MessageContent content, LocalDateTime timestamp) {
         this.content = content;
-        this.timestamp = LocalDateTime.now();
+        this.timestamp = timestamp;
     }
 
     /**
@@ -1,5 +1,7 @@
 package com.chatroom.common.message;
 
+import java.time.LocalDateTime;
+
 /**
  * Represents a system broadcast message in the chatroom application.
  */
@@ -7,6 +9,7 @@ public class SystemBroadcast extends SystemMessage {
 
     private final String type;
     private final String username;
+    private final String room;
 
     /**
      * Creates a new instance of a system broadcast message.
@@ -16,9 +19,35 @@ public class SystemBroadcast extends SystemMessage {
      * @param username the username associated with the broadcast
      */
     public SystemBroadcast(MessageContent content, String type, String username) {
-        super(content);
+        this(content, type, username, LocalDateTime.now());
+    }
+
+    /**
+     * Creates a new instance of a system broadcast message with a given timestamp.
+     *
+     * @param content   the content of the message
+     * @param type      the type of the broadcast (e.g., "announcement")
+     * @param username  the username associated with the broadcast
+     * @param timestamp the time the message was created
+     */
+    public SystemBroadcast(MessageContent content, String type, String username, LocalDateTime timestamp) {
+        this(content, type, username, timestamp, null);
+    }
+
+    /**
+     * Creates a new instance of a system broadcast message sent to a room.
+     *
+     * @param content   the content of the message
+     * @param type      the type of the broadcast (e.g., "announcement")
+     * @param username  the username associated with the broadcast
+     * @param timestamp the time the message was created
+     * @param room      the room the broadcast was sent to, or null for the whole server
+     */
+    public SystemBroadcast(MessageContent content, String type, String username, LocalDateTime timestamp, String room) {
+        super(content, timestamp);
         this.type = type;
         this.username = username;
+        this.room = room;
     }
 
     /**
@@ -38,5 +67,14 @@ public class SystemBroadcast extends SystemMessage {
     public String getUsername() {
         return username;
     }
+
+    /**
+     * Gets the room the broadcast was sent to.
+     *
+     * @return the room name, or null for the whole server
+     */
+    public String getRoom() {
+        return room;
+    }
 }
 
@@ -1,5 +1,7 @@
 package com.chatroom.common.message;
 
+import java.time.LocalDateTime;
+
 /**
  * Represents a system message in the chatroom application.
  */
@@ -13,4 +15,14 @@ public abstract class SystemMessage extends Message {
     public SystemMessage(MessageContent content) {
         super(content);
     }
+
+    /**
+     * Creates a new instance of a system message with a given timestamp.
+     *
+     * @param content   the content of the message
+     * @param timestamp the time the message was created
+     */
+    public SystemMessage(MessageContent content, LocalDateTime timestamp) {
+        super(content, timestamp);
+    }
 }
@@ -0,0 +1,86 @@
+package com.chatroom.common.message;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Represents a system message carrying the changes to the member list of a room between two presence versions.
+ * <p>
+ * A client holding the member list at {@link #getBaseVersion()} brings it to {@link #getVersion()} by adding
+ * the joined users and removing the left ones. Applying a delta is idempotent, so one that overlaps changes
+ * already seen through join and leave broadcasts does no harm.
+ */
+public class SystemPresence extends SystemMessage {
+
+    private final String room;
+    private final long baseVersion;
+    private final long version;
+    private final List<String> joined;
+    private final List<String> left;
+
+    /**
+     * Creates a new instance of a presence delta message.
+     *
+     * @param content     the content of the message
+     * @param timestamp   the time the message was created
+     * @param room        the room whose member list changed
+     * @param baseVersion the version the changes apply to
+     * @param version     the version reached by applying the changes
+     * @param joined      the users who joined and are still in the room
+     * @param left        the users who left and are no longer in the room
+     */
+    public SystemPresence(MessageContent content, LocalDateTime timestamp, String room, long baseVersion, long version,
+                          List<String> joined, List<String> left) {
+        super(content, timestamp);
+        this.room = room;
+        this.baseVersion = baseVersion;
+        this.version = version;
+        this.joined = joined;
+        this.left = left;
+    }
+
+    /**
+     * Gets the room whose member list changed.
+     *
+     * @return the room name
+     */
+    public String getRoom() {
+        return room;
+    }
+
+    /**
+     * Gets the version the changes apply to.
+     *
+     * @return the base version
+     */
+    public long getBaseVersion() {
+        return baseVersion;
+    }
+
+    /**
+     * Gets the version reached by applying the changes.
+     *
+     * @return the new version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the users who joined the room.
+     *
+     * @return the usernames to add
+     */
+    public List<String> getJoined() {
+        return joined;
+    }
+
+    /**
+     * Gets the users who left the room.
+     *
+     * @return the usernames to remove
+     */
+    public List<String> getLeft() {
+        return left;
+    }
+}
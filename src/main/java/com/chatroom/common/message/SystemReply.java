@@ -1,5 +1,7 @@
 package com.chatroom.common.message;
 
+import java.time.LocalDateTime;
+
 /**
  * Represents a system reply message in the chatroom application.
  */
@@ -25,6 +27,51 @@ public class SystemReply extends SystemMessage {
      */
     public static final String PASSWORD_INCORRECT = "Password Incorrect";
 
+    /**
+     * Indicates that the server is too busy to check credentials right now.
+     */
+    public static final String SERVER_BUSY = "Server Busy";
+
+    /**
+     * Indicates that too many login attempts were made from the client's address.
+     */
+    public static final String TOO_MANY_ATTEMPTS = "Too Many Attempts";
+
+    /**
+     * Indicates a successful registration.
+     */
+    public static final String REGISTER_SUCCESS = "Register Success";
+
+    /**
+     * Indicates that the requested username is already taken.
+     */
+    public static final String USER_EXISTS = "User Exists";
+
+    /**
+     * Indicates that the requested username or password cannot be used.
+     */
+    public static final String INVALID_ACCOUNT = "Invalid Username Or Password";
+
+    /**
+     * Indicates that the server could not save a new account.
+     */
+    public static final String REGISTER_FAILED = "Register Failed";
+
+    /**
+     * Indicates that a dropped session was resumed; the messages missed meanwhile follow.
+     */
+    public static final String RESUME_SUCCESS = "Resume Success";
+
+    /**
+     * Indicates that a session cannot be resumed, because its token is unknown or has expired.
+     */
+    public static final String RESUME_FAILED = "Resume Failed";
+
+    /**
+     * Prefixes the token a client may later use to resume its session, which follows it in the reply.
+     */
+    public static final String RESUME_TOKEN = "Resume Token: ";
+
     /**
      * Creates a new instance of a system reply message.
      *
@@ -33,4 +80,14 @@ public class SystemReply extends SystemMessage {
     public SystemReply(MessageContent content) {
         super(content);
     }
+
+    /**
+     * Creates a new instance of a system reply message with a given timestamp.
+     *
+     * @param content   the content of the message
+     * @param timestamp the time the message was created
+     */
+    public SystemReply(MessageContent content, LocalDateTime timestamp) {
+        super(content, timestamp);
+    }
 }
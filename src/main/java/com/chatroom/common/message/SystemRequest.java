@@ -1,10 +1,22 @@
 package com.chatroom.common.message;
 
+import java.time.LocalDateTime;
+
 /**
  * Represents a system request message in the chatroom application.
  */
 public class SystemRequest extends SystemMessage {
 
+    /**
+     * Sent instead of a username before logging in to register the username and password that follow.
+     */
+    public static final String REGISTER = "@@register";
+
+    /**
+     * Sent instead of a username before logging in to resume the session of the username and token that follow.
+     */
+    public static final String RESUME = "@@resume";
+
     private final String username;
 
     /**
@@ -14,7 +26,18 @@ public class SystemRequest extends SystemMessage {
      * @param content  the content of the message
      */
     public SystemRequest(String username, MessageContent content) {
-        super(content);
+        this(username, content, LocalDateTime.now());
+    }
+
+    /**
+     * Creates a new instance of a system request message with a given timestamp.
+     *
+     * @param username  the username associated with the request
+     * @param content   the content of the message
+     * @param timestamp the time the message was created
+     */
+    public SystemRequest(String username, MessageContent content, LocalDateTime timestamp) {
+        super(content, timestamp);
         this.username = username;
     }
 
@@ -1,5 +1,6 @@
 package com.chatroom.common.message;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -8,6 +9,8 @@ import java.util.List;
 public class SystemUserList extends SystemMessage {
 
     private final List<String> users;
+    private final String room;
+    private final long version;
 
     /**
      * Creates a new instance of a system user list message.
@@ -16,8 +19,46 @@ public class SystemUserList extends SystemMessage {
      * @param users   the list of usernames representing online users
      */
     public SystemUserList(MessageContent content, List<String> users) {
-        super(content);
+        this(content, users, LocalDateTime.now());
+    }
+
+    /**
+     * Creates a new instance of a system user list message with a given timestamp.
+     *
+     * @param content   the content of the message
+     * @param users     the list of usernames representing online users
+     * @param timestamp the time the message was created
+     */
+    public SystemUserList(MessageContent content, List<String> users, LocalDateTime timestamp) {
+        this(content, users, timestamp, null);
+    }
+
+    /**
+     * Creates a new instance of a system user list message for the members of a room.
+     *
+     * @param content   the content of the message
+     * @param users     the list of usernames representing the room's members
+     * @param timestamp the time the message was created
+     * @param room      the room the list belongs to, or null for the whole server
+     */
+    public SystemUserList(MessageContent content, List<String> users, LocalDateTime timestamp, String room) {
+        this(content, users, timestamp, room, 0);
+    }
+
+    /**
+     * Creates a new instance of a system user list message for the members of a room at a presence version.
+     *
+     * @param content   the content of the message
+     * @param users     the list of usernames representing the room's members
+     * @param timestamp the time the message was created
+     * @param room      the room the list belongs to, or null for the whole server
+     * @param version   the presence version of the room the list reflects, or 0 if unknown
+     */
+    public SystemUserList(MessageContent content, List<String> users, LocalDateTime timestamp, String room, long version) {
+        super(content, timestamp);
         this.users = users;
+        this.room = room;
+        this.version = version;
     }
 
     /**
@@ -28,4 +69,22 @@ public class SystemUserList extends SystemMessage {
     public List<String> getUsers() {
         return users;
     }
+
+    /**
+     * Gets the room the list belongs to.
+     *
+     * @return the room name, or null for the whole server
+     */
+    public String getRoom() {
+        return room;
+    }
+
+    /**
+     * Gets the presence version of the room the list reflects.
+     *
+     * @return the version, or 0 if unknown
+     */
+    public long getVersion() {
+        return version;
+    }
 }
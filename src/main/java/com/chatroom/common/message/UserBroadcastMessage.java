@@ -1,10 +1,14 @@
 package com.chatroom.common.message;
 
+import java.time.LocalDateTime;
+
 /**
  * Represents a user broadcast message in the chatroom application.
  */
 public class UserBroadcastMessage extends UserMessage {
 
+    private final String room;
+
     /**
      * Creates a new instance of a user broadcast message.
      *
@@ -13,6 +17,41 @@ public class UserBroadcastMessage extends UserMessage {
      * @param content   the content of the message
      */
     public UserBroadcastMessage(String sender, boolean anonymous, MessageContent content) {
-        super(content, sender, anonymous);
+        this(sender, anonymous, content, LocalDateTime.now());
+    }
+
+    /**
+     * Creates a new instance of a user broadcast message with a given timestamp.
+     *
+     * @param sender    the sender's username
+     * @param anonymous true if the message is anonymous, false otherwise
+     * @param content   the content of the message
+     * @param timestamp the time the message was created
+     */
+    public UserBroadcastMessage(String sender, boolean anonymous, MessageContent content, LocalDateTime timestamp) {
+        this(sender, anonymous, content, timestamp, null);
+    }
+
+    /**
+     * Creates a new instance of a user broadcast message posted to a room.
+     *
+     * @param sender    the sender's username
+     * @param anonymous true if the message is anonymous, false otherwise
+     * @param content   the content of the message
+     * @param timestamp the time the message was created
+     * @param room      the room the message was posted to, or null if not yet routed by the server
+     */
+    public UserBroadcastMessage(String sender, boolean anonymous, MessageContent content, LocalDateTime timestamp, String room) {
+        super(content, sender, anonymous, timestamp);
+        this.room = room;
+    }
+
+    /**
+     * Gets the room the message was posted to.
+     *
+     * @return the room name, or null if the message has not been routed by the server
+     */
+    public String getRoom() {
+        return room;
     }
 }
\ No newline at end of file
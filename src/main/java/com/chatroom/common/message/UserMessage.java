@@ -1,5 +1,7 @@
 package com.chatroom.common.message;
 
+import java.time.LocalDateTime;
+
 /**
  * Represents a user message in the chatroom application.
  */
@@ -16,7 +18,19 @@ public abstract class UserMessage extends Message {
      * @param anonymous true if the message is anonymous, false otherwise
      */
     public UserMessage(MessageContent content, String sender, boolean anonymous) {
-        super(content);
+        this(content, sender, anonymous, LocalDateTime.now());
+    }
+
+    /**
+     * Creates a new instance of a user message with a given timestamp.
+     *
+     * @param content   the content of the message
+     * @param sender    the sender's username
+     * @param anonymous true if the message is anonymous, false otherwise
+     * @param timestamp the time the message was created
+     */
+    public UserMessage(MessageContent content, String sender, boolean anonymous, LocalDateTime timestamp) {
+        super(content, timestamp);
         this.sender = sender;
         this.anonymous = anonymous;
     }
@@ -1,5 +1,7 @@
 package com.chatroom.common.message;
 
+import java.time.LocalDateTime;
+
 /**
  * Represents a user private message in the chatroom application.
  */
@@ -16,7 +18,20 @@ public class UserPrivateMessage extends UserMessage {
      * @param content   the content of the message
      */
     public UserPrivateMessage(String sender, boolean anonymous, String receiver, MessageContent content) {
-        super(content, sender, anonymous);
+        this(sender, anonymous, receiver, content, LocalDateTime.now());
+    }
+
+    /**
+     * Creates a new instance of a user private message with a given timestamp.
+     *
+     * @param sender    the sender's username
+     * @param anonymous true if the message is anonymous, false otherwise
+     * @param receiver  the receiver's username
+     * @param content   the content of the message
+     * @param timestamp the time the message was created
+     */
+    public UserPrivateMessage(String sender, boolean anonymous, String receiver, MessageContent content, LocalDateTime timestamp) {
+        super(content, sender, anonymous, timestamp);
         this.receiver = receiver;
     }
 
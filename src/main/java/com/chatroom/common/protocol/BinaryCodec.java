@@ -0,0 +1,380 @@
+package com.chatroom.common.protocol;
+
+import com.chatroom.common.message.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact binary message codec.
+ * <p>
+ * A payload starts with a one-byte type tag and the creation time in epoch milliseconds, followed by
+ * the fields of the message type in declaration order. Integers are unsigned LEB128 varints and strings
+ * are a varint of the UTF-8 length plus one (zero standing for null) followed by the UTF-8 bytes.
+ * The room of a broadcast or user list is an optional trailing string, and the presence version of a user
+ * list an optional varint after it, so payloads written before those fields existed still decode.
+ * Only {@link TextMessageContent} is supported as message content.
+ */
+public class BinaryCodec implements MessageCodec {
+
+    private static final byte USER_BROADCAST = 1;
+    private static final byte USER_PRIVATE = 2;
+    private static final byte SYSTEM_REQUEST = 3;
+    private static final byte SYSTEM_REPLY = 4;
+    private static final byte SYSTEM_BROADCAST = 5;
+    private static final byte SYSTEM_USER_LIST = 6;
+    private static final byte SYSTEM_PRESENCE = 7;
+
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        Output out = new Output();
+        switch (message) {
+            case UserBroadcastMessage ubm -> {
+                writeHeader(out, USER_BROADCAST, ubm);
+                out.writeBoolean(ubm.isAnonymous());
+                out.writeString(ubm.getSender());
+                out.writeString(ubm.getRoom());
+            }
+            case UserPrivateMessage upm -> {
+                writeHeader(out, USER_PRIVATE, upm);
+                out.writeBoolean(upm.isAnonymous());
+                out.writeString(upm.getSender());
+                out.writeString(upm.getReceiver());
+            }
+            case SystemRequest sr -> {
+                writeHeader(out, SYSTEM_REQUEST, sr);
+                out.writeString(sr.getUsername());
+            }
+            case SystemReply sr -> writeHeader(out, SYSTEM_REPLY, sr);
+            case SystemBroadcast sb -> {
+                writeHeader(out, SYSTEM_BROADCAST, sb);
+                out.writeString(sb.getType());
+                out.writeString(sb.getUsername());
+                out.writeString(sb.getRoom());
+            }
+            case SystemUserList sul -> {
+                writeHeader(out, SYSTEM_USER_LIST, sul);
+                writeStrings(out, sul.getUsers());
+                out.writeString(sul.getRoom());
+                out.writeVarLong(sul.getVersion());
+            }
+            case SystemPresence sp -> {
+                writeHeader(out, SYSTEM_PRESENCE, sp);
+                out.writeString(sp.getRoom());
+                out.writeVarLong(sp.getBaseVersion());
+                out.writeVarLong(sp.getVersion());
+                writeStrings(out, sp.getJoined());
+                writeStrings(out, sp.getLeft());
+            }
+            default -> throw new InvalidObjectException("Unsupported message type: " + message.getClass());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the fields shared by all message types.
+     *
+     * @param out     the output to write to
+     * @param tag     the message type tag
+     * @param message the message being encoded
+     * @throws IOException if the message content is not supported
+     */
+    private void writeHeader(Output out, byte tag, Message message) throws IOException {
+        if (!(message.getContent() instanceof TextMessageContent content))
+            throw new InvalidObjectException("Unsupported message content type: " + message.getContent());
+        out.writeByte(tag);
+        out.writeVarLong(message.getTimestamp().atZone(zone).toInstant().toEpochMilli());
+        out.writeString(content.getText());
+    }
+
+    /**
+     * Writes a list of strings as a count followed by the strings.
+     *
+     * @param out     the output to write to
+     * @param strings the strings to write
+     */
+    private static void writeStrings(Output out, List<String> strings) {
+        out.writeVarLong(strings.size());
+        for (String string : strings)
+            out.writeString(string);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Message decode(byte[] data, int offset, int length) throws IOException {
+        Input in = new Input(data, offset, offset + length);
+        byte tag = in.readByte();
+        LocalDateTime timestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(in.readVarLong()), zone);
+        TextMessageContent content = new TextMessageContent(in.readString());
+        Message message = switch (tag) {
+            case USER_BROADCAST -> {
+                boolean anonymous = in.readBoolean();
+                String sender = in.readString();
+                yield new UserBroadcastMessage(sender, anonymous, content, timestamp, readRoom(in));
+            }
+            case USER_PRIVATE -> {
+                boolean anonymous = in.readBoolean();
+                String sender = in.readString();
+                yield new UserPrivateMessage(sender, anonymous, in.readString(), content, timestamp);
+            }
+            case SYSTEM_REQUEST -> new SystemRequest(in.readString(), content, timestamp);
+            case SYSTEM_REPLY -> new SystemReply(content, timestamp);
+            case SYSTEM_BROADCAST -> {
+                String type = in.readString();
+                String username = in.readString();
+                yield new SystemBroadcast(content, type, username, timestamp, readRoom(in));
+            }
+            case SYSTEM_USER_LIST -> {
+                List<String> users = readStrings(in);
+                String room = readRoom(in);
+                yield new SystemUserList(content, users, timestamp, room, in.remaining() == 0 ? 0 : in.readVarLong());
+            }
+            case SYSTEM_PRESENCE -> {
+                String room = in.readString();
+                long baseVersion = in.readVarLong();
+                long version = in.readVarLong();
+                List<String> joined = readStrings(in);
+                yield new SystemPresence(content, timestamp, room, baseVersion, version, joined, readStrings(in));
+            }
+            default -> throw new InvalidObjectException("Unknown message type tag: " + tag);
+        };
+        if (in.remaining() != 0)
+            throw new InvalidObjectException("Trailing bytes after message: " + in.remaining());
+        return message;
+    }
+
+    /**
+     * Reads a list of strings written by {@link #writeStrings}.
+     *
+     * @param in the input to read from
+     * @return the strings read
+     * @throws IOException if the list is truncated or malformed
+     */
+    private static List<String> readStrings(Input in) throws IOException {
+        int count = in.readLength();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            strings.add(in.readString());
+        return strings;
+    }
+
+    /**
+     * Reads the optional room field that ends some message types.
+     *
+     * @param in the input positioned after the other fields
+     * @return the room, or null if the payload has no room field
+     * @throws IOException if the field is truncated or malformed
+     */
+    private static String readRoom(Input in) throws IOException {
+        return in.remaining() == 0 ? null : in.readString();
+    }
+
+    /**
+     * Reads the creation time of an encoded message without decoding the rest of it.
+     *
+     * @param data   the buffer holding the payload
+     * @param offset the offset of the payload in the buffer
+     * @param length the length of the payload
+     * @return the creation time in epoch milliseconds
+     * @throws IOException if the payload is truncated or malformed
+     */
+    public static long readTimestamp(byte[] data, int offset, int length) throws IOException {
+        Input in = new Input(data, offset, offset + length);
+        in.readByte();
+        return in.readVarLong();
+    }
+
+    /**
+     * A growable byte buffer with the primitive writers used by the codec.
+     */
+    private static final class Output {
+
+        private byte[] buffer = new byte[64];
+        private int size;
+
+        /**
+         * Grows the buffer so that it can hold the given number of additional bytes.
+         *
+         * @param additional the number of bytes about to be written
+         */
+        private void ensureCapacity(int additional) {
+            if (size + additional > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+        }
+
+        /**
+         * Writes a single byte.
+         *
+         * @param value the byte to write
+         */
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        /**
+         * Writes a boolean as a single byte.
+         *
+         * @param value the boolean to write
+         */
+        void writeBoolean(boolean value) {
+            writeByte(value ? 1 : 0);
+        }
+
+        /**
+         * Writes an unsigned varint.
+         *
+         * @param value the value to write
+         */
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        /**
+         * Writes a nullable UTF-8 string.
+         *
+         * @param value the string to write
+         */
+        void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        /**
+         * Gets the bytes written so far.
+         *
+         * @return a copy of the written bytes
+         */
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    /**
+     * A bounds-checked reader over a payload.
+     */
+    private static final class Input {
+
+        private final byte[] data;
+        private final int limit;
+        private int position;
+
+        /**
+         * Creates a reader over a range of a byte array.
+         *
+         * @param data   the buffer holding the payload
+         * @param offset the offset of the first byte
+         * @param limit  the offset just past the last byte
+         */
+        Input(byte[] data, int offset, int limit) {
+            this.data = data;
+            this.position = offset;
+            this.limit = limit;
+        }
+
+        /**
+         * Gets the number of unread bytes.
+         *
+         * @return the number of unread bytes
+         */
+        int remaining() {
+            return limit - position;
+        }
+
+        /**
+         * Reads a single byte.
+         *
+         * @return the byte read
+         * @throws EOFException if the payload is exhausted
+         */
+        byte readByte() throws EOFException {
+            if (position >= limit)
+                throw new EOFException("Truncated message");
+            return data[position++];
+        }
+
+        /**
+         * Reads a boolean.
+         *
+         * @return the boolean read
+         * @throws EOFException if the payload is exhausted
+         */
+        boolean readBoolean() throws EOFException {
+            return readByte() != 0;
+        }
+
+        /**
+         * Reads an unsigned varint.
+         *
+         * @return the value read
+         * @throws IOException if the varint is truncated or malformed
+         */
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new InvalidObjectException("Malformed varint");
+        }
+
+        /**
+         * Reads an element count, which cannot exceed the number of unread bytes.
+         *
+         * @return the count read
+         * @throws IOException if the count is malformed or out of range
+         */
+        int readLength() throws IOException {
+            long length = readVarLong();
+            if (length < 0 || length > remaining())
+                throw new InvalidObjectException("Invalid length: " + length);
+            return (int) length;
+        }
+
+        /**
+         * Reads a nullable UTF-8 string.
+         *
+         * @return the string read
+         * @throws IOException if the string is truncated or malformed
+         */
+        String readString() throws IOException {
+            long length = readVarLong();
+            if (length == 0)
+                return null;
+            if (length < 0 || length - 1 > remaining())
+                throw new EOFException("Truncated message");
+            String value = new String(data, position, (int) length - 1, StandardCharsets.UTF_8);
+            position += (int) length - 1;
+            return value;
+        }
+    }
+}
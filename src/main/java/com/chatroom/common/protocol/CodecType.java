@@ -0,0 +1,62 @@
+package com.chatroom.common.protocol;
+
+/**
+ * Enumerates the message codecs a client and a server can agree on during the handshake.
+ */
+public enum CodecType {
+
+    /**
+     * Java object serialization of every message.
+     */
+    SERIALIZATION(1, new SerializationCodec()),
+
+    /**
+     * The compact binary encoding of {@link BinaryCodec}.
+     */
+    BINARY(2, new BinaryCodec());
+
+    private final byte id;
+    private final MessageCodec codec;
+
+    /**
+     * Creates a codec type.
+     *
+     * @param id    the identifier sent on the wire
+     * @param codec the shared, stateless codec instance
+     */
+    CodecType(int id, MessageCodec codec) {
+        this.id = (byte) id;
+        this.codec = codec;
+    }
+
+    /**
+     * Looks up a codec type by its wire identifier.
+     *
+     * @param id the identifier sent on the wire
+     * @return the codec type, or null if the identifier is unknown
+     */
+    public static CodecType forId(byte id) {
+        for (CodecType type : values())
+            if (type.id == id)
+                return type;
+        return null;
+    }
+
+    /**
+     * Gets the identifier sent on the wire.
+     *
+     * @return the codec identifier
+     */
+    public byte getId() {
+        return id;
+    }
+
+    /**
+     * Gets the codec instance.
+     *
+     * @return the message codec
+     */
+    public MessageCodec getCodec() {
+        return codec;
+    }
+}
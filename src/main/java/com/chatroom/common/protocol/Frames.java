@@ -0,0 +1,101 @@
+package com.chatroom.common.protocol;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Utility class for the length-prefixed framing used on the chatroom wire.
+ * <p>
+ * Every frame is a 4-byte big-endian payload length followed by the payload itself,
+ * so that a receiver can split the byte stream into messages without decoding it.
+ */
+public class Frames {
+
+    /**
+     * The size of the length prefix in bytes.
+     */
+    public static final int HEADER_LENGTH = Integer.BYTES;
+
+    /**
+     * The largest payload a peer is allowed to send in a single frame.
+     */
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    /**
+     * Wraps a payload into a frame ready to be written to a channel.
+     *
+     * @param payload the encoded message
+     * @return a buffer holding the length prefix followed by the payload
+     */
+    public static ByteBuffer wrap(byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+        frame.putInt(payload.length).put(payload).flip();
+        return frame;
+    }
+
+    /**
+     * Wraps several payloads into consecutive frames held by one buffer, so they can be written at once.
+     *
+     * @param payloads the encoded messages
+     * @return a buffer holding each payload preceded by its length prefix
+     */
+    public static ByteBuffer wrapAll(List<byte[]> payloads) {
+        int length = 0;
+        for (byte[] payload : payloads)
+            length += HEADER_LENGTH + payload.length;
+        ByteBuffer frames = ByteBuffer.allocate(length);
+        for (byte[] payload : payloads)
+            frames.putInt(payload.length).put(payload);
+        return frames.flip();
+    }
+
+    /**
+     * Writes a payload as a single frame and flushes the stream.
+     *
+     * @param out     the stream to write to
+     * @param payload the encoded message
+     * @throws IOException if an I/O error occurs
+     */
+    public static void write(DataOutputStream out, byte[] payload) throws IOException {
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.flush();
+    }
+
+    /**
+     * Reads the next frame from the stream.
+     *
+     * @param in the stream to read from
+     * @return the frame payload, or null if the stream ended cleanly on a frame boundary
+     * @throws IOException if an I/O error occurs or the frame is malformed
+     */
+    public static @Nullable byte[] read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        checkLength(length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+
+    /**
+     * Validates a frame length read from the wire.
+     *
+     * @param length the announced payload length
+     * @throws IOException if the length is negative or exceeds {@link #MAX_FRAME_LENGTH}
+     */
+    public static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_LENGTH)
+            throw new IOException("Invalid frame length: " + length);
+    }
+}
@@ -0,0 +1,88 @@
+package com.chatroom.common.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Utility class for the codec negotiation that opens every connection.
+ * <p>
+ * The client's first frame is a hello: the magic number, the protocol version and the identifiers of
+ * the codecs it supports, most preferred first. The server answers with a one-byte frame holding the
+ * identifier of the codec both sides use from then on, or zero if it supports none of them.
+ */
+public class Handshake {
+
+    /**
+     * The magic number opening a hello frame ("CHAT").
+     */
+    public static final int MAGIC = 0x43484154;
+
+    /**
+     * The current protocol version.
+     */
+    public static final byte VERSION = 1;
+
+    /**
+     * The codec identifier answered when no codec can be agreed on.
+     */
+    public static final byte NO_CODEC = 0;
+
+    /**
+     * Builds the payload of a client hello.
+     *
+     * @param codecs the supported codecs, most preferred first
+     * @return the hello payload
+     */
+    public static byte[] hello(CodecType... codecs) {
+        ByteBuffer hello = ByteBuffer.allocate(Integer.BYTES + 1 + codecs.length);
+        hello.putInt(MAGIC).put(VERSION);
+        for (CodecType codec : codecs)
+            hello.put(codec.getId());
+        return hello.array();
+    }
+
+    /**
+     * Picks the codec for a connection from a client hello.
+     *
+     * @param data   the buffer holding the hello payload
+     * @param offset the offset of the payload in the buffer
+     * @param length the length of the payload
+     * @return the first codec offered by the client that is known to this side, or null if there is none
+     * @throws IOException if the payload is not a valid hello
+     */
+    public static CodecType select(byte[] data, int offset, int length) throws IOException {
+        ByteBuffer hello = ByteBuffer.wrap(data, offset, length);
+        if (length < Integer.BYTES + 1 || hello.getInt() != MAGIC || hello.get() != VERSION)
+            throw new IOException("Invalid handshake");
+        while (hello.hasRemaining()) {
+            CodecType codec = CodecType.forId(hello.get());
+            if (codec != null)
+                return codec;
+        }
+        return null;
+    }
+
+    /**
+     * Builds the payload of a server answer.
+     *
+     * @param codec the selected codec, or null if none could be agreed on
+     * @return the answer payload
+     */
+    public static byte[] answer(CodecType codec) {
+        return new byte[]{codec == null ? NO_CODEC : codec.getId()};
+    }
+
+    /**
+     * Reads the codec from a server answer.
+     *
+     * @param payload the answer payload
+     * @return the selected codec
+     * @throws IOException if the answer is malformed or the server rejected every offered codec
+     */
+    public static CodecType accepted(byte[] payload) throws IOException {
+        CodecType codec = payload.length == 1 ? CodecType.forId(payload[0]) : null;
+        if (codec == null)
+            throw new IOException("No common message codec with the server");
+        return codec;
+    }
+}
@@ -0,0 +1,31 @@
+package com.chatroom.common.protocol;
+
+import com.chatroom.common.message.Message;
+
+import java.io.IOException;
+
+/**
+ * Converts chat messages to and from the payload of a wire frame.
+ */
+public interface MessageCodec {
+
+    /**
+     * Encodes a message into a frame payload.
+     *
+     * @param message the message to encode
+     * @return the encoded bytes
+     * @throws IOException if the message cannot be encoded
+     */
+    byte[] encode(Message message) throws IOException;
+
+    /**
+     * Decodes a message from a frame payload.
+     *
+     * @param data   the buffer holding the payload
+     * @param offset the offset of the payload in the buffer
+     * @param length the length of the payload
+     * @return the decoded message
+     * @throws IOException if the payload is not a valid message
+     */
+    Message decode(byte[] data, int offset, int length) throws IOException;
+}
@@ -0,0 +1,38 @@
+package com.chatroom.common.protocol;
+
+import com.chatroom.common.message.Message;
+
+import java.io.*;
+
+/**
+ * A message codec based on Java object serialization.
+ * <p>
+ * Each message is serialized on its own stream, so frames are self-contained and can be
+ * decoded independently of the ones that preceded them.
+ */
+public class SerializationCodec implements MessageCodec {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(message);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Message decode(byte[] data, int offset, int length) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data, offset, length))) {
+            return (Message) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new InvalidObjectException("Not a chat message: " + e.getMessage());
+        }
+    }
+}
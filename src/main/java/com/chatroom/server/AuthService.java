@@ -0,0 +1,204 @@
+package com.chatroom.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs login attempts on a bounded pool of worker threads, so that slow password hashing never holds up the
+ * threads reading from connections.
+ * <p>
+ * Each client IP address has a token bucket: an attempt takes a token, and tokens come back at a steady rate up
+ * to a small burst. An attempt from an address with no token left, or arriving while every worker is busy and
+ * the queue is full, is rejected at once instead of waiting, so a login flood is shed while other clients keep
+ * logging in.
+ * <p>
+ * Buckets that have refilled completely are forgotten by a sweep every few seconds. Should the number of
+ * addresses tracked still reach its cap, attempts from further addresses share one bucket until the sweep makes
+ * room, which keeps memory bounded under a flood from many addresses at the cost of slowing their logins.
+ */
+public class AuthService {
+
+    /**
+     * The outcome of submitting a login attempt.
+     */
+    public enum Admission {
+
+        /**
+         * The attempt was queued and will run on a worker.
+         */
+        ACCEPTED,
+
+        /**
+         * The client's address has made too many attempts recently.
+         */
+        RATE_LIMITED,
+
+        /**
+         * Every worker is busy and the queue is full.
+         */
+        BUSY
+    }
+
+    private static final int MAX_TRACKED_ADDRESSES = 65_536;
+    private static final long SWEEP_INTERVAL_SECONDS = 10;
+
+    private final ThreadPoolExecutor workers;
+    private final ScheduledThreadPoolExecutor sweeper;
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final TokenBucket untracked;
+    private final int burst;
+    private final double tokensPerNano;
+    private final LongAdder untrackedAttempts = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder busy = new LongAdder();
+
+    /**
+     * Creates an authentication service and starts its workers and the thread forgetting idle addresses.
+     *
+     * @param threads           the number of worker threads
+     * @param queueCapacity     the number of attempts that may wait for a worker
+     * @param burst             the number of attempts an address may make in a row
+     * @param attemptsPerMinute the rate at which an address regains attempts
+     */
+    public AuthService(int threads, int queueCapacity, int burst, int attemptsPerMinute) {
+        AtomicInteger count = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), runnable -> {
+            Thread thread = new Thread(runnable, "auth-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.burst = Math.max(1, burst);
+        this.tokensPerNano = attemptsPerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+        this.untracked = new TokenBucket(this.burst, System.nanoTime());
+        this.sweeper = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "auth-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Submits a login attempt.
+     *
+     * @param address the IP address of the client
+     * @param attempt the work of the attempt, run on a worker thread if accepted
+     * @return whether the attempt was accepted, and if not why
+     */
+    public Admission submit(String address, Runnable attempt) {
+        long now = System.nanoTime();
+        TokenBucket bucket = buckets.get(address);
+        if (bucket == null && buckets.size() < MAX_TRACKED_ADDRESSES)
+            bucket = buckets.computeIfAbsent(address, key -> new TokenBucket(burst, now));
+        else if (bucket == null) {
+            bucket = untracked;
+            untrackedAttempts.increment();
+        }
+        if (!bucket.tryTake(now)) {
+            rateLimited.increment();
+            return Admission.RATE_LIMITED;
+        }
+        try {
+            workers.execute(attempt);
+            return Admission.ACCEPTED;
+        } catch (RejectedExecutionException e) {
+            busy.increment();
+            return Admission.BUSY;
+        }
+    }
+
+    /**
+     * Describes the state of the service.
+     *
+     * @return the busy workers, queued attempts, rejections, tracked addresses and attempts from untracked ones
+     */
+    public String describe() {
+        return "active=" + workers.getActiveCount() + "/" + workers.getMaximumPoolSize()
+                + " queued=" + workers.getQueue().size()
+                + " completed=" + workers.getCompletedTaskCount()
+                + " rejectedBusy=" + busy.sum()
+                + " rateLimited=" + rateLimited.sum()
+                + " addresses=" + buckets.size()
+                + " untrackedAttempts=" + untrackedAttempts.sum();
+    }
+
+    /**
+     * Forgets the addresses whose bucket has refilled completely. Runs on the sweeper thread.
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.isFull(now));
+    }
+
+    /**
+     * Stops the workers, abandoning queued attempts, and the sweeper.
+     */
+    public void close() {
+        workers.shutdownNow();
+        sweeper.shutdownNow();
+    }
+
+    /**
+     * The login attempts left to one address, refilled continuously.
+     */
+    private final class TokenBucket {
+
+        private double tokens;
+        private long updated;
+
+        /**
+         * Creates a full bucket.
+         *
+         * @param tokens the capacity of the bucket
+         * @param now    the current {@link System#nanoTime()}
+         */
+        TokenBucket(int tokens, long now) {
+            this.tokens = tokens;
+            this.updated = now;
+        }
+
+        /**
+         * Adds the tokens earned since the last update.
+         *
+         * @param now the current {@link System#nanoTime()}
+         */
+        private void refill(long now) {
+            if (now <= updated)
+                return;
+            tokens = Math.min(burst, tokens + (now - updated) * tokensPerNano);
+            updated = now;
+        }
+
+        /**
+         * Takes a token if one is left.
+         *
+         * @param now the current {@link System#nanoTime()}
+         * @return true if a token was taken, false if the bucket is empty
+         */
+        synchronized boolean tryTake(long now) {
+            refill(now);
+            if (tokens < 1)
+                return false;
+            tokens--;
+            return true;
+        }
+
+        /**
+         * Checks whether the bucket has refilled completely, so that forgetting it changes nothing.
+         *
+         * @param now the current {@link System#nanoTime()}
+         * @return true if the bucket is full
+         */
+        synchronized boolean isFull(long now) {
+            refill(now);
+            return tokens >= burst;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.chatroom.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A server engine that serves every connection with a dedicated blocking {@link ClientHandler},
+ * whose reader and writer loops each take a thread from the pool.
+ */
+public class BlockingServerEngine implements ServerEngine {
+
+    private final Server server;
+    private final ExecutorService pool;
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * Creates a new blocking engine.
+     *
+     * @param server the associated server
+     * @param pool   the executor running the client handlers
+     */
+    public BlockingServerEngine(Server server, ExecutorService pool) {
+        this.server = server;
+        this.pool = pool;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void bind(int port, int backlog) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), backlog);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void serve() throws IOException {
+        try {
+            while (serverChannel.isOpen()) {
+                SocketChannel channel = serverChannel.accept();
+                ClientHandler clientHandler = new ClientHandler(channel, server);
+                server.addClient(clientHandler);
+                pool.execute(clientHandler);
+                pool.execute(clientHandler::writeLoop);
+            }
+        } catch (ClosedChannelException ignored) {
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        if (serverChannel != null)
+            serverChannel.close();
+        pool.shutdown();
+    }
+}
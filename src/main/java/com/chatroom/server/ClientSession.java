@@ -0,0 +1,959 @@
+package com.chatroom.server;
+
+import com.chatroom.common.message.*;
+import com.chatroom.common.protocol.CodecType;
+import com.chatroom.common.protocol.Frames;
+import com.chatroom.common.protocol.Handshake;
+import com.chatroom.server.events.FrameReceivedEvent;
+import com.chatroom.server.events.MessageDecodedEvent;
+import com.chatroom.server.events.MessageDispatchedEvent;
+import com.chatroom.server.history.MessageStore;
+import com.chatroom.server.history.StoredMessage;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.chatroom.common.message.SystemReply.*;
+
+/**
+ * Represents the server side of a client connection, independent of how its I/O is driven.
+ * <p>
+ * Subclasses read frames from their transport and pass them to {@link #handleFrame(byte[], int, int)},
+ * which runs the codec handshake, the authentication flow and then the chat protocol.
+ * Outgoing frames are put on a bounded {@link OutboundQueue} that the subclass drains on its own writer,
+ * so a sender never waits for a slow client's socket.
+ * <p>
+ * When the connection of a logged-in session drops, the session may be held by the server's
+ * {@link ResumeTokens}: it stays in its room under its username, and the frames sent to it are kept in a
+ * bounded buffer instead, until a new connection takes it over with its token or the grace period ends.
+ */
+public abstract class ClientSession {
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+    private static final int HISTORY_PAGE = 20;
+    private static final int MAX_HISTORY_PAGE = 100;
+    private static final String HISTORY_USAGE = "Usage: history [count] | history before <id> [count] | "
+            + "history after <id> [count] | history since <yyyy-MM-ddTHH:mm[:ss]> [count]";
+
+    protected final Server server;
+    private final long id = NEXT_ID.incrementAndGet();
+    protected final OutboundQueue outbound;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile CodecType codecType;
+    private String pendingUsername;
+    private volatile boolean authenticating;
+    private boolean overlapping;
+    private boolean registering;
+    private boolean resuming;
+    private volatile String username;
+    private volatile boolean authenticated = false;
+    private volatile Room room;
+    private volatile String resumeToken;
+    private volatile boolean held;
+    private final ReentrantLock resumeLock = new ReentrantLock();
+    private ArrayDeque<ByteBuffer> missed;
+    private long missedBytes;
+    private ClientSession successor;
+    private boolean takingOver;
+
+    /**
+     * Creates a new client session.
+     *
+     * @param server   the associated server
+     * @param mayBlock false if senders must never wait for room in the outbound queue
+     */
+    protected ClientSession(Server server, boolean mayBlock) {
+        this.server = server;
+        ServerConfig config = server.getConfig();
+        OverflowPolicy policy = config.getOverflowPolicy();
+        if (policy == OverflowPolicy.BLOCK && !mayBlock)
+            policy = OverflowPolicy.DISCONNECT;
+        this.outbound = new OutboundQueue(config.getOutboundCapacity(), config.getOutboundMaxBytes(), policy,
+                config.getOutboundBlockMillis(), server.getOutboundMetrics());
+    }
+
+    /**
+     * Gets the identifier of this connection, unique within the server process.
+     *
+     * @return the connection id
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Notifies the writer that a frame was added to the outbound queue.
+     */
+    protected abstract void frameQueued();
+
+    /**
+     * Closes the underlying transport.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    protected abstract void closeTransport() throws IOException;
+
+    /**
+     * Gets the IP address of the client.
+     *
+     * @return the IP address as a string
+     */
+    public abstract String getIpAddress();
+
+    /**
+     * Gets the capacity of the buffer the transport reads frames into.
+     *
+     * @return the read buffer size in bytes
+     */
+    protected abstract int getReadBufferBytes();
+
+    /**
+     * Gets the memory this session holds on the server.
+     *
+     * @return the frames and buffers held and their size
+     */
+    public SessionMemory getMemory() {
+        int resumeFrames;
+        long resumeBytes;
+        resumeLock.lock();
+        try {
+            resumeFrames = missed == null ? 0 : missed.size();
+            resumeBytes = missed == null ? 0 : missedBytes;
+        } finally {
+            resumeLock.unlock();
+        }
+        return new SessionMemory(outbound.size(), outbound.getBytes(), closed.get() ? 0 : getReadBufferBytes(), resumeFrames, resumeBytes);
+    }
+
+    /**
+     * Logs a login attempt.
+     *
+     * @param username the attempted username
+     * @param ip       the IP address of the client
+     * @param success  true if login was successful, false otherwise
+     */
+    public void logLogin(String username, String ip, boolean success) {
+        String status = success ? "successful" : "failed";
+        server.output(String.format("Login %s for user %s from IP %s", status, username, ip));
+    }
+
+    /**
+     * Logs a user logout.
+     *
+     * @param username the logged-out username
+     */
+    public void logLogout(String username) {
+        server.output(String.format("User %s logged out", username));
+    }
+
+    /**
+     * Handles a frame read from the client's transport.
+     * The first frame is the codec handshake; every later frame is decoded with the agreed codec.
+     * Frames still arriving after the session was closed, e.g. by a sender disconnecting a slow client, are ignored.
+     *
+     * @param data   the buffer holding the frame payload
+     * @param offset the offset of the payload in the buffer
+     * @param length the length of the payload
+     * @throws IOException if the frame is malformed or no codec can be agreed on
+     */
+    protected void handleFrame(byte[] data, int offset, int length) throws IOException {
+        if (closed.get())
+            return;
+        FrameReceivedEvent event = new FrameReceivedEvent();
+        event.begin();
+        String messageType;
+        if (codecType != null) {
+            Message message = decode(data, offset, length);
+            server.getMetrics().messageReceived(message);
+            handleMessage(message, length);
+            messageType = message.getClass().getSimpleName();
+        } else {
+            CodecType type = Handshake.select(data, offset, length);
+            sendFrame(Frames.wrap(Handshake.answer(type)));
+            if (type == null)
+                throw new IOException("No common message codec with client " + getIpAddress());
+            codecType = type;
+            messageType = "Handshake";
+        }
+        if (event.shouldCommit()) {
+            event.connectionId = id;
+            event.messageType = messageType;
+            event.size = length;
+            event.commit();
+        }
+    }
+
+    /**
+     * Decodes a message with the codec agreed on with the client.
+     *
+     * @param data   the buffer holding the frame payload
+     * @param offset the offset of the payload in the buffer
+     * @param length the length of the payload
+     * @return the decoded message
+     * @throws IOException if the payload is malformed
+     */
+    private Message decode(byte[] data, int offset, int length) throws IOException {
+        MessageDecodedEvent event = new MessageDecodedEvent();
+        event.begin();
+        Message message = codecType.getCodec().decode(data, offset, length);
+        if (event.shouldCommit()) {
+            event.connectionId = id;
+            event.codec = codecType.name();
+            event.messageType = message.getClass().getSimpleName();
+            event.size = length;
+            event.commit();
+        }
+        return message;
+    }
+
+    /**
+     * Gets the codec agreed on with the client.
+     *
+     * @return the codec type, or null before the handshake has completed
+     */
+    public CodecType getCodecType() {
+        return codecType;
+    }
+
+    /**
+     * Handles a message decoded from the client's transport.
+     *
+     * @param message the received message
+     * @param size    the length of the encoded message
+     */
+    private void handleMessage(@NotNull Message message, int size) {
+        if (authenticated) {
+            MessageDispatchedEvent event = new MessageDispatchedEvent();
+            event.begin();
+            handleClientMessage(message);
+            if (event.shouldCommit()) {
+                event.connectionId = id;
+                event.username = username;
+                event.messageType = message.getClass().getSimpleName();
+                event.size = size;
+                event.commit();
+            }
+        } else if (message instanceof SystemRequest sr)
+            handleCredential(sr.getContent().getText());
+        else
+            throw new IllegalStateException("Unexpected value: " + message);
+    }
+
+    /**
+     * Collects the username and password requests sent by the client before authentication, and submits each
+     * pair to the server's {@link AuthService}. A pair preceded by {@link SystemRequest#REGISTER} registers a new
+     * account instead of logging in, and a username and token preceded by {@link SystemRequest#RESUME} resume a
+     * session at once, as checking a token is cheap. A client may have one attempt in progress at a time; a pair
+     * any request of which arrives while one is being checked is rejected as a whole, with a single reply, so that
+     * the requests following it are not taken for the start of a new pair.
+     *
+     * @param credential the username or the password, in that order
+     */
+    private void handleCredential(String credential) {
+        if (authenticating)
+            overlapping = true;
+        if (pendingUsername == null) {
+            if (!registering && !resuming && SystemRequest.REGISTER.equals(credential))
+                registering = true;
+            else if (!registering && !resuming && SystemRequest.RESUME.equals(credential))
+                resuming = true;
+            else
+                pendingUsername = credential;
+            return;
+        }
+        String username = pendingUsername;
+        boolean register = registering;
+        boolean resume = resuming;
+        boolean rejected = overlapping;
+        pendingUsername = null;
+        registering = false;
+        resuming = false;
+        overlapping = false;
+        if (rejected) {
+            sendMessage(new SystemReply(new TextMessageContent(TOO_MANY_ATTEMPTS)));
+            return;
+        }
+        if (resume) {
+            resume(username, credential);
+            return;
+        }
+        authenticating = true;
+        long submitted = System.nanoTime();
+        AuthService.Admission admission = server.getAuthService().submit(getIpAddress(), () -> {
+            String reply;
+            try {
+                reply = register ? register(username, credential) : authenticate(username, credential);
+            } finally {
+                // The only place an accepted attempt ends. The client may send its next attempt as soon as it
+                // reads the reply, so the attempt ends before the reply is sent.
+                authenticating = false;
+                server.getMetrics().authCompleted(System.nanoTime() - submitted);
+            }
+            if (reply != null)
+                sendMessage(new SystemReply(new TextMessageContent(reply)));
+        });
+        if (admission == AuthService.Admission.ACCEPTED)
+            return;
+        // The attempt never reached a worker, so it ends here instead.
+        authenticating = false;
+        sendMessage(new SystemReply(new TextMessageContent(admission == AuthService.Admission.BUSY ? SERVER_BUSY : TOO_MANY_ATTEMPTS)));
+        if (!register)
+            logLogin(username, getIpAddress(), false);
+    }
+
+    /**
+     * Registers a new account. Runs on an authentication worker; the client logs in with the account afterwards.
+     *
+     * @param username the requested username
+     * @param password the requested password
+     * @return the reply to send
+     */
+    private String register(String username, String password) {
+        String reply;
+        if (!UserManager.isValidUsername(username) || password == null || password.isEmpty())
+            reply = INVALID_ACCOUNT;
+        else {
+            try {
+                reply = server.getUserManager().register(username, password) ? REGISTER_SUCCESS : USER_EXISTS;
+            } catch (IOException e) {
+                server.output("Error registering user " + username + ": " + e.getMessage());
+                reply = REGISTER_FAILED;
+            }
+        }
+        if (reply.equals(REGISTER_SUCCESS))
+            server.output(String.format("User %s registered from IP %s", username, getIpAddress()));
+        return reply;
+    }
+
+    /**
+     * Authenticates the client based on provided credentials. Runs on an authentication worker, possibly after
+     * the connection was closed.
+     *
+     * @param username the username sent by the client
+     * @param password the password sent by the client
+     * @return the reply to send if the login failed, or null if it succeeded or the connection is closed
+     */
+    private String authenticate(String username, String password) {
+        if (closed.get())
+            return null;
+        String reply;
+        if (server.getUserManager().isUserExist(username)) {
+            if (server.getUserManager().authenticate(username, password)) {
+                if (server.claimUser(username, this) || endHeldSession(username) && server.claimUser(username, this)) {
+                    this.username = username;
+                    room = server.getRooms().join(RoomManager.LOBBY, this);
+                    if (closed.get()) {
+                        // close() ran while the username was being claimed and may have missed it or the room.
+                        server.removeClient(this);
+                        server.getRooms().leave(room, this);
+                        return null;
+                    }
+                    sendMessage(new SystemReply(new TextMessageContent(LOGIN_SUCCESS)));
+                    issueResumeToken();
+                    long presenceVersion = room.sendPresence(this, 0);
+                    sendScrollback();
+                    sendMessage(new SystemReply(new TextMessageContent("Authentication successful. Welcome to the chat room!")));
+                    // Only now may broadcasts reach the client, so that LOGIN_SUCCESS is the first reply it reads.
+                    authenticated = true;
+                    // Joins and leaves broadcast before that were missed; catch up on them with a delta.
+                    room.sendPresence(this, presenceVersion);
+                    server.postToRoom(room, new SystemBroadcast(new TextMessageContent(username + " has joined the chat."),
+                            "join", username, LocalDateTime.now(), room.getName()));
+                    logLogin(username, getIpAddress(), true);
+                    return null;
+                } else
+                    reply = ALREADY_LOGIN;
+            } else
+                reply = PASSWORD_INCORRECT;
+        } else
+            reply = USER_NOT_EXIST;
+
+        logLogin(username, getIpAddress(), false);
+        return reply;
+    }
+
+    /**
+     * Ends the session a user left held when its connection dropped, so that the user can log in again from
+     * another client without waiting for the grace period to end.
+     *
+     * @param username the user logging in
+     * @return true if a held session was ended, false if the user is logged in on a live connection
+     */
+    private boolean endHeldSession(String username) {
+        ClientSession previous = server.getRegistry().find(username);
+        if (previous == null || !previous.held)
+            return false;
+        server.getResumeTokens().release(previous.resumeToken);
+        return true;
+    }
+
+    /**
+     * Gives the client a new token with which it may resume this session if its connection drops.
+     */
+    private void issueResumeToken() {
+        if (!server.getResumeTokens().isEnabled())
+            return;
+        resumeToken = ResumeTokens.newToken();
+        sendMessage(new SystemReply(new TextMessageContent(RESUME_TOKEN + resumeToken)));
+    }
+
+    /**
+     * Resumes a held session on this connection: the reply is followed by the frames the session missed, this
+     * session takes its place in its room and under its username, and its room is told nothing. The held session
+     * forwards the frames still reaching it while the places are swapped, so none is lost or reordered.
+     *
+     * @param username the username sent by the client
+     * @param token    the token sent by the client
+     */
+    private void resume(String username, String token) {
+        ClientSession previous = server.getResumeTokens().take(token, username);
+        if (previous == null || previous.codecType != codecType) {
+            // A session can only be resumed by a client speaking its codec, as its missed frames are encoded.
+            if (previous != null)
+                previous.endHeld(false);
+            sendMessage(new SystemReply(new TextMessageContent(RESUME_FAILED)));
+            logLogin(username, getIpAddress(), false);
+            return;
+        }
+        int replayed;
+        resumeLock.lock();
+        try {
+            if (closed.get()) {
+                previous.endHeld(false);
+                return;
+            }
+            takingOver = true;
+            previous.resumeLock.lock();
+            try {
+                if (previous.missed == null) {
+                    takingOver = false;
+                    sendMessage(new SystemReply(new TextMessageContent(RESUME_FAILED)));
+                    return;
+                }
+                this.username = username;
+                room = previous.room;
+                sendMessage(new SystemReply(new TextMessageContent(RESUME_SUCCESS)));
+                issueResumeToken();
+                replayed = previous.missed.size();
+                for (ByteBuffer frame : previous.missed)
+                    sendFrame(frame);
+                previous.missed = null;
+                previous.successor = this;
+            } finally {
+                previous.resumeLock.unlock();
+            }
+            authenticated = true;
+            room.replace(previous, this);
+            server.getRegistry().replace(previous, this);
+            takingOver = false;
+            if (closed.get()) {
+                // The connection closed while the session was taken over, and close() left it to this method.
+                leave(false);
+                return;
+            }
+        } finally {
+            resumeLock.unlock();
+        }
+        server.output(String.format("User %s resumed session from IP %s, %d missed frames replayed", username, getIpAddress(), replayed));
+    }
+
+    /**
+     * Handles incoming messages from an authenticated client.
+     *
+     * @param message the received message
+     */
+    private void handleClientMessage(@NotNull Message message) {
+        switch (message) {
+            case UserBroadcastMessage ubm:
+                Room target = room;
+                UserBroadcastMessage routed = new UserBroadcastMessage(ubm.getSender(), ubm.isAnonymous(), ubm.getContent(),
+                        ubm.getTimestamp(), target.getName());
+                server.postToRoom(target, routed);
+                break;
+            case UserPrivateMessage upm:
+                if (!server.sendPrivateMessage(upm))
+                    sendMessage(new SystemReply(new TextMessageContent("User " + upm.getReceiver() + " is not online or existed. Please try again.")));
+                else {
+                    server.getMessageStore().append(upm);
+                    sendMessage(upm);
+                }
+                break;
+            case SystemRequest sr:
+                if (!Objects.equals(username, sr.getUsername()))
+                    throw new IllegalStateException("Unexpected value: " + sr);
+                handleCommand((String) sr.getContent().getContent());
+                break;
+            default:
+                throw new IllegalStateException("Unexpected value: " + message);
+        }
+    }
+
+    /**
+     * Handles server commands issued by the client.
+     *
+     * @param command the command to process
+     */
+    private void handleCommand(@NotNull String command) {
+        String[] args = command.trim().split("\\s+");
+        switch (args[0].toLowerCase()) {
+            case "list":
+                Room current = room;
+                current.sendPresence(this, knownPresenceVersion(current, args));
+                sendMessage(new SystemReply(new TextMessageContent(current.getUserCount() + " users in room " + current.getName() + ".")));
+                break;
+            case "join":
+                if (args.length != 2 || !RoomManager.isValidName(args[1].toLowerCase()))
+                    sendMessage(new SystemReply(new TextMessageContent("Usage: join <room>, where the room name has up to 32 letters, digits, '_' or '-'")));
+                else
+                    switchRoom(args[1].toLowerCase());
+                break;
+            case "leave":
+                switchRoom(RoomManager.LOBBY);
+                break;
+            case "rooms":
+                sendMessage(new SystemReply(new TextMessageContent("You are in room " + room.getName() + ". Rooms: " + server.getRooms().describe())));
+                break;
+            case "history":
+                sendHistory(args);
+                break;
+            case "search":
+                sendSearchResults(command.trim().substring(args[0].length()).trim());
+                break;
+            case "passwd":
+                if (args.length != 3)
+                    sendMessage(new SystemReply(new TextMessageContent("Usage: passwd <current password> <new password>")));
+                else
+                    changePassword(args[1], args[2]);
+                break;
+            case "quit":
+                close(false, false);
+                break;
+            default:
+                sendMessage(new SystemReply(new TextMessageContent("Unknown command. Available commands: list, join, leave, rooms, history, search, passwd, quit")));
+        }
+    }
+
+    /**
+     * Changes the password of the client's user on an authentication worker, subject to the same rate limits
+     * as logging in.
+     *
+     * @param oldPassword the current password
+     * @param newPassword the new password
+     */
+    private void changePassword(String oldPassword, String newPassword) {
+        String username = this.username;
+        AuthService.Admission admission = server.getAuthService().submit(getIpAddress(), () -> {
+            String reply;
+            try {
+                reply = server.getUserManager().changePassword(username, oldPassword, newPassword)
+                        ? "Password changed." : "Current password incorrect.";
+            } catch (IOException e) {
+                server.output("Error changing password of user " + username + ": " + e.getMessage());
+                reply = "Password could not be saved. Please try again later.";
+            }
+            sendMessage(new SystemReply(new TextMessageContent(reply)));
+        });
+        if (admission != AuthService.Admission.ACCEPTED)
+            sendMessage(new SystemReply(new TextMessageContent(admission == AuthService.Admission.BUSY
+                    ? "Server busy. Please try again later." : "Too many attempts. Please try again later.")));
+    }
+
+    /**
+     * Parses the member list version a client claims to have, as sent by {@code list <room> <version>}.
+     *
+     * @param current the room the client is in
+     * @param args    the command and its arguments
+     * @return the version, or 0 if the client has no list of the current room
+     */
+    private static long knownPresenceVersion(Room current, String[] args) {
+        if (args.length != 3 || !args[1].equals(current.getName()))
+            return 0;
+        try {
+            return Long.parseLong(args[2]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Moves the client to another room. The members of the old room are told it left, the client is sent the
+     * member list and the scrollback of the new room, and the members of the new room are told it joined.
+     *
+     * @param name the name of the room to join
+     */
+    private void switchRoom(String name) {
+        Room previous = room;
+        if (previous.getName().equals(name)) {
+            sendMessage(new SystemReply(new TextMessageContent("You are already in room " + name + ".")));
+            return;
+        }
+        server.getRooms().leave(previous, this);
+        server.postToRoom(previous, new SystemBroadcast(new TextMessageContent(username + " has left the room."),
+                "left", username, LocalDateTime.now(), previous.getName()));
+        Room next = server.getRooms().join(name, this);
+        room = next;
+        if (closed.get()) {
+            // close() may have run between leaving and joining; it left the previous room, so leave this one.
+            server.getRooms().leave(next, this);
+            return;
+        }
+        next.sendPresence(this, 0);
+        sendMessage(new SystemReply(new TextMessageContent("You joined room " + next.getName() + ".")));
+        sendScrollback();
+        server.postToRoom(next, new SystemBroadcast(new TextMessageContent(username + " has joined the room."),
+                "join", username, LocalDateTime.now(), next.getName()));
+    }
+
+    /**
+     * Sends a page of the message history to the client: a reply describing the page followed by its
+     * messages, encoded into a single buffer. Only broadcasts of the client's current room and private messages
+     * the client sent or received are included. The command is parsed here and the page read on a history
+     * reader thread, which sends the reply.
+     *
+     * @param args the command and its arguments
+     */
+    private void sendHistory(String[] args) {
+        String mode;
+        int count;
+        long position;
+        try {
+            mode = args.length > 1 && !Character.isDigit(args[1].charAt(0)) ? args[1].toLowerCase() : "latest";
+            int countIndex = mode.equals("latest") ? 1 : 3;
+            if (!mode.equals("latest") && args.length < 3 || args.length > countIndex + 1)
+                throw new IllegalArgumentException();
+            count = Math.clamp(args.length > countIndex ? Integer.parseInt(args[countIndex]) : HISTORY_PAGE, 1, MAX_HISTORY_PAGE);
+            position = switch (mode) {
+                case "latest" -> Long.MAX_VALUE;
+                case "before" -> Long.parseLong(args[2]);
+                case "after" -> Long.parseLong(args[2]) + 1;
+                case "since" -> LocalDateTime.parse(args[2]).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                default -> throw new IllegalArgumentException();
+            };
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            sendMessage(new SystemReply(new TextMessageContent(HISTORY_USAGE)));
+            return;
+        }
+        Room current = room;
+        submitHistoryRead(() -> {
+            List<StoredMessage> page;
+            try {
+                MessageStore store = server.getMessageStore();
+                page = switch (mode) {
+                    case "after" -> store.read(position, Long.MAX_VALUE, count, message -> isVisible(current, message));
+                    case "since" -> store.readSince(position, count, message -> isVisible(current, message));
+                    default -> store.readBefore(position, count, message -> isVisible(current, message));
+                };
+            } catch (IOException e) {
+                server.output("Error reading message history: " + e.getMessage());
+                sendMessage(new SystemReply(new TextMessageContent("Message history is unavailable.")));
+                return;
+            }
+            String summary = page.isEmpty() ? "History: no messages."
+                    : String.format("History: messages #%d to #%d. Use \"history before %d\" for older messages.",
+                    page.getFirst().id(), page.getLast().id(), page.getFirst().id());
+            sendStoredMessages(new SystemReply(new TextMessageContent(summary)), page);
+        });
+    }
+
+    /**
+     * Sends the most recent stored messages visible to the client that contain all words of a query:
+     * a reply describing the results followed by the messages, oldest first, encoded into a single buffer.
+     * The search runs on a history reader thread, which sends the reply.
+     *
+     * @param query the words to look for
+     */
+    private void sendSearchResults(String query) {
+        if (query.isEmpty()) {
+            sendMessage(new SystemReply(new TextMessageContent("Usage: search <words>")));
+            return;
+        }
+        Room current = room;
+        submitHistoryRead(() -> {
+            List<StoredMessage> matches;
+            try {
+                matches = server.getMessageStore().search(query, HISTORY_PAGE, message -> isVisible(current, message));
+            } catch (IOException e) {
+                server.output("Error searching message history: " + e.getMessage());
+                sendMessage(new SystemReply(new TextMessageContent("Message history is unavailable.")));
+                return;
+            }
+            sendStoredMessages(new SystemReply(new TextMessageContent(
+                    String.format("Search \"%s\": %d most recent matches.", query, matches.size()))), matches.reversed());
+        });
+    }
+
+    /**
+     * Queues a read of the message history, telling the client to retry later if every history reader is busy.
+     *
+     * @param read the read, which sends its own reply
+     */
+    private void submitHistoryRead(Runnable read) {
+        if (!server.submitHistoryRead(read))
+            sendMessage(new SystemReply(new TextMessageContent("Server busy. Please try again later.")));
+    }
+
+    /**
+     * Sends a reply followed by stored messages, encoded into a single buffer.
+     *
+     * @param reply    the reply describing the messages
+     * @param messages the messages, in the order to send them
+     */
+    private void sendStoredMessages(SystemReply reply, List<StoredMessage> messages) {
+        List<byte[]> payloads = new ArrayList<>(messages.size() + 1);
+        try {
+            payloads.add(codecType.getCodec().encode(reply));
+            for (StoredMessage stored : messages)
+                payloads.add(codecType.getCodec().encode(stored.message()));
+        } catch (IOException e) {
+            server.output("Error sending message history: " + e.getMessage());
+            return;
+        }
+        sendFrame(Frames.wrapAll(payloads));
+        server.getMetrics().messageSent(reply, 1);
+        for (StoredMessage stored : messages)
+            server.getMetrics().messageSent(stored.message(), 1);
+    }
+
+    /**
+     * Checks whether a stored message may be shown to this client.
+     * Broadcasts stored before rooms existed belong to the lobby.
+     *
+     * @param current the room the client was in when it asked for the messages
+     * @param message the stored message
+     * @return true for broadcasts of the room and private messages the client sent or received
+     */
+    private boolean isVisible(Room current, Message message) {
+        return switch (message) {
+            case UserBroadcastMessage ubm -> Objects.requireNonNullElse(ubm.getRoom(), RoomManager.LOBBY).equals(current.getName());
+            case UserPrivateMessage upm -> Objects.equals(upm.getSender(), username) || Objects.equals(upm.getReceiver(), username);
+            default -> true;
+        };
+    }
+
+    /**
+     * Sends a message to the client.
+     *
+     * @param message the message to send
+     */
+    public void sendMessage(Message message) {
+        try {
+            sendFrame(Frames.wrap(codecType.getCodec().encode(message)));
+            server.getMetrics().messageSent(message, 1);
+        } catch (IOException e) {
+            server.output("Error sending message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replays the recent broadcast messages of the client's room, encoded into a single buffer so they are
+     * queued and written together.
+     */
+    private void sendScrollback() {
+        Message[] messages = room.getScrollback().snapshot();
+        if (messages.length == 0)
+            return;
+        List<byte[]> payloads = new ArrayList<>(messages.length);
+        try {
+            for (Message message : messages)
+                payloads.add(codecType.getCodec().encode(message));
+        } catch (IOException e) {
+            server.output("Error sending scrollback: " + e.getMessage());
+            return;
+        }
+        sendFrame(Frames.wrapAll(payloads));
+        for (Message message : messages)
+            server.getMetrics().messageSent(message, 1);
+    }
+
+    /**
+     * Sends a frame that was encoded once and is shared by several recipients.
+     *
+     * @param frame the shared frame; it is not modified, each recipient writes from its own view of it
+     */
+    public void sendEncoded(ByteBuffer frame) {
+        sendFrame(frame.duplicate());
+    }
+
+    /**
+     * Queues an encoded frame for the client, disconnecting it if its queue overflows.
+     *
+     * @param frame the frame to send
+     */
+    protected void sendFrame(ByteBuffer frame) {
+        if (held) {
+            holdFrame(frame);
+            return;
+        }
+        if (outbound.offer(frame)) {
+            frameQueued();
+            return;
+        }
+        server.output(String.format("Disconnecting slow client %s from IP %s", username, getIpAddress()));
+        close(false, false);
+    }
+
+    /**
+     * Keeps a frame sent while the session is held for the client to resume it, or forwards it to the session
+     * that resumed it. A session missing more frames than its buffer holds, or more bytes than its outbound
+     * queue would, is ended instead.
+     *
+     * @param frame the frame to keep
+     */
+    private void holdFrame(ByteBuffer frame) {
+        resumeLock.lock();
+        try {
+            if (successor != null) {
+                successor.sendFrame(frame);
+                return;
+            }
+            if (missed == null)
+                return;
+            if (missed.size() < server.getConfig().getResumeBufferMessages()
+                    && missedBytes + frame.limit() <= server.getConfig().getOutboundMaxBytes()) {
+                missed.add(frame);
+                missedBytes += frame.limit();
+                return;
+            }
+        } finally {
+            resumeLock.unlock();
+        }
+        server.output(String.format("User %s missed too many messages to resume its session", username));
+        server.getResumeTokens().release(resumeToken);
+    }
+
+    /**
+     * Gets the queue of frames waiting to be written to the client.
+     *
+     * @return the outbound queue
+     */
+    public OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    /**
+     * Closes the client connection. Unless the server is shutting down, the session of a logged-in client is
+     * held for it to resume rather than ended.
+     *
+     * @param shutdown true if the server is shutting down, false otherwise
+     */
+    public void close(boolean shutdown) {
+        close(shutdown, !shutdown);
+    }
+
+    /**
+     * Closes the client connection.
+     *
+     * @param shutdown  true if the server is shutting down, false otherwise
+     * @param resumable true if the connection dropped, so that the client may resume the session, false if
+     *                  the client quit or was disconnected
+     */
+    private void close(boolean shutdown, boolean resumable) {
+        if (!closed.compareAndSet(false, true))
+            return;
+        boolean hold;
+        boolean leave;
+        resumeLock.lock();
+        try {
+            hold = resumable && authenticated && resumeToken != null;
+            if (hold) {
+                // Senders that see the flag wait for the lock, and find the frames not yet written in the buffer.
+                held = true;
+                missed = new ArrayDeque<>(outbound.closeRetaining());
+                for (ByteBuffer frame : missed)
+                    missedBytes += frame.limit();
+            }
+            leave = !hold && !takingOver;
+        } finally {
+            resumeLock.unlock();
+        }
+        try {
+            if (leave)
+                leave(shutdown);
+            outbound.close();
+            closeTransport();
+        } catch (IOException e) {
+            server.output("Error closing client connection: " + e.getMessage());
+        }
+        if (hold) {
+            server.getResumeTokens().hold(resumeToken, this);
+            server.output(String.format("Connection of user %s from IP %s dropped, session held for resume", username, getIpAddress()));
+        }
+    }
+
+    /**
+     * Ends a session held for resume that was not resumed, as if the client had logged out when its connection
+     * dropped. Does nothing if the session was resumed or already ended.
+     *
+     * @param shutdown true if the server is shutting down, false otherwise
+     */
+    void endHeld(boolean shutdown) {
+        resumeLock.lock();
+        try {
+            if (missed == null)
+                return;
+            missed = null;
+        } finally {
+            resumeLock.unlock();
+        }
+        leave(shutdown);
+    }
+
+    /**
+     * Removes the session from the server and its room, telling the room the user left unless the server is
+     * shutting down.
+     *
+     * @param shutdown true if the server is shutting down, false otherwise
+     */
+    private void leave(boolean shutdown) {
+        server.removeClient(this);
+        Room current = room;
+        if (current != null)
+            server.getRooms().leave(current, this);
+        if (username != null) {
+            if (!shutdown && current != null)
+                server.postToRoom(current, new SystemBroadcast(new TextMessageContent(username + " has left the chat."),
+                        "left", username, LocalDateTime.now(), current.getName()));
+            logLogout(username);
+            username = null;
+            authenticated = false;
+        }
+    }
+
+    /**
+     * Gets the username associated with this client.
+     *
+     * @return the username
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Gets the room the client is in.
+     *
+     * @return the room, or null before the client has logged in
+     */
+    public Room getRoom() {
+        return room;
+    }
+
+    /**
+     * Checks if the client is authenticated.
+     *
+     * @return true if authenticated, false otherwise
+     */
+    public boolean isAuthenticated() {
+        return authenticated;
+    }
+}
@@ -0,0 +1,112 @@
+package com.chatroom.server;
+
+import com.chatroom.server.cluster.LoopbackBus;
+
+import java.awt.GraphicsEnvironment;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Runs a cluster of server nodes in one JVM, connected by the {@linkplain LoopbackBus#shared() shared loopback bus}.
+ * <p>
+ * {@code chatroom.clusterNodes} nodes are started, 2 unless set otherwise, named {@code node-1}, {@code node-2} and
+ * so on. Every other setting is read as for a single server, and the ones that must differ between nodes are
+ * derived from the node's number and name: node {@code n} listens on {@code chatroom.port + n - 1}, serves its
+ * metrics on {@code chatroom.metricsPort + n - 1} if metrics are enabled, and keeps its message history and its
+ * log in a directory named after it, under {@code chatroom.historyDir} and next to {@code chatroom.logFile}. The
+ * nodes share one user store, opened here, so that an account registered on one node can log in on any other.
+ * <p>
+ * Without a display, a console command goes to every node, or to a single node when prefixed with its name, e.g.
+ * {@code node-2 stats}; the output of each node is prefixed with its name. The JVM exits once every node has
+ * stopped, e.g. after {@code quit}.
+ */
+public final class ClusterLauncher {
+
+    /**
+     * Prevents instantiation.
+     */
+    private ClusterLauncher() {
+    }
+
+    /**
+     * Starts the nodes of the cluster.
+     *
+     * @param args command-line arguments (not used; see the class description for the supported properties)
+     */
+    public static void main(String[] args) {
+        Properties base = System.getProperties();
+        int count = Math.max(1, Integer.parseInt(base.getProperty("chatroom.clusterNodes", "2").trim()));
+        UserManager users = Server.createUserManager(new ServerConfig(base));
+        Runtime.getRuntime().addShutdownHook(new Thread(users::close, "user-store-close"));
+        boolean headless = GraphicsEnvironment.isHeadless();
+        Map<String, Server> nodes = new LinkedHashMap<>();
+        for (int number = 1; number <= count; number++) {
+            ServerConfig config = new ServerConfig(nodeProperties(base, number));
+            String prefix = "[" + config.getNodeId() + "] ";
+            Server node = new Server(config, LoopbackBus.shared(), users) {
+                @Override
+                public void output(String message) {
+                    super.output(prefix + message);
+                }
+            };
+            nodes.put(config.getNodeId(), node);
+            if (headless)
+                node.startNode();
+            else
+                node.start();
+        }
+        if (headless)
+            readConsoleCommands(nodes);
+    }
+
+    /**
+     * Derives the settings of one node from the settings of the cluster.
+     *
+     * @param base   the settings of the cluster
+     * @param number the number of the node, from 1
+     * @return the settings of the node
+     */
+    static Properties nodeProperties(Properties base, int number) {
+        ServerConfig cluster = new ServerConfig(base);
+        String nodeId = "node-" + number;
+        Properties properties = new Properties();
+        properties.putAll(base);
+        properties.setProperty("chatroom.cluster", ClusterMode.LOOPBACK.name());
+        properties.setProperty("chatroom.nodeId", nodeId);
+        properties.setProperty("chatroom.port", String.valueOf(cluster.getPort() + number - 1));
+        if (cluster.getMetricsPort() > 0)
+            properties.setProperty("chatroom.metricsPort", String.valueOf(cluster.getMetricsPort() + number - 1));
+        properties.setProperty("chatroom.historyDir", Path.of(cluster.getHistoryDir()).resolve(nodeId).toString());
+        Path logFile = Path.of(cluster.getLogFile());
+        properties.setProperty("chatroom.logFile", logFile.resolveSibling(nodeId).resolve(logFile.getFileName()).toString());
+        return properties;
+    }
+
+    /**
+     * Reads commands from the console and hands them to the nodes they are meant for, until the console closes.
+     *
+     * @param nodes the nodes by name
+     */
+    private static void readConsoleCommands(Map<String, Server> nodes) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String command = line.trim();
+                String[] parts = command.split("\\s+", 2);
+                Server target = nodes.get(parts[0]);
+                if (target != null)
+                    target.handleServerCommands(parts.length > 1 ? parts[1] : "");
+                else
+                    for (Server node : nodes.values())
+                        node.handleServerCommands(command);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading console: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.chatroom.server;
+
+/**
+ * Enumerates the ways a server can take part in a cluster.
+ */
+public enum ClusterMode {
+
+    /**
+     * A single node with a private bus; nothing is relayed to other nodes.
+     */
+    STANDALONE,
+
+    /**
+     * A node of a cluster whose nodes all run in this JVM and share one in-process bus.
+     */
+    LOOPBACK
+}
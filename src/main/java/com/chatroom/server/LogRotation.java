@@ -0,0 +1,162 @@
+package com.chatroom.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Decides when the {@link Logger} rolls its file over and archives the rolled segments.
+ * <p>
+ * A file is rolled once it would exceed a size limit or when the first line of a new day is written.
+ * Rolling only renames the file, which is cheap enough for the logger's writer thread; compressing the
+ * segment with gzip and deleting archives beyond the retention count happen on a background thread.
+ */
+public class LogRotation {
+
+    private final long maxBytes;
+    private final boolean daily;
+    private final int retention;
+    private final ExecutorService archiver;
+
+    /**
+     * Creates a new rotation policy.
+     *
+     * @param maxBytes  the size at which the file is rolled, or 0 for no size limit
+     * @param daily     true to also roll the file at the start of each day
+     * @param retention the number of archives to keep
+     */
+    public LogRotation(long maxBytes, boolean daily, int retention) {
+        this.maxBytes = maxBytes;
+        this.daily = daily;
+        this.retention = Math.max(0, retention);
+        this.archiver = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "log-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Checks whether the current file must be rolled before writing a line.
+     *
+     * @param fileBytes the current size of the file
+     * @param fileDay   the day the current file was started
+     * @param lineBytes the size of the line about to be written
+     * @param lineDay   the day the line was logged
+     * @return true if the file must be rolled first, false otherwise
+     */
+    public boolean shouldRoll(long fileBytes, LocalDate fileDay, int lineBytes, LocalDate lineDay) {
+        if (fileBytes == 0)
+            return false;
+        return (maxBytes > 0 && fileBytes + lineBytes > maxBytes) || (daily && !lineDay.equals(fileDay));
+    }
+
+    /**
+     * Renames a closed log file to a segment named after its day and queues it for archiving.
+     * Segments of the same day are numbered after the highest number already used, so numbers are never reused.
+     *
+     * @param logfile the log file, already closed by the caller
+     * @param day     the day the file was started
+     * @throws IOException if the file cannot be renamed
+     */
+    public void roll(Path logfile, LocalDate day) throws IOException {
+        Path directory = logfile.toAbsolutePath().getParent();
+        String base = baseName(logfile);
+        String prefix = base + "-" + day + ".";
+        int index = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*.log*")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                int end = name.indexOf(".log", prefix.length());
+                try {
+                    index = Math.max(index, Integer.parseInt(name.substring(prefix.length(), end)));
+                } catch (NumberFormatException | StringIndexOutOfBoundsException ignored) {
+                    // not one of our segments
+                }
+            }
+        }
+        Path segment = directory.resolve(prefix + (index + 1) + ".log");
+        Files.move(logfile, segment, StandardCopyOption.ATOMIC_MOVE);
+        archiver.execute(() -> archive(segment, directory, base));
+    }
+
+    /**
+     * Compresses a rolled segment and deletes the archives beyond the retention count.
+     * Runs on the archiver thread.
+     *
+     * @param segment   the rolled segment
+     * @param directory the directory holding the log file and its archives
+     * @param base      the log file name without its extension
+     */
+    private void archive(Path segment, Path directory, String base) {
+        Path target = gzipped(segment);
+        Path partial = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (InputStream in = Files.newInputStream(segment);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(partial), 64 * 1024)) {
+                in.transferTo(out);
+            }
+            Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(segment);
+        } catch (IOException e) {
+            System.err.println("Error archiving log file " + segment + ": " + e.getMessage());
+            return;
+        }
+        List<Path> archives = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, base + "-*.log.gz")) {
+            stream.forEach(archives::add);
+            archives.sort(Comparator.comparing((Path path) -> path.toFile().lastModified())
+                    .thenComparing(Path::getFileName));
+            for (int i = 0; i < archives.size() - retention; i++)
+                Files.deleteIfExists(archives.get(i));
+        } catch (IOException e) {
+            System.err.println("Error removing old log archives: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Waits for queued archiving to finish and stops the archiver thread.
+     */
+    public void close() {
+        archiver.shutdown();
+        try {
+            archiver.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets a log file's name without its extension.
+     *
+     * @param logfile the log file
+     * @return the base name
+     */
+    private static String baseName(Path logfile) {
+        String name = logfile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Gets the name of the compressed archive of a segment.
+     *
+     * @param segment the rolled segment
+     * @return the archive path
+     */
+    private static Path gzipped(Path segment) {
+        return segment.resolveSibling(segment.getFileName() + ".gz");
+    }
+}
@@ -1,51 +1,234 @@
 package com.chatroom.server;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import com.chatroom.util.MpscRingBuffer;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Manages logging operations for the chatroom server.
+ * <p>
+ * Logging never blocks the caller: lines are put on a lock-free ring buffer and written by a single
+ * background thread that keeps the log file open and flushes in batches, once enough bytes are pending
+ * or enough time has passed. Lines logged while the buffer is full are dropped and counted, and the
+ * writer records how many were lost. With a {@link LogRotation}, the writer also rolls the file over
+ * and hands the rolled segments off for compression.
  */
 public class Logger {
 
-    private final String logfile;
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final int DEFAULT_FLUSH_BYTES = 64 * 1024;
+    private static final long DEFAULT_FLUSH_MILLIS = 200;
+
+    private final Path logfile;
     private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final MpscRingBuffer<Entry> buffer;
+    private final int flushBytes;
+    private final long flushNanos;
+    private final LogRotation rotation;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writerThread;
+    private volatile boolean writerParked;
+    private volatile boolean closed;
+    private long droppedReported;
+    private long formattedSecond = Long.MIN_VALUE;
+    private String formattedTimestamp;
+    private long fileBytes;
+    private LocalDate fileDay;
 
     /**
-     * Creates a new instance of the logger.
+     * Creates a new instance of the logger with default buffering and no rotation.
      *
      * @param logfile the path to the log file
      */
     public Logger(String logfile) {
-        this.logfile = logfile;
+        this(logfile, DEFAULT_CAPACITY, DEFAULT_FLUSH_BYTES, DEFAULT_FLUSH_MILLIS, null);
+    }
+
+    /**
+     * Creates a new instance of the logger and starts its writer thread.
+     *
+     * @param logfile     the path to the log file
+     * @param capacity    the number of lines the buffer can hold before dropping
+     * @param flushBytes  the number of pending bytes that triggers a flush
+     * @param flushMillis the longest time a written line may stay unflushed
+     * @param rotation    the rotation policy, or null to always append to the same file
+     */
+    public Logger(String logfile, int capacity, int flushBytes, long flushMillis, LogRotation rotation) {
+        this.logfile = Path.of(logfile);
+        this.buffer = new MpscRingBuffer<>(capacity);
+        this.flushBytes = flushBytes;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        this.rotation = rotation;
+        this.writerThread = new Thread(this::writeLoop, "logger");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
     }
 
     /**
-     * Logs a message with a timestamp.
+     * Logs a message with a timestamp. Never blocks; the line is dropped if the buffer is full.
      *
      * @param message the message to log
      */
-    public synchronized void log(String message) {
-        String logMessage = String.format("[%s] %s", LocalDateTime.now().format(formatter), message);
-        writeToFile(logMessage);
+    public void log(String message) {
+        if (closed || !buffer.offer(new Entry(System.currentTimeMillis(), message))) {
+            dropped.increment();
+            return;
+        }
+        if (writerParked)
+            LockSupport.unpark(writerThread);
+    }
+
+    /**
+     * Gets the number of lines dropped because the buffer was full or the logger was closed.
+     *
+     * @return the number of dropped lines
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stops accepting lines, writes out the ones already buffered and closes the log file.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (rotation != null)
+            rotation.close();
+    }
+
+    /**
+     * Writer loop draining the buffer into the log file until the logger is closed.
+     */
+    private void writeLoop() {
+        OutputStream out = null;
+        long pendingBytes = 0;
+        long lastFlush = System.nanoTime();
+        while (!closed || !buffer.isEmpty() || dropped.sum() != droppedReported) {
+            try {
+                Entry entry = buffer.poll();
+                if (entry == null) {
+                    long droppedNow = dropped.sum();
+                    if (droppedNow != droppedReported) {
+                        entry = new Entry(System.currentTimeMillis(), "Logger dropped " + (droppedNow - droppedReported) + " lines");
+                        droppedReported = droppedNow;
+                    }
+                }
+                if (entry != null) {
+                    byte[] line = format(entry).getBytes(StandardCharsets.UTF_8);
+                    LocalDate day = LocalDate.ofInstant(Instant.ofEpochMilli(entry.timestamp()), zone);
+                    if (out != null && rotation != null && rotation.shouldRoll(fileBytes, fileDay, line.length, day)) {
+                        out = closeQuietly(out);
+                        pendingBytes = 0;
+                        rotation.roll(logfile, fileDay);
+                    }
+                    if (out == null)
+                        out = open(day);
+                    out.write(line);
+                    pendingBytes += line.length;
+                    fileBytes += line.length;
+                }
+                if (pendingBytes > 0 && (pendingBytes >= flushBytes || entry == null || System.nanoTime() - lastFlush >= flushNanos)) {
+                    out.flush();
+                    pendingBytes = 0;
+                    lastFlush = System.nanoTime();
+                }
+                if (entry == null) {
+                    writerParked = true;
+                    if (buffer.isEmpty() && !closed)
+                        LockSupport.parkNanos(flushNanos);
+                    writerParked = false;
+                }
+            } catch (IOException e) {
+                System.err.println("Error writing to log file: " + e.getMessage());
+                out = closeQuietly(out);
+                pendingBytes = 0;
+            }
+        }
+        closeQuietly(out);
+    }
+
+    /**
+     * Opens the log file for appending, creating its directory if needed.
+     * An existing file is attributed to the day it was last modified, so a restart on a later day still rolls it.
+     *
+     * @param today the day of the line about to be written
+     * @return a buffered stream on the log file
+     * @throws IOException if the file cannot be opened
+     */
+    private OutputStream open(LocalDate today) throws IOException {
+        Path parent = logfile.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        if (Files.exists(logfile)) {
+            fileBytes = Files.size(logfile);
+            fileDay = LocalDate.ofInstant(Files.getLastModifiedTime(logfile).toInstant(), zone);
+        } else {
+            fileBytes = 0;
+            fileDay = today;
+        }
+        return new BufferedOutputStream(new FileOutputStream(logfile.toFile(), true), 64 * 1024);
+    }
+
+    /**
+     * Closes the log stream, reporting but otherwise ignoring errors.
+     *
+     * @param out the stream to close, may be null
+     * @return null, for clearing the caller's reference
+     */
+    private OutputStream closeQuietly(OutputStream out) {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.err.println("Error closing log file: " + e.getMessage());
+            }
+        }
+        return null;
     }
 
     /**
-     * Writes the log message to the log file.
+     * Formats a buffered entry as a log line. Called on the writer thread only, which reuses the
+     * formatted timestamp for all lines logged within the same second.
      *
-     * @param message the log message to write
+     * @param entry the entry to format
+     * @return the log line, including its line separator
      */
-    private void writeToFile(String message) {
-        try (FileWriter fw = new FileWriter(logfile, true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter out = new PrintWriter(bw)) {
-            out.println(message);
-        } catch (IOException e) {
-            System.err.println("Error writing to log file: " + e.getMessage());
+    private String format(Entry entry) {
+        long second = Math.floorDiv(entry.timestamp(), 1000);
+        if (second != formattedSecond) {
+            formattedSecond = second;
+            formattedTimestamp = LocalDateTime.ofInstant(Instant.ofEpochSecond(second), zone).format(formatter);
         }
+        return "[" + formattedTimestamp + "] " + entry.message() + System.lineSeparator();
+    }
+
+    /**
+     * A line waiting to be written.
+     *
+     * @param timestamp the time the line was logged, in epoch milliseconds
+     * @param message   the message to log
+     */
+    private record Entry(long timestamp, String message) {
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,194 @@
+package com.chatroom.server;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A user database in a single binary file, read through a memory mapping so that opening it costs the same
+ * whatever the number of accounts and no account is copied onto the heap until it is looked up.
+ * <p>
+ * The file starts with a 16-byte header: the magic number, the format version, the number of hash slots (a power
+ * of two) and the number of users. The slots follow, each the 32-bit hash of a username and the file offset of
+ * its record, an offset of 0 marking an empty slot; at most half of them are used, and collisions are resolved by
+ * linear probing. The records come last, each a username and a stored password as UTF-8 strings prefixed with
+ * their 16-bit lengths. All numbers are big-endian.
+ * <p>
+ * Run as a program, the class converts a user file in the text format read by {@link UserManager}.
+ */
+public final class MappedUserDatabase implements UserStore {
+
+    /**
+     * The file name extension {@link UserManager} recognizes as this format.
+     */
+    public static final String EXTENSION = ".db";
+
+    private static final int MAGIC = 0x43485544;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 16;
+    private static final int SLOT_LENGTH = 8;
+
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final int size;
+
+    /**
+     * Maps a database file.
+     *
+     * @param buffer the mapped file
+     * @throws InvalidObjectException if the file is not a user database
+     */
+    private MappedUserDatabase(MappedByteBuffer buffer) throws InvalidObjectException {
+        if (buffer.capacity() < HEADER_LENGTH || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            throw new InvalidObjectException("Not a user database");
+        this.buffer = buffer;
+        this.slots = buffer.getInt(8);
+        this.size = buffer.getInt(12);
+        if (Integer.bitCount(slots) != 1 || HEADER_LENGTH + (long) slots * SLOT_LENGTH > buffer.capacity())
+            throw new InvalidObjectException("Corrupt user database header");
+    }
+
+    /**
+     * Converts a text user file to a user database.
+     *
+     * @param args the text file to read and the database file to write
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: MappedUserDatabase <users.txt> <users" + EXTENSION + ">");
+            System.exit(2);
+        }
+        Map<String, String> users = UserManager.readTextFile(Path.of(args[0]));
+        write(Path.of(args[1]), users);
+        System.out.println("Wrote " + users.size() + " users to " + args[1]);
+    }
+
+    /**
+     * Opens a database file.
+     *
+     * @param file the file
+     * @return the database
+     * @throws IOException if the file cannot be mapped or is not a user database
+     */
+    public static MappedUserDatabase open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new MappedUserDatabase(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes a database file, replacing any existing one atomically so that a server reading it never sees a
+     * partial file, and forcing it to the storage device.
+     *
+     * @param file  the file to write
+     * @param users the usernames and their stored passwords
+     * @throws IOException if the file cannot be written or an entry is too long
+     */
+    public static void write(Path file, Map<String, String> users) throws IOException {
+        int slots = Integer.highestOneBit(Math.max(1, users.size()) * 2 - 1) << 1;
+        byte[][] records = new byte[users.size()][];
+        int[] hashes = new int[users.size()];
+        long length = HEADER_LENGTH + (long) slots * SLOT_LENGTH;
+        int count = 0;
+        for (Map.Entry<String, String> user : users.entrySet()) {
+            byte[] name = user.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] password = user.getValue().getBytes(StandardCharsets.UTF_8);
+            if (name.length > 0xFFFF || password.length > 0xFFFF)
+                throw new InvalidObjectException("Entry too long for user " + user.getKey());
+            records[count] = ByteBuffer.allocate(4 + name.length + password.length)
+                    .putShort((short) name.length).put(name).putShort((short) password.length).put(password).array();
+            hashes[count++] = hash(name);
+            length += 4 + name.length + password.length;
+        }
+        if (length > Integer.MAX_VALUE)
+            throw new InvalidObjectException("Too many users for one database file");
+        ByteBuffer out = ByteBuffer.allocate((int) length);
+        out.putInt(MAGIC).putInt(VERSION).putInt(slots).putInt(users.size());
+        int position = HEADER_LENGTH + slots * SLOT_LENGTH;
+        for (int i = 0; i < count; i++) {
+            int slot = hashes[i] & (slots - 1);
+            while (out.getInt(HEADER_LENGTH + slot * SLOT_LENGTH + 4) != 0)
+                slot = (slot + 1) & (slots - 1);
+            out.putInt(HEADER_LENGTH + slot * SLOT_LENGTH, hashes[i]);
+            out.putInt(HEADER_LENGTH + slot * SLOT_LENGTH + 4, position);
+            out.put(position, records[i]);
+            position += records[i].length;
+        }
+        UserManager.replaceFile(file, out.array());
+    }
+
+    /**
+     * Hashes a UTF-8 username with 32-bit FNV-1a.
+     *
+     * @param name the username
+     * @return the hash
+     */
+    private static int hash(byte[] name) {
+        int hash = 0x811C9DC5;
+        for (byte b : name)
+            hash = (hash ^ (b & 0xFF)) * 0x01000193;
+        return hash;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPassword(String username) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(name);
+        for (int slot = hash & (slots - 1); ; slot = (slot + 1) & (slots - 1)) {
+            int position = buffer.getInt(HEADER_LENGTH + slot * SLOT_LENGTH + 4);
+            if (position == 0)
+                return null;
+            if (buffer.getInt(HEADER_LENGTH + slot * SLOT_LENGTH) != hash)
+                continue;
+            int nameLength = buffer.getShort(position) & 0xFFFF;
+            if (nameLength != name.length)
+                continue;
+            byte[] candidate = new byte[nameLength];
+            buffer.get(position + 2, candidate);
+            if (!Arrays.equals(candidate, name))
+                continue;
+            int passwordPosition = position + 2 + nameLength;
+            byte[] password = new byte[buffer.getShort(passwordPosition) & 0xFFFF];
+            buffer.get(passwordPosition + 2, password);
+            return new String(password, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<String> getUsernames() {
+        List<String> usernames = new ArrayList<>(size);
+        for (int slot = 0; slot < slots; slot++) {
+            int position = buffer.getInt(HEADER_LENGTH + slot * SLOT_LENGTH + 4);
+            if (position == 0)
+                continue;
+            byte[] name = new byte[buffer.getShort(position) & 0xFFFF];
+            buffer.get(position + 2, name);
+            usernames.add(new String(name, StandardCharsets.UTF_8));
+        }
+        return usernames;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,108 @@
+package com.chatroom.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A small HTTP server exposing the server metrics at {@code /metrics} in the Prometheus text format.
+ * <p>
+ * If enabled, {@code POST /gc} collects the whole heap and answers with the bytes left in use. The heap after an
+ * ordinary collection still holds garbage the collector has not yet reached, so this is how a soak test tells
+ * what the server keeps live, at the cost of a full pause.
+ * <p>
+ * Requests are handled one at a time on the HTTP server's dispatcher thread, which is plenty for a scraper
+ * polling every few seconds and keeps the endpoint from competing with the chat for threads.
+ */
+public class MetricsEndpoint {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer http;
+    private final ServerMetrics metrics;
+
+    /**
+     * Starts serving the metrics.
+     *
+     * @param address the address to listen on
+     * @param port    the port to listen on
+     * @param metrics the metrics to serve
+     * @param gc      whether to collect the heap on request at {@code /gc}
+     * @throws IOException if the port cannot be bound
+     */
+    public MetricsEndpoint(String address, int port, ServerMetrics metrics, boolean gc) throws IOException {
+        this.metrics = metrics;
+        this.http = HttpServer.create(new InetSocketAddress(address, port), 0);
+        http.createContext("/metrics", this::handle);
+        if (gc)
+            http.createContext("/gc", this::collect);
+        http.start();
+    }
+
+    /**
+     * Answers a request for the metrics.
+     *
+     * @param exchange the request and its response
+     * @throws IOException if the response cannot be written
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Answers a request to collect the heap with the bytes left in use afterwards, as plain text.
+     *
+     * @param exchange the request and its response
+     * @throws IOException if the response cannot be written
+     */
+    private void collect(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            System.gc();
+            long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            byte[] body = (used + "\n").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Stops serving the metrics.
+     */
+    public void close() {
+        http.stop(0);
+    }
+}
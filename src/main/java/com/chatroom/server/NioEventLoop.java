@@ -0,0 +1,136 @@
+package com.chatroom.server;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single selector thread serving the I/O of many {@link NioSession}s.
+ * <p>
+ * Other threads interact with the loop only by submitting tasks through {@link #execute(Runnable)},
+ * so selection keys and read buffers are never touched concurrently.
+ */
+class NioEventLoop implements Runnable {
+
+    private final Server server;
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    /**
+     * Creates a new event loop.
+     *
+     * @param server the associated server
+     * @param name   the name of the loop's thread
+     * @throws IOException if the selector cannot be opened
+     */
+    NioEventLoop(Server server, String name) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    /**
+     * Starts the loop's thread.
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops the loop and closes its selector.
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Checks whether the caller is running on this loop's thread.
+     *
+     * @return true if called from the event loop, false otherwise
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Schedules a task to run on the event loop.
+     *
+     * @param task the task to run
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop())
+            selector.wakeup();
+    }
+
+    /**
+     * Registers a newly accepted session with this loop.
+     *
+     * @param session the session to register
+     */
+    void register(NioSession session) {
+        execute(() -> {
+            try {
+                session.attach(session.getChannel().register(selector, SelectionKey.OP_READ, session));
+            } catch (IOException e) {
+                server.output("Error registering client: " + e.getMessage());
+                session.close(false);
+            }
+        });
+    }
+
+    /**
+     * Selects ready channels and dispatches their events until the loop is shut down.
+     */
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioSession session = (NioSession) key.attachment();
+                    try {
+                        if (key.isReadable())
+                            session.onReadable();
+                        if (key.isValid() && key.isWritable())
+                            session.onWritable();
+                    } catch (CancelledKeyException ignored) {
+                    }
+                }
+            }
+        } catch (IOException e) {
+            server.output("Error in event loop: " + e.getMessage());
+        } finally {
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks submitted since the last iteration. A task that fails is reported and skipped, so that it
+     * cannot stop the loop and strand the other connections on it.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                server.output("Error in event loop task: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.chatroom.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A server engine that multiplexes all connections over a fixed number of selector-driven event loops.
+ * <p>
+ * The calling thread accepts connections and assigns them to the event loops in round-robin order;
+ * each loop then performs all reads, writes and message handling of its connections.
+ */
+public class NioServerEngine implements ServerEngine {
+
+    private final Server server;
+    private final NioEventLoop[] eventLoops;
+    private ServerSocketChannel serverChannel;
+    private int nextLoop;
+
+    /**
+     * Creates a new NIO engine.
+     *
+     * @param server     the associated server
+     * @param eventLoops the number of event-loop threads
+     */
+    public NioServerEngine(Server server, int eventLoops) {
+        this.server = server;
+        this.eventLoops = new NioEventLoop[eventLoops];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void bind(int port, int backlog) throws IOException {
+        for (int i = 0; i < eventLoops.length; i++)
+            eventLoops[i] = new NioEventLoop(server, "nio-event-loop-" + i);
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), backlog);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void serve() throws IOException {
+        for (NioEventLoop eventLoop : eventLoops)
+            eventLoop.start();
+        try {
+            while (serverChannel.isOpen()) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                NioEventLoop eventLoop = eventLoops[nextLoop];
+                nextLoop = (nextLoop + 1) % eventLoops.length;
+                NioSession session = new NioSession(channel, eventLoop, server);
+                server.addClient(session);
+                eventLoop.register(session);
+            }
+        } catch (ClosedChannelException ignored) {
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        if (serverChannel != null)
+            serverChannel.close();
+        for (NioEventLoop eventLoop : eventLoops)
+            if (eventLoop != null)
+                eventLoop.shutdown();
+    }
+}
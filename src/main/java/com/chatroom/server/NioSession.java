@@ -0,0 +1,193 @@
+package com.chatroom.server;
+
+import com.chatroom.common.protocol.Frames;
+import com.chatroom.server.events.FrameWrittenEvent;
+import com.chatroom.util.NetworkUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Represents a client connection served by a {@link NioEventLoop}.
+ * <p>
+ * Reads and message handling happen on the owning loop. Frames sent from any thread are queued
+ * and written by the loop, which registers interest in writability when the socket buffer is full.
+ */
+class NioSession extends ClientSession {
+
+    private static final int INITIAL_READ_BUFFER = 8 * 1024;
+
+    private final SocketChannel channel;
+    private final NioEventLoop eventLoop;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+    private SelectionKey key;
+
+    /**
+     * Creates a new NIO session.
+     *
+     * @param channel   the client channel, in non-blocking mode
+     * @param eventLoop the event loop serving the channel
+     * @param server    the associated server
+     */
+    NioSession(SocketChannel channel, NioEventLoop eventLoop, Server server) {
+        super(server, false);
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+    }
+
+    /**
+     * Gets the client channel.
+     *
+     * @return the socket channel
+     */
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Attaches the selection key obtained when registering with the event loop.
+     *
+     * @param key the selection key
+     */
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Reads available bytes and handles every complete frame. Called on the event loop.
+     */
+    void onReadable() {
+        try {
+            if (channel.read(readBuffer) < 0) {
+                close(false);
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.remaining() >= Frames.HEADER_LENGTH && channel.isOpen()) {
+                int length = readBuffer.getInt(readBuffer.position());
+                Frames.checkLength(length);
+                if (readBuffer.remaining() < Frames.HEADER_LENGTH + length) {
+                    if (readBuffer.capacity() < Frames.HEADER_LENGTH + length)
+                        growReadBuffer(Frames.HEADER_LENGTH + length);
+                    break;
+                }
+                int offset = readBuffer.arrayOffset() + readBuffer.position() + Frames.HEADER_LENGTH;
+                readBuffer.position(readBuffer.position() + Frames.HEADER_LENGTH + length);
+                handleFrame(readBuffer.array(), offset, length);
+            }
+            readBuffer.compact();
+            if (readBuffer.capacity() > INITIAL_READ_BUFFER)
+                shrinkReadBuffer();
+        } catch (IOException | RuntimeException e) {
+            server.output("Error handling client: " + e.getMessage());
+            close(false);
+        }
+    }
+
+    /**
+     * Replaces the read buffer with one large enough to hold a whole frame, keeping unread bytes.
+     *
+     * @param capacity the required capacity
+     */
+    private void growReadBuffer(int capacity) {
+        ByteBuffer larger = ByteBuffer.allocate(capacity);
+        larger.put(readBuffer).flip();
+        readBuffer = larger;
+    }
+
+    /**
+     * Returns to a read buffer of the initial size once the large frame that grew it has been handled, so a
+     * connection does not hold on to the memory of its largest frame. Called with the buffer in write mode.
+     */
+    private void shrinkReadBuffer() {
+        int pending = readBuffer.position() < Frames.HEADER_LENGTH ? readBuffer.position()
+                : Frames.HEADER_LENGTH + readBuffer.getInt(0);
+        if (pending > INITIAL_READ_BUFFER)
+            return;
+        ByteBuffer smaller = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+        smaller.put(readBuffer.flip());
+        readBuffer = smaller;
+    }
+
+    /**
+     * Resumes flushing once the socket accepts more data. Called on the event loop.
+     */
+    void onWritable() {
+        flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void frameQueued() {
+        if (eventLoop.inEventLoop())
+            flush();
+        else if (flushScheduled.compareAndSet(false, true))
+            eventLoop.execute(this::flush);
+    }
+
+    /**
+     * Writes queued frames until the queue is empty or the socket buffer is full. Called on the event loop.
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        if (key == null || !key.isValid())
+            return;
+        try {
+            ByteBuffer frame;
+            while ((frame = outbound.peek()) != null) {
+                FrameWrittenEvent event = new FrameWrittenEvent();
+                event.begin();
+                int written = channel.write(frame);
+                server.getMetrics().bytesWritten(written);
+                if (event.shouldCommit()) {
+                    event.connectionId = getId();
+                    event.username = getUsername();
+                    event.size = written;
+                    event.commit();
+                }
+                if (frame.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                outbound.remove();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        } catch (CancelledKeyException ignored) {
+            // Another thread closed the session while the frames were written; nothing is left to flush.
+        } catch (IOException e) {
+            server.output("Error sending message: " + e.getMessage());
+            close(false);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void closeTransport() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int getReadBufferBytes() {
+        return readBuffer.capacity();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getIpAddress() {
+        return NetworkUtil.getIpAddress(channel.socket());
+    }
+}
@@ -0,0 +1,61 @@
+package com.chatroom.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server-wide counters for the outbound queues of all client sessions.
+ */
+public class OutboundMetrics {
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+
+    /**
+     * Records a frame accepted by a queue.
+     */
+    void frameEnqueued() {
+        enqueued.increment();
+    }
+
+    /**
+     * Records a frame discarded because its queue was full.
+     */
+    void frameDropped() {
+        dropped.increment();
+    }
+
+    /**
+     * Records a client disconnected because its queue was full.
+     */
+    void slowConsumerDisconnected() {
+        disconnects.increment();
+    }
+
+    /**
+     * Gets the number of frames accepted by all queues.
+     *
+     * @return the number of enqueued frames
+     */
+    public long getEnqueued() {
+        return enqueued.sum();
+    }
+
+    /**
+     * Gets the number of frames discarded by all queues.
+     *
+     * @return the number of dropped frames
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Gets the number of clients disconnected as slow consumers.
+     *
+     * @return the number of disconnects
+     */
+    public long getDisconnects() {
+        return disconnects.sum();
+    }
+}
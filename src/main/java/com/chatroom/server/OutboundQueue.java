@@ -0,0 +1,274 @@
+package com.chatroom.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue of frames waiting to be written to one client.
+ * <p>
+ * The queue is bounded both in frames and in bytes, so the memory a client that stops reading can hold on the
+ * server is capped whatever the size of the messages sent to it. A frame larger than the byte bound is still
+ * accepted by an empty queue. Bytes are counted per queue, although a broadcast frame is shared by all the
+ * queues holding it, so the count is an upper bound of the memory the queue alone keeps reachable.
+ * <p>
+ * Any thread may offer frames; a single writer consumes them, either with {@link #awaitPeek()} from a
+ * dedicated thread or with {@link #peek()} from an event loop, followed by {@link #remove()} once the frame is
+ * completely written. A frame being written thus stays queued, and is handed over by {@link #closeRetaining()}
+ * if the connection drops before it is through. The queue is guarded by a {@link ReentrantLock} so that waiting
+ * virtual threads do not pin their carriers.
+ */
+public class OutboundQueue {
+
+    private final ArrayDeque<ByteBuffer> frames = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final int capacity;
+    private final long maxBytes;
+    private final OverflowPolicy policy;
+    private final long blockNanos;
+    private final OutboundMetrics metrics;
+    private int highWaterMark;
+    private long bytes;
+    private long dropped;
+    private boolean closed;
+
+    /**
+     * Creates a new outbound queue.
+     *
+     * @param capacity    the maximum number of queued frames, at least 2
+     * @param maxBytes    the maximum number of queued bytes
+     * @param policy      what to do when a frame is offered to a full queue
+     * @param blockMillis how long a sender waits for room under {@link OverflowPolicy#BLOCK}
+     * @param metrics     the server-wide counters to update
+     */
+    public OutboundQueue(int capacity, long maxBytes, OverflowPolicy policy, long blockMillis, OutboundMetrics metrics) {
+        this.capacity = Math.max(2, capacity);
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        this.blockNanos = TimeUnit.MILLISECONDS.toNanos(blockMillis);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Offers a frame, applying the overflow policy if the queue is full.
+     * Frames offered after the queue was closed are silently discarded.
+     *
+     * @param frame the frame to queue
+     * @return false if the client must be disconnected as a slow consumer, true otherwise
+     */
+    public boolean offer(ByteBuffer frame) {
+        lock.lock();
+        try {
+            if (closed)
+                return true;
+            if (!hasRoom(frame) && !makeRoom(frame))
+                return false;
+            if (closed)
+                return true;
+            frames.add(frame);
+            bytes += frame.limit();
+            highWaterMark = Math.max(highWaterMark, frames.size());
+            metrics.frameEnqueued();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks whether a frame fits in the queue. Called with the lock held.
+     *
+     * @param frame the frame to queue
+     * @return true if neither the frame nor the byte bound would be exceeded
+     */
+    private boolean hasRoom(ByteBuffer frame) {
+        return frames.size() < capacity && (frames.isEmpty() || bytes + frame.limit() <= maxBytes);
+    }
+
+    /**
+     * Frees room for a frame in a full queue according to the overflow policy. Called with the lock held.
+     *
+     * @param frame the frame to queue
+     * @return true if there is room for the frame, false if the client must be disconnected
+     */
+    private boolean makeRoom(ByteBuffer frame) {
+        switch (policy) {
+            case DROP_OLDEST:
+                // The head is the writer's: peeked and possibly partly written, it is removed only by the writer.
+                Iterator<ByteBuffer> iterator = frames.iterator();
+                if (iterator.hasNext())
+                    iterator.next();
+                while (iterator.hasNext() && !hasRoom(frame)) {
+                    ByteBuffer oldest = iterator.next();
+                    iterator.remove();
+                    bytes -= oldest.limit();
+                    dropped++;
+                    metrics.frameDropped();
+                }
+                if (hasRoom(frame))
+                    return true;
+                break;
+            case BLOCK:
+                long nanos = blockNanos;
+                try {
+                    while (!hasRoom(frame) && !closed && nanos > 0)
+                        nanos = notFull.awaitNanos(nanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (hasRoom(frame) || closed)
+                    return true;
+                break;
+            default:
+                break;
+        }
+        metrics.slowConsumerDisconnected();
+        return false;
+    }
+
+    /**
+     * Gets the next frame without removing it, waiting until one is available.
+     *
+     * @return the next frame, or null once the queue is closed
+     * @throws InterruptedException if the writer is interrupted while waiting
+     */
+    public ByteBuffer awaitPeek() throws InterruptedException {
+        lock.lock();
+        try {
+            while (frames.isEmpty() && !closed)
+                notEmpty.await();
+            return frames.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the next frame without removing it.
+     *
+     * @return the next frame, or null if the queue is empty
+     */
+    public ByteBuffer peek() {
+        lock.lock();
+        try {
+            return frames.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the next frame once it has been completely written.
+     */
+    public void remove() {
+        lock.lock();
+        try {
+            ByteBuffer frame = frames.poll();
+            if (frame != null)
+                bytes -= frame.limit();
+            notFull.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the queue, discarding the frames it holds and releasing waiting threads.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            frames.clear();
+            bytes = 0;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the queue like {@link #close()}, but hands over the frames it held instead of discarding them.
+     * A frame the writer had started is rewound, as the peer can only have received part of it.
+     *
+     * @return the frames that were not completely written, oldest first
+     */
+    public List<ByteBuffer> closeRetaining() {
+        lock.lock();
+        try {
+            List<ByteBuffer> retained = new ArrayList<>(frames.size());
+            for (ByteBuffer frame : frames)
+                retained.add(frame.rewind());
+            frames.clear();
+            close();
+            return retained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of queued frames.
+     *
+     * @return the queue depth
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return frames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of bytes held by the queued frames.
+     *
+     * @return the queued bytes
+     */
+    public long getBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the largest depth the queue has reached.
+     *
+     * @return the high-water mark
+     */
+    public int getHighWaterMark() {
+        lock.lock();
+        try {
+            return highWaterMark;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of frames this queue discarded.
+     *
+     * @return the number of dropped frames
+     */
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
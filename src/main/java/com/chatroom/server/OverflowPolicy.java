@@ -0,0 +1,23 @@
+package com.chatroom.server;
+
+/**
+ * Enumerates what happens when a frame is sent to a client whose outbound queue is full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Discard the oldest queued frame that has not started to be written.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Disconnect the client as a slow consumer.
+     */
+    DISCONNECT,
+
+    /**
+     * Make the sender wait for room, disconnecting the client if none frees up in time.
+     * Event-loop threads must never wait, so NIO sessions apply {@link #DISCONNECT} instead.
+     */
+    BLOCK
+}
@@ -0,0 +1,129 @@
+package com.chatroom.server;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Hashes and verifies passwords with salted PBKDF2-HMAC-SHA256.
+ * <p>
+ * A hashed password is stored as {@code $pbkdf2-sha256$<iterations>$<salt>$<hash>}, with the salt and hash in
+ * Base64, so the work factor can be raised for new hashes without invalidating the old ones. Run as a program,
+ * the class rewrites a user file, hashing every password still stored in plain text.
+ */
+public final class PasswordHasher {
+
+    /**
+     * The number of PBKDF2 iterations used for new hashes unless told otherwise.
+     */
+    public static final int DEFAULT_ITERATIONS = 100_000;
+
+    private static final String PREFIX = "$pbkdf2-sha256$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Prevents instantiation of this utility class.
+     */
+    private PasswordHasher() {
+    }
+
+    /**
+     * Rewrites a user file with every plain-text password replaced by its hash.
+     *
+     * @param args the user file, optionally followed by the number of iterations
+     * @throws IOException if the file cannot be read or replaced
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: PasswordHasher <user file> [iterations]");
+            System.exit(2);
+        }
+        Path file = Path.of(args[0]);
+        int iterations = args.length == 2 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8).parallelStream().map(line -> {
+            int colon = line.indexOf(':');
+            if (colon < 0 || isHashed(line.substring(colon + 1).trim()))
+                return line;
+            return line.substring(0, colon).trim() + ":" + hash(line.substring(colon + 1).trim(), iterations);
+        }).toList();
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temporary, lines, StandardCharsets.UTF_8);
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Hashed " + lines.size() + " entries of " + file + " with " + iterations + " iterations");
+    }
+
+    /**
+     * Checks whether a stored password is a hash produced by this class.
+     *
+     * @param stored the stored password
+     * @return true if it is a hash, false if it is plain text
+     */
+    public static boolean isHashed(String stored) {
+        return stored.startsWith(PREFIX);
+    }
+
+    /**
+     * Hashes a password with a fresh random salt.
+     *
+     * @param password   the password to hash
+     * @param iterations the number of PBKDF2 iterations
+     * @return the encoded hash
+     */
+    public static String hash(String password, int iterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder();
+        return PREFIX + iterations + "$" + base64.encodeToString(salt) + "$" + base64.encodeToString(derive(password, salt, iterations));
+    }
+
+    /**
+     * Verifies a password against a stored hash or, for entries not yet hashed, a stored plain-text password.
+     * Both comparisons take the same time whatever the position of the first differing byte.
+     *
+     * @param stored   the stored hash or plain-text password
+     * @param password the password to verify
+     * @return true if the password matches, false otherwise
+     * @throws IllegalArgumentException if the stored hash is malformed
+     */
+    public static boolean verify(String stored, String password) {
+        if (!isHashed(stored))
+            return MessageDigest.isEqual(stored.getBytes(StandardCharsets.UTF_8), password.getBytes(StandardCharsets.UTF_8));
+        String[] parts = stored.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3)
+            throw new IllegalArgumentException("Malformed password hash");
+        Base64.Decoder base64 = Base64.getDecoder();
+        byte[] expected = base64.decode(parts[2]);
+        return MessageDigest.isEqual(expected, derive(password, base64.decode(parts[1]), Integer.parseInt(parts[0])));
+    }
+
+    /**
+     * Derives a key from a password with PBKDF2-HMAC-SHA256.
+     *
+     * @param password   the password
+     * @param salt       the salt
+     * @param iterations the number of iterations
+     * @return the derived key
+     */
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
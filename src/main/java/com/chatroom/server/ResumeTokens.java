@@ -0,0 +1,135 @@
+package com.chatroom.server;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the sessions of users whose connection dropped until the client resumes them or a grace period ends.
+ * <p>
+ * Every login is given a random token. When the connection of a session holding one drops, the session is kept
+ * in its room and under its username, buffering the frames sent to it, and is indexed here by its token. A client
+ * reconnecting with the token within the grace period takes the session over without checking its password and
+ * without its room seeing the user leave and join; otherwise the session ends as if the user had logged out when
+ * the connection dropped.
+ */
+public class ResumeTokens {
+
+    private static final int TOKEN_BYTES = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Map<String, ClientSession> held = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor timer;
+    private final long graceMillis;
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    /**
+     * Creates a token index and starts the thread ending the sessions that are not resumed in time.
+     *
+     * @param graceSeconds how long a session is held after its connection dropped, 0 to end it at once
+     */
+    public ResumeTokens(int graceSeconds) {
+        this.graceMillis = TimeUnit.SECONDS.toMillis(Math.max(0, graceSeconds));
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "resume-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Generates a new token.
+     *
+     * @return 128 random bits in URL-safe Base64
+     */
+    public static String newToken() {
+        byte[] token = new byte[TOKEN_BYTES];
+        RANDOM.nextBytes(token);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
+
+    /**
+     * Checks whether sessions are held at all.
+     *
+     * @return false if the grace period is 0
+     */
+    public boolean isEnabled() {
+        return graceMillis > 0;
+    }
+
+    /**
+     * Holds a session whose connection dropped until it is resumed or the grace period ends.
+     *
+     * @param token   the token of the session
+     * @param session the session, already buffering the frames sent to it
+     */
+    public void hold(String token, ClientSession session) {
+        held.put(token, session);
+        // A session taken over or released first is no longer held under its token, so its expiry does nothing.
+        timer.schedule(() -> {
+            if (held.remove(token, session))
+                end(session);
+        }, graceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes over the session held for a token.
+     *
+     * @param token    the token presented by the client
+     * @param username the username presented by the client
+     * @return the session, no longer held, or null if no session of that user is held for the token
+     */
+    public ClientSession take(String token, String username) {
+        ClientSession session = held.get(token);
+        if (session == null || !username.equals(session.getUsername()) || !held.remove(token, session))
+            return null;
+        resumed.increment();
+        return session;
+    }
+
+    /**
+     * Ends a held session before its grace period is over.
+     *
+     * @param token the token of the session
+     */
+    public void release(String token) {
+        ClientSession session = held.remove(token);
+        if (session != null)
+            end(session);
+    }
+
+    /**
+     * Ends a held session that was not resumed.
+     *
+     * @param session the session
+     */
+    private void end(ClientSession session) {
+        expired.increment();
+        session.endHeld(false);
+    }
+
+    /**
+     * Describes the held sessions.
+     *
+     * @return the number of held sessions and of resumed and expired ones
+     */
+    public String describe() {
+        return "held=" + held.size() + " resumed=" + resumed.sum() + " expired=" + expired.sum()
+                + " grace=" + TimeUnit.MILLISECONDS.toSeconds(graceMillis) + "s";
+    }
+
+    /**
+     * Ends every held session without telling the rooms, as the server is shutting down, and stops the timer.
+     */
+    public void close() {
+        timer.shutdownNow();
+        for (ClientSession session : held.values())
+            session.endHeld(true);
+        held.clear();
+    }
+}
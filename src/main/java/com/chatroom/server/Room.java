@@ -0,0 +1,191 @@
+package com.chatroom.server;
+
+import com.chatroom.common.message.Message;
+import com.chatroom.common.message.SystemPresence;
+import com.chatroom.common.message.SystemUserList;
+import com.chatroom.common.message.TextMessageContent;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named chat room: the sessions that receive its broadcasts and the recent messages replayed to new members.
+ * <p>
+ * Members are held in a concurrent set, so posting to a room costs one send per member no matter how many
+ * other connections the server has, and members can come and go while a broadcast iterates over them.
+ * <p>
+ * Every join and leave is also numbered with a presence version and kept in a bounded change log, so a client
+ * that knows the member list at some version can be sent only the changes since then rather than the whole list.
+ * Versions are drawn from a counter shared by all rooms of a server, so a room that is removed and created
+ * again never reuses the versions of its previous incarnation.
+ */
+public class Room {
+
+    private final String name;
+    private final Set<ClientSession> members = ConcurrentHashMap.newKeySet();
+    private final Scrollback scrollback;
+    private final AtomicLong versions;
+    private final Set<String> present = new LinkedHashSet<>();
+    private final long[] changeVersions;
+    private final String[] changeUsers;
+    private final boolean[] changeJoins;
+    private final long baseVersion;
+    private long version;
+    private long changeCount;
+    private long evictedVersion;
+
+    /**
+     * Creates an empty room.
+     *
+     * @param name               the room name
+     * @param scrollbackMessages the number of recent broadcasts replayed to new members
+     * @param presenceChanges    the number of recent joins and leaves kept for presence deltas
+     * @param versions           the counter presence versions are drawn from
+     */
+    public Room(String name, int scrollbackMessages, int presenceChanges, AtomicLong versions) {
+        this.name = name;
+        this.scrollback = new Scrollback(scrollbackMessages);
+        this.versions = versions;
+        this.changeVersions = new long[Math.max(1, presenceChanges)];
+        this.changeUsers = new String[changeVersions.length];
+        this.changeJoins = new boolean[changeVersions.length];
+        this.baseVersion = versions.get();
+        this.version = baseVersion;
+    }
+
+    /**
+     * Gets the room name.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the sessions currently in the room.
+     *
+     * @return a live view of the members
+     */
+    public Set<ClientSession> getMembers() {
+        return members;
+    }
+
+    /**
+     * Adds a session to the room, recording the join of its user.
+     *
+     * @param session the joining session, which must have a username
+     */
+    public synchronized void add(ClientSession session) {
+        if (members.add(session) && present.add(session.getUsername()))
+            record(session.getUsername(), true);
+    }
+
+    /**
+     * Removes a session from the room, recording the leave of its user.
+     *
+     * @param session the leaving session
+     */
+    public synchronized void remove(ClientSession session) {
+        if (members.remove(session) && present.remove(session.getUsername()))
+            record(session.getUsername(), false);
+    }
+
+    /**
+     * Puts a session in place of another of the same user, without recording a change: the user never left.
+     *
+     * @param previous the session leaving the room
+     * @param next     the session taking its place
+     */
+    public synchronized void replace(ClientSession previous, ClientSession next) {
+        if (members.remove(previous))
+            members.add(next);
+    }
+
+    /**
+     * Appends a change to the presence log, overwriting the oldest one if the log is full.
+     *
+     * @param username the user who joined or left
+     * @param joined   true for a join, false for a leave
+     */
+    private void record(String username, boolean joined) {
+        version = versions.incrementAndGet();
+        int slot = (int) (changeCount++ % changeVersions.length);
+        evictedVersion = changeVersions[slot];
+        changeVersions[slot] = version;
+        changeUsers[slot] = username;
+        changeJoins[slot] = joined;
+    }
+
+    /**
+     * Gets the number of users in the room.
+     *
+     * @return the number of users
+     */
+    public synchronized int getUserCount() {
+        return present.size();
+    }
+
+    /**
+     * Sends a session the changes to the member list since a version it knows, or the whole list if the changes
+     * are no longer in the log or would be longer than the list.
+     * <p>
+     * The message is built while joins and leaves are held off, but queued after they are allowed again, as
+     * queuing may wait for room in the session's queue or close the session. A change after the version the
+     * message carries may then reach the session before it; the versions let the client tell.
+     *
+     * @param session      the session to send to
+     * @param knownVersion the version of the member list the session has, 0 if it has none
+     * @return the version of the member list the session has once it processes the message
+     */
+    public long sendPresence(ClientSession session, long knownVersion) {
+        Message message;
+        long current;
+        synchronized (this) {
+            message = presenceSince(knownVersion);
+            current = version;
+        }
+        session.sendMessage(message);
+        return current;
+    }
+
+    /**
+     * Builds the message bringing a member list from a known version to the current one.
+     *
+     * @param knownVersion the version of the member list the recipient has
+     * @return a presence delta, or a user list if a delta cannot be built or would be longer
+     */
+    private Message presenceSince(long knownVersion) {
+        if (knownVersion == 0 || knownVersion < Math.max(baseVersion, evictedVersion) || knownVersion > version)
+            return new SystemUserList(new TextMessageContent(""), new ArrayList<>(present), LocalDateTime.now(), name, version);
+        Map<String, Boolean> net = new LinkedHashMap<>();
+        for (long i = Math.max(0, changeCount - changeVersions.length); i < changeCount; i++) {
+            int slot = (int) (i % changeVersions.length);
+            if (changeVersions[slot] > knownVersion)
+                net.put(changeUsers[slot], changeJoins[slot]);
+        }
+        if (net.size() > present.size())
+            return new SystemUserList(new TextMessageContent(""), new ArrayList<>(present), LocalDateTime.now(), name, version);
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        for (Map.Entry<String, Boolean> change : net.entrySet())
+            (change.getValue() ? joined : left).add(change.getKey());
+        return new SystemPresence(new TextMessageContent(""), LocalDateTime.now(), name, knownVersion, version, joined, left);
+    }
+
+    /**
+     * Gets the recent broadcasts of the room.
+     *
+     * @return the scrollback
+     */
+    public Scrollback getScrollback() {
+        return scrollback;
+    }
+}
@@ -0,0 +1,122 @@
+package com.chatroom.server;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps track of the chat rooms of a server.
+ * <p>
+ * Rooms other than the lobby are created by the first member joining and removed when the last member leaves.
+ * Both happen inside the map's per-key compute, so a session can never join a room that is being removed.
+ */
+public class RoomManager {
+
+    /**
+     * The room every user is put in after logging in.
+     */
+    public static final String LOBBY = "lobby";
+
+    private static final Pattern ROOM_NAME = Pattern.compile("[a-z0-9_-]{1,32}");
+
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private final AtomicLong presenceVersions = new AtomicLong();
+    private final int scrollbackMessages;
+    private final int presenceChanges;
+
+    /**
+     * Creates a room manager holding only the lobby.
+     *
+     * @param scrollbackMessages the number of recent broadcasts each room replays to new members
+     * @param presenceChanges    the number of recent joins and leaves each room keeps for presence deltas
+     */
+    public RoomManager(int scrollbackMessages, int presenceChanges) {
+        this.scrollbackMessages = scrollbackMessages;
+        this.presenceChanges = presenceChanges;
+        rooms.put(LOBBY, newRoom(LOBBY));
+    }
+
+    /**
+     * Creates an empty room.
+     *
+     * @param name the room name
+     * @return the new room
+     */
+    private Room newRoom(String name) {
+        return new Room(name, scrollbackMessages, presenceChanges, presenceVersions);
+    }
+
+    /**
+     * Checks whether a name may be used for a room.
+     *
+     * @param name the name, already lower-cased
+     * @return true if the name has 1 to 32 lower-case letters, digits, underscores or hyphens
+     */
+    public static boolean isValidName(String name) {
+        return ROOM_NAME.matcher(name).matches();
+    }
+
+    /**
+     * Adds a session to a room, creating the room if needed.
+     *
+     * @param name    the room name
+     * @param session the joining session
+     * @return the room joined
+     */
+    public Room join(String name, ClientSession session) {
+        return rooms.compute(name, (key, room) -> {
+            if (room == null)
+                room = newRoom(key);
+            room.add(session);
+            return room;
+        });
+    }
+
+    /**
+     * Removes a session from a room, removing the room if it is left empty and is not the lobby.
+     *
+     * @param room    the room to leave
+     * @param session the leaving session
+     */
+    public void leave(Room room, ClientSession session) {
+        rooms.computeIfPresent(room.getName(), (key, current) -> {
+            current.remove(session);
+            return current.getMembers().isEmpty() && !key.equals(LOBBY) ? null : current;
+        });
+    }
+
+    /**
+     * Finds an existing room.
+     *
+     * @param name the room name, null standing for the lobby
+     * @return the room, or null if no user is in it
+     */
+    public Room find(String name) {
+        return rooms.get(name == null ? LOBBY : name);
+    }
+
+    /**
+     * Gets the existing rooms.
+     *
+     * @return a live view of the rooms
+     */
+    public Collection<Room> getRooms() {
+        return rooms.values();
+    }
+
+    /**
+     * Describes the existing rooms.
+     *
+     * @return the room names with their member counts
+     */
+    public String describe() {
+        StringBuilder description = new StringBuilder();
+        for (Room room : rooms.values()) {
+            if (!description.isEmpty())
+                description.append(", ");
+            description.append(room.getName()).append(" (").append(room.getMembers().size()).append(')');
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,59 @@
+package com.chatroom.server;
+
+import com.chatroom.common.message.Message;
+
+/**
+ * Keeps the most recent broadcast messages of a room in memory so they can be replayed to users as they join.
+ * <p>
+ * The messages live in a fixed array used as a ring: recording a message overwrites the oldest slot and
+ * allocates nothing, so the broadcast path pays only for a short lock.
+ */
+public class Scrollback {
+
+    private final Message[] slots;
+    private long count;
+
+    /**
+     * Creates an empty scrollback.
+     *
+     * @param capacity the number of messages kept, 0 to keep none
+     */
+    public Scrollback(int capacity) {
+        this.slots = new Message[Math.max(0, capacity)];
+    }
+
+    /**
+     * Records a broadcast message, evicting the oldest one if the scrollback is full.
+     *
+     * @param message the message to record
+     */
+    public synchronized void add(Message message) {
+        if (slots.length == 0)
+            return;
+        slots[(int) (count++ % slots.length)] = message;
+    }
+
+    /**
+     * Copies the recorded messages.
+     *
+     * @return the messages from oldest to newest
+     */
+    public synchronized Message[] snapshot() {
+        int size = (int) Math.min(count, slots.length);
+        Message[] messages = new Message[size];
+        int start = (int) ((count - size) % Math.max(1, slots.length));
+        int head = Math.min(size, slots.length - start);
+        System.arraycopy(slots, start, messages, 0, head);
+        System.arraycopy(slots, 0, messages, head, size - head);
+        return messages;
+    }
+
+    /**
+     * Gets the number of messages the scrollback keeps.
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return slots.length;
+    }
+}
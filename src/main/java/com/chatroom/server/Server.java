@@ -1,64 +1,216 @@
 package com.chatroom.server;
 
-import com.chatroom.common.Constants;
 import com.chatroom.common.message.Message;
+import com.chatroom.common.message.SystemBroadcast;
+import com.chatroom.common.message.UserBroadcastMessage;
+import com.chatroom.common.message.UserMessage;
 import com.chatroom.common.message.UserPrivateMessage;
+import com.chatroom.common.protocol.CodecType;
+import com.chatroom.common.protocol.Frames;
+import com.chatroom.server.cluster.ClusterBus;
+import com.chatroom.server.cluster.LoopbackBus;
+import com.chatroom.server.events.FanoutEvent;
+import com.chatroom.server.history.MessageStore;
+import com.chatroom.server.history.StoredMessage;
 import org.jetbrains.annotations.NotNull;
 
+import java.awt.GraphicsEnvironment;
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
-import static com.chatroom.common.Constants.LOG_FILE;
-import static com.chatroom.common.Constants.USER_FILE;
 
 /**
  * Represents a chat server that handles client connections and messages.
+ * <p>
+ * A server is one node of a cluster sharing a {@link ClusterBus}: room broadcasts and private messages for
+ * users on other nodes are published on the bus, messages published by other nodes are delivered to the local
+ * users they concern, and usernames are claimed cluster-wide. A standalone server has a bus of its own.
+ * Several nodes may run in one JVM, as started by {@link ClusterLauncher}; the JVM then exits once the last of them
+ * has stopped.
  */
 public class Server {
 
-    private final List<ClientHandler> clients;
+    private static final int SEARCH_RESULTS = 50;
+    private static final int MEMORY_TOP_SESSIONS = 5;
+    private static final int HISTORY_READERS = 2;
+    private static final int HISTORY_READ_QUEUE = 256;
+    private static final DateTimeFormatter SEARCH_TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final AtomicInteger RUNNING_NODES = new AtomicInteger();
+
+    private final SessionRegistry registry;
     private final UserManager userManager;
+    private final AuthService authService;
+    private final ResumeTokens resumeTokens;
     private final Logger logger;
-    private final ExecutorService pool;
-    private ServerSocket serverSocket;
-    private boolean running;
+    private final MessageStore messageStore;
+    private final ThreadPoolExecutor historyReaders;
+    private final RoomManager rooms;
+    private final ServerConfig config;
+    private final ServerEngine engine;
+    private final ClusterBus cluster;
+    private final boolean ownsUserManager;
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final LongAdder broadcastEncodes = new LongAdder();
+    private final LongAdder broadcastWrites = new LongAdder();
+    private final OutboundMetrics outboundMetrics = new OutboundMetrics();
+    private final ServerMetrics metrics = new ServerMetrics();
+    private MetricsEndpoint metricsEndpoint;
     private ServerView serverView;
 
     /**
-     * Constructs a new Server instance.
+     * Constructs a new Server instance with the configuration taken from the system properties.
      */
     public Server() {
-        this.userManager = new UserManager(USER_FILE);
-        this.logger = new Logger(LOG_FILE);
-        this.clients = new CopyOnWriteArrayList<>();
-        this.pool = Executors.newCachedThreadPool();
-        this.running = false;
+        this(ServerConfig.fromSystemProperties());
+    }
+
+    /**
+     * Constructs a new Server instance, joining the cluster bus selected by the configuration.
+     *
+     * @param config the server configuration
+     */
+    public Server(ServerConfig config) {
+        this(config, switch (config.getClusterMode()) {
+            case STANDALONE -> new LoopbackBus();
+            case LOOPBACK -> LoopbackBus.shared();
+        });
+    }
+
+    /**
+     * Constructs a new Server instance as a node of a cluster.
+     *
+     * @param config  the server configuration
+     * @param cluster the bus connecting the nodes of the cluster
+     */
+    public Server(ServerConfig config, ClusterBus cluster) {
+        this(config, cluster, createUserManager(config), true);
+    }
+
+    /**
+     * Constructs a new Server instance as a node of a cluster, sharing a user store with other nodes of the JVM.
+     * The user store is left open when the server stops.
+     *
+     * @param config      the server configuration
+     * @param cluster     the bus connecting the nodes of the cluster
+     * @param userManager the user store of the cluster
+     */
+    public Server(ServerConfig config, ClusterBus cluster, UserManager userManager) {
+        this(config, cluster, userManager, false);
+    }
+
+    /**
+     * Constructs a new Server instance.
+     *
+     * @param config          the server configuration
+     * @param cluster         the bus connecting the nodes of the cluster
+     * @param userManager     the user store
+     * @param ownsUserManager true to close the user store when the server stops
+     */
+    private Server(ServerConfig config, ClusterBus cluster, UserManager userManager, boolean ownsUserManager) {
+        this.config = config;
+        this.cluster = cluster;
+        this.userManager = userManager;
+        this.ownsUserManager = ownsUserManager;
+        this.authService = new AuthService(config.getAuthThreads(), config.getAuthQueue(), config.getLoginBurst(), config.getLoginsPerMinute());
+        this.resumeTokens = new ResumeTokens(config.getResumeGraceSeconds());
+        this.logger = new Logger(config.getLogFile(), config.getLogBufferLines(), config.getLogFlushBytes(), config.getLogFlushMillis(),
+                new LogRotation(config.getLogMaxBytes(), config.isLogRotateDaily(), config.getLogRetention()));
+        try {
+            this.messageStore = new MessageStore(Path.of(config.getHistoryDir()), config.getHistorySegmentBytes(),
+                    config.getHistoryBufferMessages(), config.isHistorySync());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open message history", e);
+        }
+        AtomicInteger historyThreads = new AtomicInteger();
+        this.historyReaders = new ThreadPoolExecutor(HISTORY_READERS, HISTORY_READERS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(HISTORY_READ_QUEUE), runnable -> {
+            Thread thread = new Thread(runnable, "history-" + historyThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.rooms = new RoomManager(config.getScrollbackMessages(), config.getPresenceChanges());
+        this.registry = new SessionRegistry();
+        this.engine = switch (config.getMode()) {
+            case BLOCKING -> new BlockingServerEngine(this, Executors.newCachedThreadPool());
+            case VIRTUAL -> new BlockingServerEngine(this, Executors.newVirtualThreadPerTaskExecutor());
+            case NIO -> new NioServerEngine(this, config.getEventLoops());
+        };
+        cluster.connect(config.getNodeId(), this::deliverClusterMessage);
+        registerMetrics();
+    }
+
+    /**
+     * Opens the user store configured for a server.
+     *
+     * @param config the server configuration
+     * @return the user manager
+     */
+    public static UserManager createUserManager(ServerConfig config) {
+        return new UserManager(config.getUserFile(), config.getLoginCacheSeconds(), config.getUserReloadSeconds(),
+                config.getUserJournalRecords());
+    }
+
+    /**
+     * Registers the values kept by the parts of the server with the server metrics.
+     */
+    private void registerMetrics() {
+        metrics.register("chatroom_connections_active", "gauge", "Open client connections, logged in or not.",
+                () -> registry.getConnections().size());
+        metrics.register("chatroom_users_online", "gauge", "Users logged in on this node.",
+                () -> registry.getAuthenticated().size());
+        metrics.register("chatroom_broadcast_encodes_total", "counter", "Broadcast frames encoded.", broadcastEncodes::sum);
+        metrics.register("chatroom_outbound_enqueued_total", "counter", "Frames accepted by outbound queues.",
+                outboundMetrics::getEnqueued);
+        metrics.register("chatroom_outbound_dropped_total", "counter", "Frames dropped by full outbound queues.",
+                outboundMetrics::getDropped);
+        metrics.register("chatroom_slow_consumer_disconnects_total", "counter", "Clients disconnected as slow consumers.",
+                outboundMetrics::getDisconnects);
+        metrics.register("chatroom_log_lines_dropped_total", "counter", "Log lines dropped by a full log buffer.",
+                logger::getDroppedCount);
+        metrics.register("chatroom_cluster_dropped_total", "counter", "Relayed messages dropped by a node falling behind.",
+                cluster::getDroppedCount);
+        metrics.registerHeap();
     }
 
     /**
      * Main method to start the server.
      *
-     * @param args Command-line arguments (not used)
+     * @param args Command-line arguments (not used; see {@link ServerConfig} for the supported properties)
      */
     public static void main(String[] args) {
         new Server().start();
     }
 
     /**
-     * Displays a message on the server view and logs it.
+     * Displays a message on the server view (or the console when running headless) and logs it.
      *
      * @param message The message to display and log
      */
     public void output(String message) {
-        serverView.display(message);
+        if (serverView != null)
+            serverView.display(message);
+        else
+            System.out.println(message);
         logger.log(message);
     }
 
@@ -67,17 +219,12 @@ public class Server {
      */
     private void waitForClient() {
         try {
-            serverSocket = new ServerSocket(Constants.PORT);
-            running = true;
-            output("Server started on port " + Constants.PORT);
-
-            while (running) {
-                Socket clientSocket = serverSocket.accept();
-                ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-                clients.add(clientHandler);
-                pool.execute(clientHandler);
-            }
-        } catch (SocketException ignored) {
+            engine.bind(config.getPort(), config.getBacklog());
+            output("Server started on port " + config.getPort() + " (" + config.getMode().name().toLowerCase() + " mode)");
+            if (messageStore.getTruncatedBytes() > 0)
+                output("Message history recovered: truncated " + messageStore.getTruncatedBytes() + " bytes of torn records");
+            startMetricsEndpoint();
+            engine.serve();
         } catch (Exception e) {
             output("Error starting server: " + e.getMessage());
         } finally {
@@ -85,52 +232,213 @@ public class Server {
         }
     }
 
+    /**
+     * Serves the metrics over HTTP if a metrics port is configured. The chat keeps running if the port cannot be
+     * bound.
+     */
+    private void startMetricsEndpoint() {
+        if (config.getMetricsPort() <= 0)
+            return;
+        try {
+            metricsEndpoint = new MetricsEndpoint(config.getMetricsAddress(), config.getMetricsPort(), metrics,
+                    config.isMetricsGc());
+            output("Metrics served on http://" + config.getMetricsAddress() + ":" + config.getMetricsPort() + "/metrics");
+        } catch (IOException e) {
+            output("Error starting metrics endpoint: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads server commands from the console, for servers running without a display.
+     */
+    private void readConsoleCommands() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in))) {
+            String command;
+            while ((command = reader.readLine()) != null)
+                handleServerCommands(command.trim());
+        } catch (IOException e) {
+            output("Error reading console: " + e.getMessage());
+        }
+    }
+
     /**
      * Starts the server by initializing the server view and waiting for clients.
+     * In a headless environment, commands are read from the console instead.
      */
     public void start() {
-        serverView = new ServerView(this);
+        if (GraphicsEnvironment.isHeadless()) {
+            Thread console = new Thread(this::readConsoleCommands, "console");
+            console.setDaemon(true);
+            console.start();
+        } else
+            serverView = new ServerView(this);
+        startNode();
+    }
+
+    /**
+     * Starts waiting for clients without a view or a console, for a server running as one of several nodes in a
+     * JVM whose commands are given with {@link #handleServerCommands}.
+     */
+    public void startNode() {
+        RUNNING_NODES.incrementAndGet();
         new Thread(this::waitForClient).start();
     }
 
     /**
-     * Stops the server by closing sockets and shutting down the thread pool.
+     * Stops the server by closing the engine and all client connections, then exits the JVM unless other nodes
+     * are still running in it. Stopping a stopped server does nothing.
      */
     public void stop() {
-        running = false;
+        if (!stopped.compareAndSet(false, true))
+            return;
         try {
-            if (serverSocket != null && !serverSocket.isClosed())
-                serverSocket.close();
-            for (ClientHandler clientHandler : clients)
-                clientHandler.close(true);
-            clients.clear();
-            pool.shutdown();
+            engine.close();
+            for (ClientSession client : registry.getConnections())
+                client.close(true);
         } catch (IOException e) {
             output("Error stopping server: " + e.getMessage());
         }
-        System.exit(0);
+        if (metricsEndpoint != null)
+            metricsEndpoint.close();
+        resumeTokens.close();
+        cluster.disconnect(config.getNodeId());
+        authService.close();
+        if (ownsUserManager)
+            userManager.close();
+        historyReaders.shutdownNow();
+        messageStore.close();
+        logger.close();
+        if (RUNNING_NODES.decrementAndGet() <= 0)
+            System.exit(0);
+    }
+
+    /**
+     * Posts a message to a room across the cluster: it is delivered to the local members and published to the
+     * other nodes. User broadcasts are also persisted and added to the room's scrollback.
+     *
+     * @param room    The room to post to
+     * @param message The message to post, carrying the room's name
+     */
+    public void postToRoom(Room room, Message message) {
+        deliverToRoom(room, message);
+        publish(message);
+    }
+
+    /**
+     * Delivers a room message on this node: user broadcasts are persisted and added to the room's scrollback,
+     * and the message is broadcast to the room's local members.
+     *
+     * @param room    The room to deliver to, or null if no local user is in it
+     * @param message The message to deliver
+     */
+    private void deliverToRoom(Room room, Message message) {
+        if (message instanceof UserBroadcastMessage) {
+            messageStore.append(message);
+            if (room != null)
+                room.getScrollback().add(message);
+        }
+        if (room != null)
+            broadcastMessage(room, message);
     }
 
     /**
-     * Broadcasts a message to all authenticated clients.
+     * Delivers a message published by another node of the cluster. Called on the bus's delivery thread.
      *
+     * @param message The relayed message
+     */
+    private void deliverClusterMessage(Message message) {
+        switch (message) {
+            case UserBroadcastMessage ubm -> deliverToRoom(rooms.find(ubm.getRoom()), ubm);
+            case SystemBroadcast sb -> deliverToRoom(rooms.find(sb.getRoom()), sb);
+            case UserPrivateMessage upm -> {
+                ClientSession receiver = registry.find(upm.getReceiver());
+                if (receiver != null) {
+                    messageStore.append(upm);
+                    receiver.sendMessage(upm);
+                }
+            }
+            default -> output("Unexpected cluster message: " + message);
+        }
+    }
+
+    /**
+     * Publishes a message to the other nodes of the cluster.
+     *
+     * @param message The message to publish
+     */
+    private void publish(Message message) {
+        try {
+            cluster.publish(config.getNodeId(), message);
+        } catch (IOException e) {
+            output("Error publishing message to the cluster: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Broadcasts a message to the authenticated members of a room on this node.
+     * The message is encoded at most once per codec in use, and the resulting read-only frame is
+     * shared by every recipient speaking that codec. If the message cannot be encoded by a codec, only the
+     * members speaking that codec miss it.
+     *
+     * @param room    The room to broadcast to
      * @param message The message to broadcast
      */
-    public void broadcastMessage(Message message) {
-        clients.stream()
-                .filter(client -> client != null && client.isAuthenticated())
-                .forEach(client -> client.sendMessage(message));
+    public void broadcastMessage(Room room, Message message) {
+        FanoutEvent event = new FanoutEvent();
+        event.begin();
+        long start = System.nanoTime();
+        int recipients = 0;
+        EnumMap<CodecType, ByteBuffer> frames = new EnumMap<>(CodecType.class);
+        EnumSet<CodecType> failed = EnumSet.noneOf(CodecType.class);
+        for (ClientSession client : room.getMembers()) {
+            CodecType codec = client.getCodecType();
+            if (!client.isAuthenticated() || failed.contains(codec))
+                continue;
+            ByteBuffer frame = frames.get(codec);
+            if (frame == null) {
+                try {
+                    frame = Frames.wrap(codec.getCodec().encode(message)).asReadOnlyBuffer();
+                } catch (IOException e) {
+                    output("Error encoding message: " + e.getMessage());
+                    failed.add(codec);
+                    continue;
+                }
+                frames.put(codec, frame);
+                broadcastEncodes.increment();
+            }
+            client.sendEncoded(frame);
+            recipients++;
+        }
+        broadcastWrites.add(recipients);
+        metrics.messageSent(message, recipients);
+        metrics.fanoutCompleted(System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            event.room = room.getName();
+            event.messageType = message.getClass().getSimpleName();
+            event.recipients = recipients;
+            event.encodes = frames.size();
+            for (ByteBuffer frame : frames.values())
+                event.size += frame.limit();
+            event.commit();
+        }
     }
 
     /**
-     * Sends a private message to a specific user.
+     * Sends a private message to a specific user, through the cluster if the user is on another node.
      *
      * @param message The private message to send
+     * @return True if the receiver is online and the message was sent, false otherwise
      */
-    public void sendPrivateMessage(UserPrivateMessage message) {
-        clients.stream()
-                .filter(client -> client != null && client.isAuthenticated() && Objects.equals(client.getUsername(), message.getReceiver()))
-                .forEach(client -> client.sendMessage(message));
+    public boolean sendPrivateMessage(UserPrivateMessage message) {
+        ClientSession receiver = registry.find(message.getReceiver());
+        if (receiver != null) {
+            receiver.sendMessage(message);
+            return true;
+        }
+        if (!cluster.isOnline(message.getReceiver()))
+            return false;
+        publish(message);
+        return true;
     }
 
     /**
@@ -139,42 +447,232 @@ public class Server {
      * @param command The command to process
      */
     public void handleServerCommands(@NotNull String command) {
-        switch (command.toLowerCase()) {
+        String[] args = command.trim().split("\\s+", 2);
+        switch (args[0].toLowerCase()) {
             case "list":
                 output("Online users: " + getOnlineUsers());
                 break;
             case "listall":
                 output("All users: " + userManager.getAllUsers());
                 break;
+            case "fanout":
+                output("Broadcast frames encoded: " + broadcastEncodes.sum() + ", written: " + broadcastWrites.sum());
+                break;
+            case "queues":
+                output(describeOutboundQueues());
+                break;
+            case "memory":
+                output(describeMemory());
+                break;
+            case "stats":
+                output(metrics.describe());
+                break;
+            case "logger":
+                output("Log lines dropped: " + logger.getDroppedCount());
+                break;
+            case "rooms":
+                output("Rooms: " + rooms.describe());
+                break;
+            case "store":
+                output(messageStore.describe());
+                break;
+            case "users":
+                userManager.reload();
+                output("Users: " + userManager.describe());
+                break;
+            case "auth":
+                output("Authentication: " + authService.describe());
+                break;
+            case "resume":
+                output("Resume: " + resumeTokens.describe());
+                break;
+            case "search":
+                searchHistory(args.length > 1 ? args[1] : "");
+                break;
             case "quit":
                 output("quit");
                 stop();
                 break;
             default:
-                output("Unknown command. Available commands: list, listall, quit");
+                output("Unknown command. Available commands: list, listall, rooms, fanout, queues, memory, stats, logger, store, users, auth, resume, search, quit");
+        }
+    }
+
+    /**
+     * Outputs the most recent stored messages, private ones included, that contain all words of a query.
+     *
+     * @param query The words to look for
+     */
+    private void searchHistory(String query) {
+        List<StoredMessage> matches;
+        long start = System.nanoTime();
+        try {
+            matches = messageStore.search(query, SEARCH_RESULTS, message -> true);
+        } catch (IOException e) {
+            output("Error searching message history: " + e.getMessage());
+            return;
+        }
+        output(String.format("Search \"%s\": %d most recent matches in %d ms", query, matches.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        for (StoredMessage stored : matches) {
+            String sender = stored.message() instanceof UserMessage um ? um.getSender() : "system";
+            String receiver = stored.message() instanceof UserPrivateMessage upm ? " -> " + upm.getReceiver() : "";
+            output(String.format("#%d [%s] %s%s: %s", stored.id(), stored.message().getTimestamp().format(SEARCH_TIMESTAMP),
+                    sender, receiver, stored.message().getContent().getContent()));
         }
     }
 
     /**
-     * Retrieves a list of online users.
+     * Summarizes the state of the clients' outbound queues.
      *
-     * @return List of online usernames
+     * @return a human-readable summary of queue depths, drops and slow-consumer disconnects
+     */
+    private String describeOutboundQueues() {
+        int queued = 0;
+        ClientSession deepest = null;
+        for (ClientSession client : registry.getConnections()) {
+            queued += client.getOutbound().size();
+            if (deepest == null || client.getOutbound().size() > deepest.getOutbound().size())
+                deepest = client;
+        }
+        return String.format("Outbound queues: %d frames queued, deepest %s (%d, high-water %d); %d enqueued, %d dropped, %d slow consumers disconnected",
+                queued,
+                deepest == null ? "none" : deepest.getUsername(),
+                deepest == null ? 0 : deepest.getOutbound().size(),
+                deepest == null ? 0 : deepest.getOutbound().getHighWaterMark(),
+                outboundMetrics.getEnqueued(), outboundMetrics.getDropped(), outboundMetrics.getDisconnects());
+    }
+
+    /**
+     * Summarizes the memory held by the client sessions and the heap of the server.
+     *
+     * @return a human-readable summary of the bytes and buffers held, with the largest holders
+     */
+    private String describeMemory() {
+        List<Map.Entry<ClientSession, SessionMemory>> sessions = new ArrayList<>();
+        long outboundBytes = 0;
+        long readBufferBytes = 0;
+        long resumeBytes = 0;
+        int outboundFrames = 0;
+        int resumeFrames = 0;
+        int buffers = 0;
+        for (ClientSession client : registry.getConnections()) {
+            SessionMemory memory = client.getMemory();
+            sessions.add(Map.entry(client, memory));
+            outboundFrames += memory.outboundFrames();
+            outboundBytes += memory.outboundBytes();
+            readBufferBytes += memory.readBufferBytes();
+            resumeFrames += memory.resumeFrames();
+            resumeBytes += memory.resumeBytes();
+            buffers += memory.buffers();
+        }
+        sessions.sort(Comparator.comparingLong((Map.Entry<ClientSession, SessionMemory> entry) -> entry.getValue().bytes()).reversed());
+        StringBuilder largest = new StringBuilder();
+        for (Map.Entry<ClientSession, SessionMemory> entry : sessions.subList(0, Math.min(MEMORY_TOP_SESSIONS, sessions.size())))
+            largest.append(String.format(" %s#%d %d bytes in %d buffers;", Objects.requireNonNullElse(entry.getKey().getUsername(), ""),
+                    entry.getKey().getId(), entry.getValue().bytes(), entry.getValue().buffers()));
+        Runtime runtime = Runtime.getRuntime();
+        return String.format("Session memory: %d connections hold %d bytes in %d buffers (outbound %d bytes in %d frames, "
+                        + "read buffers %d bytes, resume %d bytes in %d frames); heap %d of %d MiB used. Largest:%s",
+                sessions.size(), outboundBytes + readBufferBytes + resumeBytes, buffers, outboundBytes, outboundFrames,
+                readBufferBytes, resumeBytes, resumeFrames, (runtime.totalMemory() - runtime.freeMemory()) >> 20,
+                runtime.maxMemory() >> 20, sessions.isEmpty() ? " none" : largest.toString());
+    }
+
+    /**
+     * Retrieves a list of the users online anywhere in the cluster.
+     *
+     * @return Immutable list of online usernames
      */
     public List<String> getOnlineUsers() {
-        return clients.stream()
-                .filter(client -> client != null && client.isAuthenticated())
-                .map(ClientHandler::getUsername)
-                .collect(Collectors.toList());
+        return cluster.getOnlineUsers();
     }
 
     /**
-     * Checks if a user is already logged in.
+     * Checks if a user is already logged in anywhere in the cluster.
      *
      * @param username The username to check
      * @return True if the user is already logged in, false otherwise
      */
     public boolean isUserAlreadyLogin(String username) {
-        return getOnlineUsers().contains(username);
+        return cluster.isOnline(username);
+    }
+
+    /**
+     * Claims a username for a session that has just authenticated, first in the cluster and then on this node.
+     *
+     * @param username The username to claim
+     * @param client   The claiming session
+     * @return True if the username was free, false if the user is logged in anywhere in the cluster
+     */
+    public boolean claimUser(String username, ClientSession client) {
+        if (!cluster.claimUser(username, config.getNodeId()))
+            return false;
+        if (registry.claim(username, client))
+            return true;
+        cluster.releaseUser(username, config.getNodeId());
+        return false;
+    }
+
+    /**
+     * Gets the server configuration.
+     *
+     * @return The server configuration
+     */
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Gets the counters shared by all outbound queues.
+     *
+     * @return The outbound queue metrics
+     */
+    public OutboundMetrics getOutboundMetrics() {
+        return outboundMetrics;
+    }
+
+    /**
+     * Gets the metrics of the server.
+     *
+     * @return The server metrics
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the persistent store of relayed messages.
+     *
+     * @return The message store
+     */
+    public MessageStore getMessageStore() {
+        return messageStore;
+    }
+
+    /**
+     * Runs a read of the message history for a client on a history reader thread, so that the threads serving
+     * connections, such as an event loop's selector thread, never wait for the disk.
+     *
+     * @param read the read, which sends its own reply to the client
+     * @return true if the read was queued, false if every reader is busy and the queue is full
+     */
+    public boolean submitHistoryRead(Runnable read) {
+        try {
+            historyReaders.execute(read);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the chat rooms of the server.
+     *
+     * @return The room manager
+     */
+    public RoomManager getRooms() {
+        return rooms;
     }
 
     /**
@@ -187,12 +685,51 @@ public class Server {
     }
 
     /**
-     * Removes a client handler from the list of connected clients.
+     * Gets the service checking login credentials.
+     *
+     * @return The authentication service
+     */
+    public AuthService getAuthService() {
+        return authService;
+    }
+
+    /**
+     * Gets the sessions held for their clients to resume.
+     *
+     * @return The resume tokens
+     */
+    public ResumeTokens getResumeTokens() {
+        return resumeTokens;
+    }
+
+    /**
+     * Adds a newly accepted client to the list of connected clients.
+     *
+     * @param client The client session to add
+     */
+    public void addClient(ClientSession client) {
+        metrics.connectionAccepted();
+        registry.add(client);
+    }
+
+    /**
+     * Removes a client from the list of connected clients, releasing its username in the cluster.
+     *
+     * @param client The client session to remove
+     */
+    public void removeClient(ClientSession client) {
+        String username = client.getUsername();
+        if (registry.remove(client))
+            cluster.releaseUser(username, config.getNodeId());
+    }
+
+    /**
+     * Gets the registry of connected clients.
      *
-     * @param clientHandler The client handler to remove
+     * @return The session registry
      */
-    public void removeClient(ClientHandler clientHandler) {
-        clients.remove(clientHandler);
+    public SessionRegistry getRegistry() {
+        return registry;
     }
 
 }
@@ -0,0 +1,445 @@
+package com.chatroom.server;
+
+import com.chatroom.common.Constants;
+
+import java.util.Properties;
+
+/**
+ * Holds the startup configuration of the chatroom server.
+ * <p>
+ * Every setting is read from a property prefixed with {@code chatroom.}, so a server can be
+ * configured on the command line, e.g. {@code java -Dchatroom.mode=nio -jar server.jar}.
+ */
+public class ServerConfig {
+
+    private final int port;
+    private final int backlog;
+    private final ServerMode mode;
+    private final int eventLoops;
+    private final int outboundCapacity;
+    private final long outboundMaxBytes;
+    private final OverflowPolicy overflowPolicy;
+    private final long outboundBlockMillis;
+    private final int logBufferLines;
+    private final int logFlushBytes;
+    private final long logFlushMillis;
+    private final long logMaxBytes;
+    private final boolean logRotateDaily;
+    private final int logRetention;
+    private final long historySegmentBytes;
+    private final int historyBufferMessages;
+    private final boolean historySync;
+    private final int scrollbackMessages;
+    private final int presenceChanges;
+    private final String logFile;
+    private final String userFile;
+    private final int loginCacheSeconds;
+    private final int userReloadSeconds;
+    private final int userJournalRecords;
+    private final int authThreads;
+    private final int authQueue;
+    private final int loginBurst;
+    private final int loginsPerMinute;
+    private final int resumeGraceSeconds;
+    private final int resumeBufferMessages;
+    private final String historyDir;
+    private final ClusterMode clusterMode;
+    private final String nodeId;
+    private final int metricsPort;
+    private final String metricsAddress;
+    private final boolean metricsGc;
+
+    /**
+     * Creates a configuration from the given properties, falling back to defaults for missing keys.
+     *
+     * @param properties the properties to read
+     */
+    public ServerConfig(Properties properties) {
+        this.port = intProperty(properties, "chatroom.port", Constants.PORT);
+        this.backlog = intProperty(properties, "chatroom.backlog", 1024);
+        this.mode = ServerMode.valueOf(properties.getProperty("chatroom.mode", "blocking").trim().toUpperCase());
+        this.eventLoops = Math.max(1, intProperty(properties, "chatroom.eventLoops",
+                Math.min(4, Runtime.getRuntime().availableProcessors())));
+        this.outboundCapacity = intProperty(properties, "chatroom.outboundCapacity", 1024);
+        this.outboundMaxBytes = intProperty(properties, "chatroom.outboundMaxKilobytes", 4096) * 1024L;
+        this.overflowPolicy = OverflowPolicy.valueOf(properties.getProperty("chatroom.overflowPolicy", "disconnect")
+                .trim().toUpperCase().replace('-', '_'));
+        this.outboundBlockMillis = intProperty(properties, "chatroom.outboundBlockMillis", 5000);
+        this.logBufferLines = intProperty(properties, "chatroom.logBufferLines", 8192);
+        this.logFlushBytes = intProperty(properties, "chatroom.logFlushBytes", 64 * 1024);
+        this.logFlushMillis = intProperty(properties, "chatroom.logFlushMillis", 200);
+        this.logMaxBytes = intProperty(properties, "chatroom.logMaxMegabytes", 64) * 1024L * 1024L;
+        this.logRotateDaily = Boolean.parseBoolean(properties.getProperty("chatroom.logRotateDaily", "true").trim());
+        this.logRetention = intProperty(properties, "chatroom.logRetention", 14);
+        this.historySegmentBytes = intProperty(properties, "chatroom.historySegmentMegabytes", 64) * 1024L * 1024L;
+        this.historyBufferMessages = intProperty(properties, "chatroom.historyBufferMessages", 65536);
+        this.historySync = Boolean.parseBoolean(properties.getProperty("chatroom.historySync", "true").trim());
+        this.scrollbackMessages = intProperty(properties, "chatroom.scrollbackMessages", 50);
+        this.presenceChanges = intProperty(properties, "chatroom.presenceChanges", 1024);
+        this.logFile = properties.getProperty("chatroom.logFile", Constants.LOG_FILE).trim();
+        this.userFile = properties.getProperty("chatroom.userFile", Constants.USER_FILE).trim();
+        this.loginCacheSeconds = intProperty(properties, "chatroom.loginCacheSeconds", 300);
+        this.userReloadSeconds = intProperty(properties, "chatroom.userReloadSeconds", 5);
+        this.userJournalRecords = intProperty(properties, "chatroom.userJournalRecords", 1000);
+        this.authThreads = Math.max(1, intProperty(properties, "chatroom.authThreads", Runtime.getRuntime().availableProcessors()));
+        this.authQueue = intProperty(properties, "chatroom.authQueue", 64);
+        this.loginBurst = intProperty(properties, "chatroom.loginBurst", 5);
+        this.loginsPerMinute = intProperty(properties, "chatroom.loginsPerMinute", 20);
+        this.resumeGraceSeconds = intProperty(properties, "chatroom.resumeGraceSeconds", 30);
+        this.resumeBufferMessages = intProperty(properties, "chatroom.resumeBufferMessages", 256);
+        this.historyDir = properties.getProperty("chatroom.historyDir", Constants.HISTORY_DIR).trim();
+        this.clusterMode = ClusterMode.valueOf(properties.getProperty("chatroom.cluster", "standalone").trim().toUpperCase());
+        this.nodeId = properties.getProperty("chatroom.nodeId", "node-" + port).trim();
+        this.metricsPort = intProperty(properties, "chatroom.metricsPort", 0);
+        this.metricsAddress = properties.getProperty("chatroom.metricsAddress", "127.0.0.1").trim();
+        this.metricsGc = Boolean.parseBoolean(properties.getProperty("chatroom.metricsGc", "false").trim());
+    }
+
+    /**
+     * Creates a configuration from the JVM system properties.
+     *
+     * @return the server configuration
+     */
+    public static ServerConfig fromSystemProperties() {
+        return new ServerConfig(System.getProperties());
+    }
+
+    /**
+     * Reads an integer property.
+     *
+     * @param properties   the properties to read
+     * @param key          the property key
+     * @param defaultValue the value to use when the property is absent
+     * @return the property value
+     */
+    private static int intProperty(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Gets the port the server listens on.
+     *
+     * @return the port number
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Gets the number of connections the operating system may hold waiting to be accepted.
+     *
+     * @return the accept backlog
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Gets the connection handling engine.
+     *
+     * @return the server mode
+     */
+    public ServerMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Gets the number of event-loop threads used by the NIO engine.
+     *
+     * @return the number of event loops
+     */
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * Gets the maximum number of frames queued for a single client.
+     *
+     * @return the outbound queue capacity
+     */
+    public int getOutboundCapacity() {
+        return outboundCapacity;
+    }
+
+    /**
+     * Gets the maximum number of bytes queued for a single client.
+     *
+     * @return the outbound queue byte bound
+     */
+    public long getOutboundMaxBytes() {
+        return outboundMaxBytes;
+    }
+
+    /**
+     * Gets what happens when a client's outbound queue is full.
+     *
+     * @return the overflow policy
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Gets how long a sender waits for room under {@link OverflowPolicy#BLOCK}.
+     *
+     * @return the wait limit in milliseconds
+     */
+    public long getOutboundBlockMillis() {
+        return outboundBlockMillis;
+    }
+
+    /**
+     * Gets the number of log lines that can be buffered before new ones are dropped.
+     *
+     * @return the log buffer capacity
+     */
+    public int getLogBufferLines() {
+        return logBufferLines;
+    }
+
+    /**
+     * Gets the number of pending log bytes that triggers a flush.
+     *
+     * @return the flush threshold in bytes
+     */
+    public int getLogFlushBytes() {
+        return logFlushBytes;
+    }
+
+    /**
+     * Gets the longest time a written log line may stay unflushed.
+     *
+     * @return the flush interval in milliseconds
+     */
+    public long getLogFlushMillis() {
+        return logFlushMillis;
+    }
+
+    /**
+     * Gets the size at which the log file is rolled over.
+     *
+     * @return the size limit in bytes, or 0 for no limit
+     */
+    public long getLogMaxBytes() {
+        return logMaxBytes;
+    }
+
+    /**
+     * Checks whether the log file is rolled over at the start of each day.
+     *
+     * @return true for daily rotation, false otherwise
+     */
+    public boolean isLogRotateDaily() {
+        return logRotateDaily;
+    }
+
+    /**
+     * Gets the number of compressed log archives to keep.
+     *
+     * @return the retention count
+     */
+    public int getLogRetention() {
+        return logRetention;
+    }
+
+    /**
+     * Gets the size at which a message history segment is sealed and a new one started.
+     *
+     * @return the segment size in bytes
+     */
+    public long getHistorySegmentBytes() {
+        return historySegmentBytes;
+    }
+
+    /**
+     * Gets the number of messages that may wait to be written to the history before new ones are dropped.
+     *
+     * @return the buffer capacity in messages
+     */
+    public int getHistoryBufferMessages() {
+        return historyBufferMessages;
+    }
+
+    /**
+     * Checks whether every batch of history records is forced to the storage device.
+     *
+     * @return true to force each batch, false to leave flushing to the operating system
+     */
+    public boolean isHistorySync() {
+        return historySync;
+    }
+
+    /**
+     * Gets the number of recent broadcast messages each room replays to a user joining it.
+     *
+     * @return the scrollback size, 0 to disable replay
+     */
+    public int getScrollbackMessages() {
+        return scrollbackMessages;
+    }
+
+    /**
+     * Gets the number of recent joins and leaves each room keeps so that clients can catch up with a delta.
+     *
+     * @return the presence log size
+     */
+    public int getPresenceChanges() {
+        return presenceChanges;
+    }
+
+    /**
+     * Gets the path of the server log file.
+     *
+     * @return the log file path
+     */
+    public String getLogFile() {
+        return logFile;
+    }
+
+    /**
+     * Gets the path of the file holding the user accounts.
+     *
+     * @return the user file path
+     */
+    public String getUserFile() {
+        return userFile;
+    }
+
+    /**
+     * Gets how long a successful login is remembered, so the same user logging in again with the same password
+     * skips the slow password hash.
+     *
+     * @return the time in seconds, 0 to verify every login in full
+     */
+    public int getLoginCacheSeconds() {
+        return loginCacheSeconds;
+    }
+
+    /**
+     * Gets how often the user file is checked for modifications.
+     *
+     * @return the interval in seconds, 0 to load the file only at startup
+     */
+    public int getUserReloadSeconds() {
+        return userReloadSeconds;
+    }
+
+    /**
+     * Gets the number of account changes the user journal may hold before it is compacted into the user file.
+     *
+     * @return the number of journal records that triggers a compaction
+     */
+    public int getUserJournalRecords() {
+        return userJournalRecords;
+    }
+
+    /**
+     * Gets the number of threads checking login credentials.
+     *
+     * @return the number of authentication workers
+     */
+    public int getAuthThreads() {
+        return authThreads;
+    }
+
+    /**
+     * Gets the number of login attempts that may wait for an authentication worker before new ones are rejected.
+     *
+     * @return the authentication queue capacity
+     */
+    public int getAuthQueue() {
+        return authQueue;
+    }
+
+    /**
+     * Gets the number of login attempts a client address may make in a row.
+     *
+     * @return the burst size
+     */
+    public int getLoginBurst() {
+        return loginBurst;
+    }
+
+    /**
+     * Gets the rate at which a client address regains login attempts after a burst.
+     *
+     * @return the attempts per minute
+     */
+    public int getLoginsPerMinute() {
+        return loginsPerMinute;
+    }
+
+    /**
+     * Gets how long the session of a user whose connection dropped is held for the client to resume it.
+     *
+     * @return the grace period in seconds, 0 if sessions cannot be resumed
+     */
+    public int getResumeGraceSeconds() {
+        return resumeGraceSeconds;
+    }
+
+    /**
+     * Gets the maximum number of frames buffered for a held session; a session missing more is ended.
+     *
+     * @return the resume buffer capacity
+     */
+    public int getResumeBufferMessages() {
+        return resumeBufferMessages;
+    }
+
+    /**
+     * Gets the directory holding the persisted message history.
+     *
+     * @return the history directory path
+     */
+    public String getHistoryDir() {
+        return historyDir;
+    }
+
+    /**
+     * Gets the way the server takes part in a cluster.
+     *
+     * @return the cluster mode
+     */
+    public ClusterMode getClusterMode() {
+        return clusterMode;
+    }
+
+    /**
+     * Gets the identifier of this server in its cluster. Nodes sharing a bus must use distinct identifiers.
+     *
+     * @return the node identifier
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Gets the port of the HTTP endpoint serving the server metrics in the Prometheus text format.
+     *
+     * @return the port number, 0 if the metrics are not served
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * Gets the address the metrics endpoint listens on, the loopback address unless scrapers run elsewhere.
+     *
+     * @return the host name or IP address
+     */
+    public String getMetricsAddress() {
+        return metricsAddress;
+    }
+
+    /**
+     * Gets whether the metrics endpoint also collects the whole heap on request, for a soak test to read what the
+     * server keeps live. Off unless set, as every such request pauses the chat.
+     *
+     * @return true if the endpoint answers {@code POST /gc}
+     */
+    public boolean isMetricsGc() {
+        return metricsGc;
+    }
+}
@@ -0,0 +1,32 @@
+package com.chatroom.server;
+
+import java.io.IOException;
+
+/**
+ * Accepts client connections and drives their I/O on behalf of the {@link Server}.
+ */
+public interface ServerEngine {
+
+    /**
+     * Binds the engine to the given port.
+     *
+     * @param port    the port to listen on
+     * @param backlog the number of connections the operating system may hold waiting to be accepted
+     * @throws IOException if the port cannot be bound
+     */
+    void bind(int port, int backlog) throws IOException;
+
+    /**
+     * Accepts and serves connections until the engine is closed.
+     *
+     * @throws IOException if an unexpected I/O error occurs
+     */
+    void serve() throws IOException;
+
+    /**
+     * Stops accepting connections and releases the engine's resources.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void close() throws IOException;
+}
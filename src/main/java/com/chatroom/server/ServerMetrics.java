@@ -0,0 +1,296 @@
+package com.chatroom.server;
+
+import com.chatroom.common.message.Message;
+import com.chatroom.util.Histogram;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Server-wide metrics: counters, latency histograms and values registered by other parts of the server, readable
+ * as a summary for the console and in the Prometheus text format for scraping.
+ * <p>
+ * Counters are striped {@link LongAdder}s and latencies go to lock-free {@link Histogram}s, so the reader, writer
+ * and worker threads recording them never contend on a lock. Registered values are read from the state they
+ * measure only when the metrics are rendered.
+ */
+public class ServerMetrics {
+
+    private static final long[] LATENCY_BOUNDS_NANOS = {10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000, 25_000_000, 50_000_000, 100_000_000, 250_000_000,
+            500_000_000, 1_000_000_000, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L};
+
+    private final long started = System.nanoTime();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final Map<String, LongAdder> received = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> sent = new ConcurrentHashMap<>();
+    private final Histogram authLatency = new Histogram();
+    private final Histogram fanoutLatency = new Histogram();
+    private final List<Registered> registered = new CopyOnWriteArrayList<>();
+    private final AtomicLong heapAfterGc = new AtomicLong();
+    private long described = started;
+    private long describedAccepted;
+    private long describedBytes;
+    private long describedReceived;
+    private long describedSent;
+
+    /**
+     * A value kept elsewhere in the server, read when the metrics are rendered.
+     *
+     * @param name  the metric name
+     * @param type  the Prometheus metric type, {@code counter} or {@code gauge}
+     * @param help  the description of the metric
+     * @param value reads the current value
+     */
+    private record Registered(String name, String type, String help, LongSupplier value) {
+    }
+
+    /**
+     * Registers a value kept elsewhere in the server.
+     *
+     * @param name  the metric name, prefixed with {@code chatroom_}
+     * @param type  the Prometheus metric type, {@code counter} or {@code gauge}
+     * @param help  the description of the metric
+     * @param value reads the current value; called on the thread rendering the metrics
+     */
+    public void register(String name, String type, String help, LongSupplier value) {
+        registered.add(new Registered(name, type, help, value));
+    }
+
+    /**
+     * Registers the heap in use and the heap left in use after the most recent garbage collection. The latter
+     * leaves out the garbage collected since, so a soak test can tell whether live data grows over a long run.
+     */
+    void registerHeap() {
+        Set<String> heapPools = new HashSet<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                heapPools.add(pool.getName());
+        NotificationListener listener = (notification, handback) -> {
+            if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+                return;
+            GcInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()).getGcInfo();
+            long used = 0;
+            for (Map.Entry<String, MemoryUsage> pool : info.getMemoryUsageAfterGc().entrySet())
+                if (heapPools.contains(pool.getKey()))
+                    used += pool.getValue().getUsed();
+            heapAfterGc.set(used);
+        };
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            if (collector instanceof NotificationEmitter emitter)
+                emitter.addNotificationListener(listener, null, null);
+        register("chatroom_heap_used_bytes", "gauge", "Heap in use, including garbage not yet collected.",
+                () -> Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+        register("chatroom_heap_after_gc_bytes", "gauge", "Heap in use after the most recent garbage collection.",
+                heapAfterGc::get);
+    }
+
+    /**
+     * Records an accepted connection.
+     */
+    void connectionAccepted() {
+        accepted.increment();
+    }
+
+    /**
+     * Records a login or registration attempt checked by an authentication worker.
+     *
+     * @param nanos the time from submitting the attempt to its reply, waiting for a worker included
+     */
+    void authCompleted(long nanos) {
+        authLatency.record(nanos);
+    }
+
+    /**
+     * Records a message decoded from a client.
+     *
+     * @param message the message
+     */
+    void messageReceived(Message message) {
+        count(received, message).increment();
+    }
+
+    /**
+     * Records a message queued for one or more clients.
+     *
+     * @param message    the message
+     * @param recipients the number of clients it was queued for
+     */
+    void messageSent(Message message, int recipients) {
+        count(sent, message).add(recipients);
+    }
+
+    /**
+     * Gets the counter of a message type, creating it for the first message of the type.
+     *
+     * @param counters the counters by message type
+     * @param message  the message
+     * @return the counter of its type
+     */
+    private static LongAdder count(Map<String, LongAdder> counters, Message message) {
+        String type = message.getClass().getSimpleName();
+        LongAdder counter = counters.get(type);
+        return counter != null ? counter : counters.computeIfAbsent(type, key -> new LongAdder());
+    }
+
+    /**
+     * Records a broadcast to the members of a room.
+     *
+     * @param nanos the time taken to encode the message and queue it for every member
+     */
+    void fanoutCompleted(long nanos) {
+        fanoutLatency.record(nanos);
+    }
+
+    /**
+     * Records bytes written to a client's socket.
+     *
+     * @param bytes the number of bytes
+     */
+    void bytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    /**
+     * Summarizes the metrics, with the rates since the previous summary or since the server started.
+     *
+     * @return a human-readable summary
+     */
+    public synchronized String describe() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - described) / 1e9;
+        long acceptedTotal = accepted.sum();
+        long bytesTotal = bytesWritten.sum();
+        long receivedTotal = total(received);
+        long sentTotal = total(sent);
+        StringBuilder values = new StringBuilder();
+        for (Registered value : registered)
+            values.append(String.format(" %s %d;", value.name().substring("chatroom_".length()), value.value().getAsLong()));
+        String summary = String.format("Stats over %.1f s (uptime %d s): %d connections accepted (%.1f/s); "
+                        + "auth %s; messages received %d (%.1f/s) %s, sent %d (%.1f/s) %s; fan-out %s; "
+                        + "bytes written %d (%.1f KiB/s);%s",
+                seconds, TimeUnit.NANOSECONDS.toSeconds(now - started), acceptedTotal, (acceptedTotal - describedAccepted) / seconds,
+                describe(authLatency), receivedTotal, (receivedTotal - describedReceived) / seconds, new TreeMap<>(received),
+                sentTotal, (sentTotal - describedSent) / seconds, new TreeMap<>(sent), describe(fanoutLatency),
+                bytesTotal, (bytesTotal - describedBytes) / seconds / 1024, values);
+        described = now;
+        describedAccepted = acceptedTotal;
+        describedBytes = bytesTotal;
+        describedReceived = receivedTotal;
+        describedSent = sentTotal;
+        return summary;
+    }
+
+    /**
+     * Summarizes a latency histogram.
+     *
+     * @param histogram the histogram, in nanoseconds
+     * @return the count and the p50, p99, p999 and maximum in milliseconds
+     */
+    private static String describe(Histogram histogram) {
+        return String.format("%d, p50 %.3f ms, p99 %.3f ms, p999 %.3f ms, max %.3f ms", histogram.getCount(),
+                histogram.getPercentile(50) / 1e6, histogram.getPercentile(99) / 1e6,
+                histogram.getPercentile(99.9) / 1e6, histogram.getMax() / 1e6);
+    }
+
+    /**
+     * Adds up counters by message type.
+     *
+     * @param counters the counters
+     * @return the sum of all types
+     */
+    private static long total(Map<String, LongAdder> counters) {
+        long total = 0;
+        for (LongAdder counter : counters.values())
+            total += counter.sum();
+        return total;
+    }
+
+    /**
+     * Renders the metrics in the Prometheus text exposition format.
+     *
+     * @return the metrics, one sample per line
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        header(out, "chatroom_connections_accepted_total", "counter", "Connections accepted.");
+        out.append("chatroom_connections_accepted_total ").append(accepted.sum()).append('\n');
+        header(out, "chatroom_messages_received_total", "counter", "Messages decoded from clients, by type.");
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(received).entrySet())
+            out.append("chatroom_messages_received_total{type=\"").append(entry.getKey()).append("\"} ").append(entry.getValue().sum()).append('\n');
+        header(out, "chatroom_messages_sent_total", "counter", "Messages queued for clients, counted once per recipient, by type.");
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(sent).entrySet())
+            out.append("chatroom_messages_sent_total{type=\"").append(entry.getKey()).append("\"} ").append(entry.getValue().sum()).append('\n');
+        header(out, "chatroom_bytes_written_total", "counter", "Bytes written to client sockets.");
+        out.append("chatroom_bytes_written_total ").append(bytesWritten.sum()).append('\n');
+        histogram(out, "chatroom_auth_duration_seconds", "Time from submitting a login or registration to its reply.", authLatency);
+        histogram(out, "chatroom_fanout_duration_seconds", "Time to queue a room broadcast for every member.", fanoutLatency);
+        for (Registered value : registered) {
+            header(out, value.name(), value.type(), value.help());
+            out.append(value.name()).append(' ').append(value.value().getAsLong()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the help and type lines of a metric.
+     *
+     * @param out  the output
+     * @param name the metric name
+     * @param type the metric type
+     * @param help the description of the metric
+     */
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Writes a latency histogram with cumulative buckets in seconds.
+     *
+     * @param out       the output
+     * @param name      the metric name
+     * @param help      the description of the metric
+     * @param histogram the histogram, in nanoseconds
+     */
+    private static void histogram(StringBuilder out, String name, String help, Histogram histogram) {
+        header(out, name, "histogram", help);
+        long[] counts = histogram.getCumulativeCounts(LATENCY_BOUNDS_NANOS);
+        for (int i = 0; i < LATENCY_BOUNDS_NANOS.length; i++)
+            out.append(name).append("_bucket{le=\"").append(seconds(LATENCY_BOUNDS_NANOS[i])).append("\"} ").append(counts[i]).append('\n');
+        out.append(name).append("_bucket{le=\"+Inf\"} ").append(counts[LATENCY_BOUNDS_NANOS.length]).append('\n');
+        out.append(name).append("_sum ").append(seconds(histogram.getSum())).append('\n');
+        out.append(name).append("_count ").append(counts[LATENCY_BOUNDS_NANOS.length]).append('\n');
+    }
+
+    /**
+     * Formats nanoseconds as seconds without an exponent.
+     *
+     * @param nanos the duration in nanoseconds
+     * @return the duration in seconds
+     */
+    private static String seconds(long nanos) {
+        return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,22 @@
+package com.chatroom.server;
+
+/**
+ * Enumerates the connection handling engines the server can run with.
+ */
+public enum ServerMode {
+
+    /**
+     * One blocking platform thread per connection.
+     */
+    BLOCKING,
+
+    /**
+     * One blocking virtual thread per connection.
+     */
+    VIRTUAL,
+
+    /**
+     * A small fixed number of selector-driven event loops shared by all connections.
+     */
+    NIO
+}
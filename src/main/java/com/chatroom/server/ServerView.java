@@ -5,6 +5,8 @@ import com.chatroom.common.Constants;
 import javax.swing.*;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.StyledDocument;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
@@ -37,7 +39,14 @@ public class ServerView extends JFrame {
         // Set icon image and configure frame
         setIconImage(new ImageIcon(Constants.ICON_FILE).getImage());
         setContentPane(serverPanel);
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        // Closing the window stops this server only, as other nodes may be running in the JVM.
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                new Thread(server::stop, "server-stop").start();
+            }
+        });
         pack();
         setLocationRelativeTo(null);
         setVisible(true);
@@ -54,16 +63,19 @@ public class ServerView extends JFrame {
 
     /**
      * Displays a log message in the message panel.
+     * The document is updated on the event dispatch thread, so callers never block on its lock.
      *
      * @param message the log message to display
      */
     public void display(String message) {
         String logMessage = String.format("[%s] %s\n", LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")), message);
-        StyledDocument doc = messagePanel.getStyledDocument();
-        try {
-            doc.insertString(doc.getLength(), logMessage, null);
-        } catch (BadLocationException e) {
-            throw new RuntimeException(e);
-        }
+        SwingUtilities.invokeLater(() -> {
+            StyledDocument doc = messagePanel.getStyledDocument();
+            try {
+                doc.insertString(doc.getLength(), logMessage, null);
+            } catch (BadLocationException e) {
+                throw new RuntimeException(e);
+            }
+        });
     }
 }
@@ -0,0 +1,31 @@
+package com.chatroom.server;
+
+/**
+ * The memory a client session holds on the server, as reported by the {@code memory} console command.
+ *
+ * @param outboundFrames  the frames waiting in the outbound queue
+ * @param outboundBytes   the bytes of those frames
+ * @param readBufferBytes the capacity of the buffer frames are read into
+ * @param resumeFrames    the frames buffered while the session is held for resume
+ * @param resumeBytes     the bytes of those frames
+ */
+public record SessionMemory(int outboundFrames, long outboundBytes, int readBufferBytes, int resumeFrames, long resumeBytes) {
+
+    /**
+     * Gets the number of buffers the session holds.
+     *
+     * @return the queued and buffered frames plus the read buffer
+     */
+    public int buffers() {
+        return outboundFrames + resumeFrames + (readBufferBytes > 0 ? 1 : 0);
+    }
+
+    /**
+     * Gets the number of bytes the session holds.
+     *
+     * @return the bytes of its frames and read buffer
+     */
+    public long bytes() {
+        return outboundBytes + readBufferBytes + resumeBytes;
+    }
+}
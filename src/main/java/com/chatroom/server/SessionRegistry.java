@@ -0,0 +1,136 @@
+package com.chatroom.server;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Indexes the server's client sessions by connection id and, once authenticated, by username.
+ * <p>
+ * Routing a private message or checking whether a user is online is a single hash lookup, claiming a
+ * username is atomic, and the list of online users is rebuilt only after a login or logout.
+ */
+public class SessionRegistry {
+
+    private final Map<Long, ClientSession> connections = new ConcurrentHashMap<>();
+    private final Map<String, ClientSession> users = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot onlineUsers;
+
+    /**
+     * Registers a newly accepted connection.
+     *
+     * @param session the session of the connection
+     */
+    public void add(ClientSession session) {
+        connections.put(session.getId(), session);
+    }
+
+    /**
+     * Unregisters a connection, releasing its username if it had claimed one.
+     *
+     * @param session the session of the connection
+     * @return true if the session had claimed a username, false otherwise
+     */
+    public boolean remove(ClientSession session) {
+        connections.remove(session.getId());
+        String username = session.getUsername();
+        if (username == null || !users.remove(username, session))
+            return false;
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Atomically claims a username for a session that has just authenticated.
+     *
+     * @param username the username to claim
+     * @param session  the claiming session
+     * @return true if the username was free, false if another session is logged in with it
+     */
+    public boolean claim(String username, ClientSession session) {
+        if (users.putIfAbsent(username, session) != null)
+            return false;
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Hands the username of a session whose connection dropped over to the session resuming it, and unregisters
+     * the connection of the former. The list of online users is unchanged.
+     *
+     * @param previous the session whose connection dropped
+     * @param next     the session resuming it, already registered as a connection
+     * @return true if the username was handed over, false if the previous session no longer held it
+     */
+    public boolean replace(ClientSession previous, ClientSession next) {
+        connections.remove(previous.getId());
+        return users.replace(previous.getUsername(), previous, next);
+    }
+
+    /**
+     * Finds the session logged in with a username.
+     *
+     * @param username the username to look up
+     * @return the session, or null if the user is not online
+     */
+    public ClientSession find(String username) {
+        return username == null ? null : users.get(username);
+    }
+
+    /**
+     * Checks whether a user is online.
+     *
+     * @param username the username to check
+     * @return true if a session is logged in with the username, false otherwise
+     */
+    public boolean isOnline(String username) {
+        return username != null && users.containsKey(username);
+    }
+
+    /**
+     * Gets the sessions that have claimed a username.
+     *
+     * @return a live view of the authenticated sessions
+     */
+    public Collection<ClientSession> getAuthenticated() {
+        return users.values();
+    }
+
+    /**
+     * Gets all connected sessions, authenticated or not.
+     *
+     * @return a live view of the connected sessions
+     */
+    public Collection<ClientSession> getConnections() {
+        return connections.values();
+    }
+
+    /**
+     * Gets an immutable snapshot of the online usernames, cached until the next login or logout.
+     *
+     * @return the online usernames
+     */
+    public List<String> getOnlineUsers() {
+        long current = version.get();
+        Snapshot snapshot = onlineUsers;
+        if (snapshot != null && snapshot.version() == current)
+            return snapshot.users();
+        List<String> copy = List.copyOf(users.keySet());
+        // A login or logout racing with the copy bumps the version, so the copy is only cached if none did.
+        if (version.get() == current)
+            onlineUsers = new Snapshot(current, copy);
+        return copy;
+    }
+
+    /**
+     * A list of online users tagged with the registry version it was taken at.
+     *
+     * @param version the registry version
+     * @param users   the online usernames
+     */
+    private record Snapshot(long version, List<String> users) {
+    }
+}
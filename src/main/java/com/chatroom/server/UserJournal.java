@@ -0,0 +1,211 @@
+package com.chatroom.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * A write-ahead journal of account changes, kept next to the user file until they are compacted into it.
+ * <p>
+ * Each record is the length and CRC32C of its payload followed by the payload, {@code username:password} in
+ * UTF-8, the password being stored as in the user file. A record is forced to the storage device before
+ * {@link #append} returns, so an acknowledged change survives a crash; a record torn by a crash fails its
+ * checksum and is cut off when the journal is next opened.
+ * <p>
+ * A journal has a single owner. It holds a lock on a file next to the journal for as long as it is open, and a
+ * second journal opened on the same file, in this JVM or in another process, is refused: both would append to
+ * it, and each compaction would drop the records the other had written since.
+ */
+final class UserJournal {
+
+    private static final int HEADER_LENGTH = 8;
+
+    private final Path file;
+    private final Map<String, String> changes = new LinkedHashMap<>();
+    private final FileChannel lockChannel;
+    private FileChannel channel;
+    private int records;
+    private long truncatedBytes;
+
+    /**
+     * Opens a journal, creating it if needed, and reads the changes it holds.
+     *
+     * @param file the journal file
+     * @throws IOException if the journal cannot be opened or read, or is open elsewhere
+     */
+    UserJournal(Path file) throws IOException {
+        this.file = file;
+        this.lockChannel = lock(file);
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            lockChannel.close();
+            throw e;
+        }
+        long end = replay();
+        if (end < channel.size()) {
+            truncatedBytes = channel.size() - end;
+            channel.truncate(end);
+            channel.force(true);
+        }
+        channel.position(end);
+    }
+
+    /**
+     * Takes the lock that makes a journal's owner the only one.
+     *
+     * @param file the journal file
+     * @return the channel holding the lock, which is released when the channel is closed
+     * @throws IOException if the lock file cannot be opened, or is locked by another journal
+     */
+    private static FileChannel lock(Path file) throws IOException {
+        Path lockFile = file.resolveSibling(file.getFileName() + ".lock");
+        FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("User journal " + file + " is in use by another server");
+        }
+        return lockChannel;
+    }
+
+    /**
+     * Reads the valid records from the start of the journal.
+     *
+     * @return the position just past the last valid record
+     * @throws IOException if the journal cannot be read
+     */
+    private long replay() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while (position + HEADER_LENGTH <= size) {
+            header.clear();
+            channel.read(header, position);
+            int length = header.getInt(0);
+            if (length <= 0 || position + HEADER_LENGTH + length > size)
+                break;
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            channel.read(payload, position + HEADER_LENGTH);
+            CRC32C crc = new CRC32C();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != header.getInt(4))
+                break;
+            String[] parts = new String(payload.array(), StandardCharsets.UTF_8).split(":", 2);
+            if (parts.length != 2)
+                break;
+            changes.put(parts[0], parts[1]);
+            records++;
+            position += HEADER_LENGTH + length;
+        }
+        return position;
+    }
+
+    /**
+     * Gets the changes read when the journal was opened, the last change of each user winning.
+     *
+     * @return the usernames and their stored passwords, in order of first change
+     */
+    Map<String, String> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Appends a change and forces it to the storage device.
+     *
+     * @param username the user
+     * @param password the stored password
+     * @throws IOException if the change cannot be written
+     */
+    synchronized void append(String username, String password) throws IOException {
+        byte[] payload = (username + ":" + password).getBytes(StandardCharsets.UTF_8);
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        while (record.hasRemaining())
+            channel.write(record);
+        channel.force(false);
+        records++;
+    }
+
+    /**
+     * Gets the position at which the next record will be written.
+     *
+     * @return the journal length in bytes
+     * @throws IOException if the position cannot be read
+     */
+    synchronized long position() throws IOException {
+        return channel.position();
+    }
+
+    /**
+     * Gets the number of records in the journal.
+     *
+     * @return the number of records
+     */
+    synchronized int getRecords() {
+        return records;
+    }
+
+    /**
+     * Gets the number of bytes cut off the end of the journal when it was opened.
+     *
+     * @return the number of truncated bytes
+     */
+    long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    /**
+     * Drops the records before a position, once the changes they hold are in the user file. The records after
+     * it are copied to a new journal that atomically replaces the old one.
+     *
+     * @param compacted        the journal position up to which changes are in the user file
+     * @param compactedRecords the number of records before that position
+     * @throws IOException if the journal cannot be rewritten; it is then left as it was
+     */
+    synchronized void compact(long compacted, int compactedRecords) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel target = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long end = channel.position();
+            for (long position = compacted; position < end; )
+                position += channel.transferTo(position, end - position, target);
+            target.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        records -= compactedRecords;
+    }
+
+    /**
+     * Closes the journal.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    synchronized void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            lockChannel.close();
+        }
+    }
+}
@@ -1,47 +1,242 @@
 package com.chatroom.server;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 /**
  * Manages user authentication and user-related operations in the chatroom application.
+ * <p>
+ * Each line of the user file is {@code username:password}, the password being either a salted hash written by
+ * {@link PasswordHasher} or, for files not yet converted, plain text. A file named with the
+ * {@link MappedUserDatabase#EXTENSION} extension is instead opened as a {@link MappedUserDatabase}, which takes
+ * the same time to open whatever its size. The accounts are held in an immutable {@link UserStore} behind a
+ * volatile field, so any number of threads can authenticate without locking, and a background thread swaps in a
+ * new store whenever the file is modified.
+ * <p>
+ * Verifying a hashed password is deliberately slow, so successful logins are remembered for a while as a fast
+ * keyed digest of the password: a user reconnecting with the same password within that time is checked against
+ * the digest instead. Remembered logins are forgotten when the user's entry in the file changes.
+ * <p>
+ * Accounts registered or changed while the server runs are written to a {@link UserJournal} next to the user file
+ * and held in memory in front of the file's accounts. The background thread compacts the journal into the user
+ * file once it holds enough records, so account writes never wait for the whole file to be rewritten and logins
+ * never wait for account writes.
+ * <p>
+ * A cluster has one user store. The journal is only held in the memory of the user manager that writes it, and
+ * it may only be opened by one: a second user manager on the same user file, in this JVM or another process, fails
+ * to open. The nodes of a cluster share one user manager instead, as {@link ClusterLauncher} does, so that an
+ * account registered on any node can log in on every node.
  */
 public class UserManager {
 
-    private final Map<String, String> users;
+    private static final Pattern USERNAME = Pattern.compile("[^\\s:@]{1,32}");
+
+    private final Path userFile;
+    private final long loginCacheNanos;
+    private final byte[] cacheKey = new byte[16];
+    private final ConcurrentHashMap<String, CachedLogin> verifiedLogins = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService reloader;
+    private volatile UserStore users = new TextUserStore(Map.of());
+    private volatile FileStamp loadedStamp;
+    private final UserJournal journal;
+    private final ConcurrentHashMap<String, String> changes = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private final int compactRecords;
 
     /**
-     * Creates a new instance of the user manager.
+     * Creates a new instance of the user manager that neither caches logins nor reloads or compacts the file.
      *
      * @param userFilePath the path to the user file containing account information
      */
     public UserManager(String userFilePath) {
-        users = new HashMap<>();
-        loadUsers(userFilePath);
+        this(userFilePath, 0, 0, 0);
     }
 
     /**
-     * Loads user data from the specified user file.
+     * Creates a new instance of the user manager.
      *
-     * @param userFilePath the path to the user file
+     * @param userFilePath      the path to the user file containing account information
+     * @param loginCacheSeconds how long a successful login is remembered, 0 to verify every login in full
+     * @param reloadSeconds     how often the file is checked for modifications and the journal for compaction,
+     *                          0 to do neither
+     * @param compactRecords    the number of journal records that triggers a compaction
      */
-    private void loadUsers(String userFilePath) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(userFilePath))) {
+    public UserManager(String userFilePath, long loginCacheSeconds, long reloadSeconds, int compactRecords) {
+        this.userFile = Path.of(userFilePath);
+        this.loginCacheNanos = TimeUnit.SECONDS.toNanos(loginCacheSeconds);
+        this.compactRecords = Math.max(1, compactRecords);
+        new SecureRandom().nextBytes(cacheKey);
+        reload();
+        try {
+            this.journal = new UserJournal(userFile.resolveSibling(userFile.getFileName() + ".journal"));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open user journal", e);
+        }
+        changes.putAll(journal.getChanges());
+        if (journal.getTruncatedBytes() > 0)
+            System.err.println("Truncated " + journal.getTruncatedBytes() + " torn bytes off the user journal");
+        if (reloadSeconds > 0) {
+            reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "user-reloader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reloader.scheduleWithFixedDelay(this::maintain, reloadSeconds, reloadSeconds, TimeUnit.SECONDS);
+        } else
+            reloader = null;
+    }
+
+    /**
+     * Checks whether a name may be registered as a username.
+     *
+     * @param username the name
+     * @return true if the name has 1 to 32 characters, none of them white space, ':' or '@'
+     */
+    public static boolean isValidUsername(String username) {
+        return username != null && USERNAME.matcher(username).matches();
+    }
+
+    /**
+     * Runs the periodic work of the background thread: reloading the user file and compacting the journal.
+     */
+    private void maintain() {
+        reload();
+        if (journal.getRecords() >= compactRecords)
+            compact();
+    }
+
+    /**
+     * Loads the user file if it was modified since it was last loaded. A file that cannot be read leaves the
+     * accounts as they were.
+     */
+    public void reload() {
+        try {
+            FileStamp stamp = FileStamp.of(userFile);
+            if (stamp.equals(loadedStamp))
+                return;
+            users = userFile.getFileName().toString().endsWith(MappedUserDatabase.EXTENSION)
+                    ? MappedUserDatabase.open(userFile) : new TextUserStore(readTextFile(userFile));
+            loadedStamp = stamp;
+        } catch (IOException e) {
+            System.err.println("Error loading user file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compacts the journal: writes the accounts of the user file merged with the journaled changes to a new user
+     * file, then drops the journal records it contains. Changes made meanwhile stay in the journal.
+     */
+    public void compact() {
+        long position;
+        int records;
+        Map<String, String> compacted;
+        synchronized (writeLock) {
+            try {
+                position = journal.position();
+            } catch (IOException e) {
+                System.err.println("Error compacting user journal: " + e.getMessage());
+                return;
+            }
+            records = journal.getRecords();
+            compacted = new HashMap<>(changes);
+        }
+        if (records == 0)
+            return;
+        UserStore base = users;
+        Map<String, String> merged = new HashMap<>(base.size() + compacted.size());
+        for (String username : base.getUsernames())
+            merged.put(username, base.getPassword(username));
+        merged.putAll(compacted);
+        try {
+            if (userFile.getFileName().toString().endsWith(MappedUserDatabase.EXTENSION)) {
+                MappedUserDatabase.write(userFile, merged);
+                users = MappedUserDatabase.open(userFile);
+            } else {
+                writeTextFile(userFile, merged);
+                users = new TextUserStore(Map.copyOf(merged));
+            }
+            loadedStamp = FileStamp.of(userFile);
+            journal.compact(position, records);
+        } catch (IOException e) {
+            System.err.println("Error compacting user journal: " + e.getMessage());
+            return;
+        }
+        for (Map.Entry<String, String> change : compacted.entrySet())
+            changes.remove(change.getKey(), change.getValue());
+    }
+
+    /**
+     * Writes a user file in the text format.
+     *
+     * @param userFile the path to the user file
+     * @param users    the usernames and their stored passwords
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeTextFile(Path userFile, Map<String, String> users) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, String> user : users.entrySet())
+            text.append(user.getKey()).append(':').append(user.getValue()).append('\n');
+        replaceFile(userFile, text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Replaces a file atomically with new content forced to the storage device, through a temporary file.
+     *
+     * @param file    the file to replace
+     * @param content the new content
+     * @throws IOException if the file cannot be written
+     */
+    static void replaceFile(Path file, byte[] content) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a user file in the text format.
+     *
+     * @param userFile the path to the user file
+     * @return an immutable map from usernames to stored passwords
+     * @throws IOException if the file cannot be read
+     */
+    static Map<String, String> readTextFile(Path userFile) throws IOException {
+        Map<String, String> loaded = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(userFile, StandardCharsets.UTF_8)) {
             String line;
             while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(":");
-                if (parts.length == 2) {
-                    users.put(parts[0].trim(), parts[1].trim());
-                }
+                String[] parts = line.split(":", 2);
+                if (parts.length == 2)
+                    loaded.put(parts[0].trim(), parts[1].trim());
             }
-        } catch (IOException e) {
-            System.err.println("Error loading user file: " + e.getMessage());
         }
+        return Map.copyOf(loaded);
     }
 
     /**
@@ -52,7 +247,110 @@ public class UserManager {
      * @return true if authentication is successful, false otherwise
      */
     public boolean authenticate(String username, String password) {
-        return users.containsKey(username) && users.get(username).equals(password);
+        String stored = getStoredPassword(username);
+        if (stored == null || password == null)
+            return false;
+        if (!PasswordHasher.isHashed(stored) || loginCacheNanos == 0)
+            return verify(stored, password);
+        byte[] digest = digest(password);
+        CachedLogin cached = verifiedLogins.get(username);
+        if (cached != null) {
+            if (!cached.stored().equals(stored) || System.nanoTime() - cached.verifiedAt() >= loginCacheNanos)
+                verifiedLogins.remove(username, cached);
+            else if (MessageDigest.isEqual(cached.digest(), digest))
+                return true;
+        }
+        if (!verify(stored, password))
+            return false;
+        verifiedLogins.put(username, new CachedLogin(stored, digest, System.nanoTime()));
+        return true;
+    }
+
+    /**
+     * Gets the stored password of a user, a journaled change taking precedence over the user file.
+     *
+     * @param username the username
+     * @return the stored password, or null if there is no such user
+     */
+    private String getStoredPassword(String username) {
+        String stored = changes.get(username);
+        return stored != null ? stored : users.getPassword(username);
+    }
+
+    /**
+     * Registers a new user. The password is hashed and the account journaled before this method returns.
+     *
+     * @param username the username, which must be valid
+     * @param password the password
+     * @return true if the user was registered, false if the username is taken
+     * @throws IOException if the account cannot be written to the journal
+     */
+    public boolean register(String username, String password) throws IOException {
+        String stored = PasswordHasher.hash(password, PasswordHasher.DEFAULT_ITERATIONS);
+        synchronized (writeLock) {
+            if (getStoredPassword(username) != null)
+                return false;
+            journal.append(username, stored);
+            changes.put(username, stored);
+        }
+        return true;
+    }
+
+    /**
+     * Changes the password of a user. The new password is hashed and journaled before this method returns.
+     *
+     * @param username    the username
+     * @param oldPassword the current password
+     * @param newPassword the new password
+     * @return true if the password was changed, false if the current password is wrong
+     * @throws IOException if the change cannot be written to the journal
+     */
+    public boolean changePassword(String username, String oldPassword, String newPassword) throws IOException {
+        String previous = getStoredPassword(username);
+        if (previous == null || !verify(previous, oldPassword))
+            return false;
+        String stored = PasswordHasher.hash(newPassword, PasswordHasher.DEFAULT_ITERATIONS);
+        synchronized (writeLock) {
+            // Another change since the check would have required the password this one was verified against.
+            if (!previous.equals(getStoredPassword(username)))
+                return false;
+            journal.append(username, stored);
+            changes.put(username, stored);
+        }
+        return true;
+    }
+
+    /**
+     * Verifies a password against a stored one, treating a malformed hash as a mismatch.
+     *
+     * @param stored   the stored hash or plain-text password
+     * @param password the password to verify
+     * @return true if the password matches, false otherwise
+     */
+    private static boolean verify(String stored, String password) {
+        try {
+            return PasswordHasher.verify(stored, password);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Malformed password hash in user file");
+            return false;
+        }
+    }
+
+    /**
+     * Computes the digest a remembered login is checked against: SHA-256 of the password keyed with a secret
+     * chosen at startup, so the digests are of no use outside this process.
+     *
+     * @param password the password
+     * @return the digest
+     */
+    private byte[] digest(String password) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(cacheKey);
+            return sha256.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
     }
 
     /**
@@ -61,7 +359,11 @@ public class UserManager {
      * @return a list of usernames
      */
     public List<String> getAllUsers() {
-        return new ArrayList<>(users.keySet());
+        List<String> usernames = users.getUsernames();
+        for (String username : changes.keySet())
+            if (users.getPassword(username) == null)
+                usernames.add(username);
+        return usernames;
     }
 
     /**
@@ -71,6 +373,92 @@ public class UserManager {
      * @return true if the user exists, false otherwise
      */
     public boolean isUserExist(String username) {
-        return users.containsKey(username);
+        return getStoredPassword(username) != null;
+    }
+
+    /**
+     * Describes the state of the user manager.
+     *
+     * @return the number of accounts in the user file, of journaled changes and of remembered logins
+     */
+    public String describe() {
+        return "users=" + users.size() + " journaled=" + changes.size() + " journalRecords=" + journal.getRecords()
+                + " cachedLogins=" + verifiedLogins.size();
+    }
+
+    /**
+     * Stops checking the user file for modifications and closes the journal.
+     */
+    public void close() {
+        if (reloader != null)
+            reloader.shutdownNow();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("Error closing user journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Accounts read from a text user file, held in a map.
+     *
+     * @param users the usernames and their stored passwords
+     */
+    private record TextUserStore(Map<String, String> users) implements UserStore {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getPassword(String username) {
+            return users.get(username);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<String> getUsernames() {
+            return new ArrayList<>(users.keySet());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int size() {
+            return users.size();
+        }
+    }
+
+    /**
+     * A successful login remembered for a while.
+     *
+     * @param stored     the stored password the login was verified against
+     * @param digest     the keyed digest of the password
+     * @param verifiedAt the {@link System#nanoTime()} of the verification
+     */
+    private record CachedLogin(String stored, byte[] digest, long verifiedAt) {
+    }
+
+    /**
+     * The modification time and size of a file, which together tell whether it changed.
+     *
+     * @param modified the last modification time in milliseconds
+     * @param size     the size in bytes
+     */
+    private record FileStamp(long modified, long size) {
+
+        /**
+         * Reads the stamp of a file.
+         *
+         * @param file the file
+         * @return its stamp
+         * @throws IOException if the file attributes cannot be read
+         */
+        static FileStamp of(Path file) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new FileStamp(attributes.lastModifiedTime().toMillis(), attributes.size());
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,33 @@
+package com.chatroom.server;
+
+import java.util.List;
+
+/**
+ * A read-only view of the user accounts: usernames and their stored passwords.
+ * <p>
+ * Implementations must allow any number of threads to read at once.
+ */
+public interface UserStore {
+
+    /**
+     * Gets the stored password of a user, a hash written by {@link PasswordHasher} or plain text.
+     *
+     * @param username the username
+     * @return the stored password, or null if there is no such user
+     */
+    String getPassword(String username);
+
+    /**
+     * Gets all usernames.
+     *
+     * @return a new list of usernames
+     */
+    List<String> getUsernames();
+
+    /**
+     * Gets the number of users.
+     *
+     * @return the number of users
+     */
+    int size();
+}
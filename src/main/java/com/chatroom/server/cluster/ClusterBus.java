@@ -0,0 +1,83 @@
+package com.chatroom.server.cluster;
+
+import com.chatroom.common.message.Message;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Connects the server nodes that share one logical chatroom.
+ * <p>
+ * A bus relays the messages a node publishes to every other node, and holds the cluster-wide directory of
+ * online users, in which each username is claimed by at most one node. Implementations decide how nodes
+ * talk to each other, e.g. in process or through an external broker.
+ * <p>
+ * Accounts are not relayed: the nodes of a cluster share one user store, owned by the process running them.
+ */
+public interface ClusterBus {
+
+    /**
+     * Connects a node to the bus.
+     *
+     * @param nodeId  the identifier of the node, unique in the cluster
+     * @param handler called with every message published by another node, one at a time and in publishing order
+     */
+    void connect(String nodeId, Consumer<Message> handler);
+
+    /**
+     * Disconnects a node from the bus, releasing the usernames it had claimed.
+     *
+     * @param nodeId the identifier of the node
+     */
+    void disconnect(String nodeId);
+
+    /**
+     * Relays a message to every node but the publishing one.
+     * Room broadcasts carry their room, and private messages their receiver, so each node can route them locally.
+     *
+     * @param origin  the identifier of the publishing node
+     * @param message the message to relay
+     * @throws IOException if the message cannot be encoded or sent
+     */
+    void publish(String origin, Message message) throws IOException;
+
+    /**
+     * Gets the number of relayed messages dropped because a node could not keep up with them.
+     *
+     * @return the number of dropped messages
+     */
+    long getDroppedCount();
+
+    /**
+     * Atomically claims a username for a node.
+     *
+     * @param username the username to claim
+     * @param nodeId   the identifier of the claiming node
+     * @return true if the username was free, false if it is logged in anywhere in the cluster
+     */
+    boolean claimUser(String username, String nodeId);
+
+    /**
+     * Releases a username claimed by a node.
+     *
+     * @param username the username to release
+     * @param nodeId   the identifier of the node that claimed it
+     */
+    void releaseUser(String username, String nodeId);
+
+    /**
+     * Checks whether a user is online anywhere in the cluster.
+     *
+     * @param username the username to check
+     * @return true if a node has claimed the username, false otherwise
+     */
+    boolean isOnline(String username);
+
+    /**
+     * Gets the users online anywhere in the cluster.
+     *
+     * @return an immutable list of usernames
+     */
+    List<String> getOnlineUsers();
+}
@@ -0,0 +1,166 @@
+package com.chatroom.server.cluster;
+
+import com.chatroom.common.message.Message;
+import com.chatroom.common.protocol.CodecType;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A {@link ClusterBus} connecting server nodes running in the same JVM, for running a cluster on one machine
+ * without an external broker.
+ * <p>
+ * Published messages are encoded with {@link CodecType#BINARY} once and decoded by each receiving node, as
+ * they would be on a network, and handed to the node on its own delivery thread, which keeps them in order.
+ * At most {@value #DELIVERY_QUEUE} messages wait for a node's delivery thread; further messages for a node that
+ * fell that far behind are dropped and counted, rather than held on the heap of every node.
+ */
+public class LoopbackBus implements ClusterBus {
+
+    private static final int DELIVERY_QUEUE = 65536;
+    private static final LoopbackBus SHARED = new LoopbackBus();
+
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+    private final Map<String, String> users = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private volatile Snapshot onlineUsers;
+
+    /**
+     * Gets the bus shared by every node of the JVM that is configured for a loopback cluster.
+     *
+     * @return the shared bus
+     */
+    public static LoopbackBus shared() {
+        return SHARED;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void connect(String nodeId, Consumer<Message> handler) {
+        ExecutorService delivery = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(DELIVERY_QUEUE), runnable -> {
+            Thread thread = new Thread(runnable, "cluster-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        }, (task, executor) -> dropped.increment());
+        Node previous = nodes.put(nodeId, new Node(handler, delivery));
+        if (previous != null)
+            previous.delivery().shutdown();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void disconnect(String nodeId) {
+        Node node = nodes.remove(nodeId);
+        if (node != null)
+            node.delivery().shutdown();
+        if (users.values().removeIf(nodeId::equals))
+            version.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void publish(String origin, Message message) throws IOException {
+        if (nodes.size() <= 1 && nodes.containsKey(origin))
+            return;
+        byte[] payload = CodecType.BINARY.getCodec().encode(message);
+        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+            if (entry.getKey().equals(origin))
+                continue;
+            Node node = entry.getValue();
+            node.delivery().execute(() -> {
+                try {
+                    node.handler().accept(CodecType.BINARY.getCodec().decode(payload, 0, payload.length));
+                } catch (IOException e) {
+                    System.err.println("Error decoding cluster message: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean claimUser(String username, String nodeId) {
+        if (users.putIfAbsent(username, nodeId) != null)
+            return false;
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void releaseUser(String username, String nodeId) {
+        if (users.remove(username, nodeId))
+            version.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOnline(String username) {
+        return username != null && users.containsKey(username);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The list is cached until the next claim or release.
+     */
+    @Override
+    public List<String> getOnlineUsers() {
+        long current = version.get();
+        Snapshot snapshot = onlineUsers;
+        if (snapshot != null && snapshot.version() == current)
+            return snapshot.users();
+        List<String> copy = List.copyOf(users.keySet());
+        if (version.get() == current)
+            onlineUsers = new Snapshot(current, copy);
+        return copy;
+    }
+
+    /**
+     * A connected node.
+     *
+     * @param handler  the node's handler for relayed messages
+     * @param delivery the single thread delivering messages to the handler
+     */
+    private record Node(Consumer<Message> handler, ExecutorService delivery) {
+    }
+
+    /**
+     * A list of online users tagged with the directory version it was taken at.
+     *
+     * @param version the directory version
+     * @param users   the online usernames
+     */
+    private record Snapshot(long version, List<String> users) {
+    }
+}
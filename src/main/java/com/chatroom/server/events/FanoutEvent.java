@@ -0,0 +1,51 @@
+package com.chatroom.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event spanning the broadcast of a message to the members of a room on this node: encoding
+ * it once per codec in use and queuing it for every member.
+ */
+@Name("com.chatroom.Fanout")
+@Label("Fan-out")
+@Category({"Chatroom", "Messages"})
+@Description("Broadcast of a message to the members of a room")
+@StackTrace(false)
+public final class FanoutEvent extends jdk.jfr.Event {
+
+    /**
+     * The room broadcast to.
+     */
+    @Label("Room")
+    public String room;
+
+    /**
+     * The simple class name of the message.
+     */
+    @Label("Message Type")
+    public String messageType;
+
+    /**
+     * The number of members the message was queued for.
+     */
+    @Label("Recipients")
+    public int recipients;
+
+    /**
+     * The number of frames encoded, one per codec in use in the room.
+     */
+    @Label("Encodes")
+    public int encodes;
+
+    /**
+     * The total length of the encoded frames.
+     */
+    @Label("Size")
+    @DataAmount
+    public int size;
+}
@@ -0,0 +1,49 @@
+package com.chatroom.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event spanning the handling of one frame read from a client: decoding it and
+ * dispatching the message it holds, the {@link MessageDecodedEvent} and {@link MessageDispatchedEvent} of the
+ * frame falling within it.
+ * <p>
+ * The chatroom events cost next to nothing unless a recording is running, e.g. one started with
+ * {@code java -XX:StartFlightRecording:filename=chatroom.jfr ...} or {@code jcmd <pid> JFR.start}. They can then
+ * be read alongside the garbage collection, lock and I/O events of the same recording, and selected with
+ * {@code jfr print --categories Chatroom chatroom.jfr}.
+ * <p>
+ * Each event is allocated and begun around the work it measures whether or not a recording is running; only
+ * filling in its fields and committing it wait on {@code shouldCommit()}. Outside a recording the allocation is
+ * short-lived enough for escape analysis to remove, and {@code begin()} and {@code shouldCommit()} return at once.
+ */
+@Name("com.chatroom.FrameReceived")
+@Label("Frame Received")
+@Category({"Chatroom", "Messages"})
+@Description("Handling of a frame read from a client")
+@StackTrace(false)
+public final class FrameReceivedEvent extends jdk.jfr.Event {
+
+    /**
+     * The identifier of the connection the frame was read from.
+     */
+    @Label("Connection")
+    public long connectionId;
+
+    /**
+     * The simple class name of the message in the frame, or {@code Handshake} for the codec handshake.
+     */
+    @Label("Message Type")
+    public String messageType;
+
+    /**
+     * The length of the frame payload.
+     */
+    @Label("Size")
+    @DataAmount
+    public int size;
+}
@@ -0,0 +1,39 @@
+package com.chatroom.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event spanning a write of queued frames to the socket of one client. The writer only sees
+ * encoded frames, so the event carries their size but not the type of the messages they hold.
+ */
+@Name("com.chatroom.FrameWritten")
+@Label("Frame Written")
+@Category({"Chatroom", "Messages"})
+@Description("Write of an outbound frame to a client's socket")
+@StackTrace(false)
+public final class FrameWrittenEvent extends jdk.jfr.Event {
+
+    /**
+     * The identifier of the connection written to.
+     */
+    @Label("Connection")
+    public long connectionId;
+
+    /**
+     * The user of the connection, if logged in.
+     */
+    @Label("Username")
+    public String username;
+
+    /**
+     * The number of bytes written.
+     */
+    @Label("Size")
+    @DataAmount
+    public int size;
+}
@@ -0,0 +1,44 @@
+package com.chatroom.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event spanning the decoding of a message from the payload of a frame read from a client.
+ */
+@Name("com.chatroom.MessageDecoded")
+@Label("Message Decoded")
+@Category({"Chatroom", "Messages"})
+@Description("Decoding of a message read from a client")
+@StackTrace(false)
+public final class MessageDecodedEvent extends jdk.jfr.Event {
+
+    /**
+     * The identifier of the connection the message was read from.
+     */
+    @Label("Connection")
+    public long connectionId;
+
+    /**
+     * The codec agreed on with the client.
+     */
+    @Label("Codec")
+    public String codec;
+
+    /**
+     * The simple class name of the decoded message.
+     */
+    @Label("Message Type")
+    public String messageType;
+
+    /**
+     * The length of the encoded message.
+     */
+    @Label("Size")
+    @DataAmount
+    public int size;
+}
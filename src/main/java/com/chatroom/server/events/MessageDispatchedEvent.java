@@ -0,0 +1,45 @@
+package com.chatroom.server.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event spanning the handling of a message from a logged-in client, e.g. posting a
+ * broadcast to the room, within which the {@link FanoutEvent} of the broadcast falls.
+ */
+@Name("com.chatroom.MessageDispatched")
+@Label("Message Dispatched")
+@Category({"Chatroom", "Messages"})
+@Description("Handling of a message from a logged-in client")
+@StackTrace(false)
+public final class MessageDispatchedEvent extends jdk.jfr.Event {
+
+    /**
+     * The identifier of the connection the message was read from.
+     */
+    @Label("Connection")
+    public long connectionId;
+
+    /**
+     * The user who sent the message.
+     */
+    @Label("Username")
+    public String username;
+
+    /**
+     * The simple class name of the message.
+     */
+    @Label("Message Type")
+    public String messageType;
+
+    /**
+     * The length of the encoded message.
+     */
+    @Label("Size")
+    @DataAmount
+    public int size;
+}
@@ -0,0 +1,456 @@
+package com.chatroom.server.history;
+
+import com.chatroom.common.message.Message;
+import com.chatroom.common.message.TextMessageContent;
+import com.chatroom.common.protocol.BinaryCodec;
+import com.chatroom.common.protocol.CodecType;
+import com.chatroom.util.MpscRingBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
+
+/**
+ * Persists the messages relayed by the server in an append-only log split into {@link Segment} files.
+ * <p>
+ * Appending only encodes the message and puts it on a lock-free ring buffer, so the threads relaying chat
+ * never wait for the disk. A single committer thread assigns consecutive ids, writes everything that queued
+ * up while the previous batch was being written in one write, and forces it to the storage device once per
+ * batch (group commit). A segment is sealed and a new one started once it reaches the configured size.
+ * <p>
+ * When the store is opened, the last segment is scanned and records torn by a crash are truncated.
+ * <p>
+ * Messages are read back in pages starting at an id, ending before an id, or starting at a point in time;
+ * each page costs a lookup in a segment's sparse index followed by a sequential read. The words of the
+ * messages are kept in a {@link SearchIndex}, updated by the committer after each batch; the messages it had not
+ * yet written to disk are indexed again when the store is opened.
+ */
+public class MessageStore {
+
+    private static final int BATCH_BUFFER_BYTES = 256 * 1024;
+    private static final long MAX_BACKWARD_SCAN = 100_000;
+    private static final int MAX_SEARCH_CANDIDATES = 10_000;
+    private static final int SEARCH_BATCH = 64;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final boolean sync;
+    private final MpscRingBuffer<byte[]> buffer;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final LongAdder dropped = new LongAdder();
+    private final CRC32C crc = new CRC32C();
+    private final SearchIndex searchIndex;
+    private final List<byte[]> batchPayloads = new ArrayList<>();
+    private final long truncatedBytes;
+    private final Thread committerThread;
+    private volatile boolean committerParked;
+    private volatile boolean closed;
+    private volatile long batches;
+    private ByteBuffer batchBuffer = ByteBuffer.allocateDirect(BATCH_BUFFER_BYTES);
+    private long nextId;
+
+    /**
+     * Opens the store in a directory, recovering the segments found there, and starts its committer thread.
+     *
+     * @param directory    the directory holding the segment files, created if needed
+     * @param segmentBytes the size at which a segment is sealed and a new one started
+     * @param capacity     the number of messages that may wait for the committer before appends are dropped
+     * @param sync         true to force every batch to the storage device, false to leave flushing to the OS
+     * @throws IOException if the directory or a segment cannot be opened
+     */
+    public MessageStore(Path directory, long segmentBytes, int capacity, boolean sync) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.sync = sync;
+        this.buffer = new MpscRingBuffer<>(capacity);
+        Files.createDirectories(directory);
+        List<Long> baseIds = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.log")) {
+            for (Path file : stream) {
+                long baseId = Segment.baseIdOf(file);
+                if (baseId > 0)
+                    baseIds.add(baseId);
+            }
+        }
+        baseIds.sort(null);
+        long truncated = 0;
+        long maxTimestamp = Long.MIN_VALUE;
+        for (int i = 0; i < baseIds.size(); i++) {
+            Segment segment = Segment.open(directory, baseIds.get(i), maxTimestamp, i == baseIds.size() - 1);
+            truncated += segment.getTruncatedBytes();
+            maxTimestamp = segment.getMaxTimestamp();
+            segments.add(segment);
+        }
+        if (segments.isEmpty())
+            segments.add(Segment.create(directory, 1, Long.MIN_VALUE));
+        this.truncatedBytes = truncated;
+        this.nextId = segments.getLast().getLastId() + 1;
+        this.searchIndex = new SearchIndex(directory, nextId - 1);
+        for (long id = searchIndex.getNextId(); id < nextId; ) {
+            List<StoredMessage> page = read(id, 4096);
+            if (page.isEmpty())
+                break;
+            for (StoredMessage stored : page)
+                searchIndex.add(stored.id(), textOf(stored.message()));
+            searchIndex.flushIfFull();
+            id = page.getLast().id() + 1;
+        }
+        this.committerThread = new Thread(this::commitLoop, "history-committer");
+        this.committerThread.setDaemon(true);
+        this.committerThread.start();
+    }
+
+    /**
+     * Queues a message for persistence. Never blocks; the message is dropped if the buffer is full.
+     *
+     * @param message the message to persist
+     * @return true if the message was queued, false if it was dropped
+     */
+    public boolean append(Message message) {
+        byte[] payload;
+        try {
+            payload = CodecType.BINARY.getCodec().encode(message);
+        } catch (IOException e) {
+            dropped.increment();
+            return false;
+        }
+        if (closed || !buffer.offer(payload)) {
+            dropped.increment();
+            return false;
+        }
+        if (committerParked)
+            LockSupport.unpark(committerThread);
+        return true;
+    }
+
+    /**
+     * Reads committed messages in id order.
+     *
+     * @param fromId the id of the first message to read
+     * @param limit  the maximum number of messages to read
+     * @return the messages, possibly fewer than the limit
+     * @throws IOException if a segment cannot be read or holds an invalid message
+     */
+    public List<StoredMessage> read(long fromId, int limit) throws IOException {
+        return read(fromId, Long.MAX_VALUE, limit, message -> true);
+    }
+
+    /**
+     * Reads the committed messages accepted by a filter, in id order.
+     *
+     * @param fromId the id of the first message to read
+     * @param toId   the id following the last message to read
+     * @param limit  the maximum number of messages to read
+     * @param filter the messages to include
+     * @return the messages, possibly fewer than the limit
+     * @throws IOException if a segment cannot be read or holds an invalid message
+     */
+    public List<StoredMessage> read(long fromId, long toId, int limit, Predicate<Message> filter) throws IOException {
+        List<StoredMessage> result = new ArrayList<>(Math.min(limit, 256));
+        Segment[] snapshot = segments.toArray(new Segment[0]);
+        int first = 0;
+        for (int i = 1; i < snapshot.length && snapshot[i].getBaseId() <= fromId; i++)
+            first = i;
+        for (int i = first; i < snapshot.length && result.size() < limit && snapshot[i].getBaseId() < toId; i++)
+            snapshot[i].read(fromId, toId, limit, filter, result);
+        return result;
+    }
+
+    /**
+     * Reads committed messages accepted by a filter by id, looking up only the records asked for.
+     *
+     * @param ids    the ids, in increasing order
+     * @param from   the index of the first id to read
+     * @param to     the index following the last id to read
+     * @param filter the messages to include
+     * @return the messages found, in id order
+     * @throws IOException if a segment cannot be read or holds an invalid message
+     */
+    public List<StoredMessage> readIds(long[] ids, int from, int to, Predicate<Message> filter) throws IOException {
+        List<StoredMessage> result = new ArrayList<>(to - from);
+        Segment[] snapshot = segments.toArray(new Segment[0]);
+        int start = from;
+        for (int i = 0; i < snapshot.length && start < to; i++) {
+            long nextBase = i + 1 < snapshot.length ? snapshot[i + 1].getBaseId() : Long.MAX_VALUE;
+            int end = start;
+            while (end < to && ids[end] < nextBase)
+                end++;
+            if (end > start)
+                snapshot[i].readIds(ids, start, end, filter, result);
+            start = end;
+        }
+        return result;
+    }
+
+    /**
+     * Reads the last committed messages accepted by a filter that precede an id, for scrolling back.
+     * Windows of growing size are read backwards until the page is full, giving up after
+     * {@value #MAX_BACKWARD_SCAN} messages.
+     *
+     * @param beforeId the id following the last message to read
+     * @param limit    the maximum number of messages to read
+     * @param filter   the messages to include
+     * @return the messages in id order, possibly fewer than the limit
+     * @throws IOException if a segment cannot be read or holds an invalid message
+     */
+    public List<StoredMessage> readBefore(long beforeId, int limit, Predicate<Message> filter) throws IOException {
+        List<StoredMessage> page = new ArrayList<>();
+        long end = Math.min(beforeId, getLastId() + 1);
+        long scanEnd = end;
+        long window = limit;
+        while (end > 1 && page.size() < limit && scanEnd - end < MAX_BACKWARD_SCAN) {
+            long start = Math.max(1, end - window);
+            List<StoredMessage> chunk = read(start, end, Integer.MAX_VALUE, filter);
+            chunk.addAll(page);
+            page = chunk;
+            end = start;
+            window *= 2;
+        }
+        return page.size() > limit ? page.subList(page.size() - limit, page.size()) : page;
+    }
+
+    /**
+     * Reads the committed messages accepted by a filter from the first one created at or after a point in time.
+     *
+     * @param timestamp the time in epoch milliseconds
+     * @param limit     the maximum number of messages to read
+     * @param filter    the messages to include
+     * @return the messages in id order, possibly fewer than the limit
+     * @throws IOException if a segment cannot be read or holds an invalid message
+     */
+    public List<StoredMessage> readSince(long timestamp, int limit, Predicate<Message> filter) throws IOException {
+        for (Segment segment : segments) {
+            long id = segment.findFirstSince(timestamp);
+            if (id > 0)
+                return read(id, Long.MAX_VALUE, limit, filter);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Searches the messages accepted by a filter for all words of a query, newest first.
+     * Candidates from the index are read back and kept only if each word of the query appears in their text,
+     * which also checks that the characters of a query word written in ideographs are adjacent.
+     * <p>
+     * Candidates are looked up newest first in batches of {@value #SEARCH_BATCH}, and only their records are read
+     * and decoded, so a search stops as soon as the page is full however dense the matches are around it. The
+     * search gives up after examining
+     * {@value #MAX_SEARCH_CANDIDATES} candidates, since candidates rejected by the filter or the text check do
+     * not count towards the limit.
+     *
+     * @param query  the words to look for
+     * @param limit  the maximum number of messages to return
+     * @param filter the messages to include
+     * @return the matching messages, newest first
+     * @throws IOException if a segment cannot be read or holds an invalid message
+     */
+    public List<StoredMessage> search(String query, int limit, Predicate<Message> filter) throws IOException {
+        long[] candidates = searchIndex.search(query);
+        List<String> words = new ArrayList<>();
+        for (String word : query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+            if (!word.isEmpty())
+                words.add(word);
+        List<StoredMessage> result = new ArrayList<>();
+        int stop = Math.max(0, candidates.length - MAX_SEARCH_CANDIDATES);
+        int end = candidates.length;
+        while (end > stop && result.size() < limit) {
+            int start = Math.max(stop, end - Math.max(SEARCH_BATCH, limit - result.size()));
+            List<StoredMessage> batch = readIds(candidates, start, end, filter);
+            for (int i = batch.size() - 1; i >= 0 && result.size() < limit; i--) {
+                StoredMessage stored = batch.get(i);
+                String text = textOf(stored.message());
+                String lower = text == null ? "" : text.toLowerCase(Locale.ROOT);
+                if (words.stream().allMatch(lower::contains))
+                    result.add(stored);
+            }
+            end = start;
+        }
+        return result;
+    }
+
+    /**
+     * Gets the full-text index of the stored messages.
+     *
+     * @return the search index
+     */
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Gets the id of the last committed message.
+     *
+     * @return the last id, or 0 if the store is empty
+     */
+    public long getLastId() {
+        return segments.getLast().getLastId();
+    }
+
+    /**
+     * Gets the number of messages dropped because the buffer was full, the store was closed or a write failed.
+     *
+     * @return the number of dropped messages
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Gets the number of bytes of torn or corrupt records truncated when the store was opened.
+     *
+     * @return the number of truncated bytes
+     */
+    public long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    /**
+     * Summarizes the state of the store.
+     *
+     * @return a human-readable summary of messages, segments, batches and drops
+     */
+    public String describe() {
+        long bytes = 0;
+        for (Segment segment : segments)
+            bytes += segment.getSize();
+        return String.format("Message store: %d messages in %d segments (%d bytes), %d batches committed, %d dropped, %d bytes truncated on recovery, %d words indexed in memory and %d index files",
+                getLastId(), segments.size(), bytes, batches, dropped.sum(), truncatedBytes, searchIndex.getTermCount(),
+                searchIndex.getRunCount());
+    }
+
+    /**
+     * Stops accepting messages, commits the ones already queued and closes the segment files.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(committerThread);
+        try {
+            committerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Committer loop writing queued messages in batches until the store is closed.
+     */
+    private void commitLoop() {
+        byte[] payload = null;
+        while (!closed || payload != null || !buffer.isEmpty()) {
+            if (payload == null)
+                payload = buffer.poll();
+            if (payload == null) {
+                committerParked = true;
+                if (buffer.isEmpty() && !closed)
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                committerParked = false;
+                continue;
+            }
+            try {
+                payload = commitBatch(payload);
+            } catch (IOException e) {
+                System.err.println("Error writing message history: " + e.getMessage());
+                payload = null;
+            }
+        }
+        for (Segment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                System.err.println("Error closing message history: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes a message and every message queued behind it that fits into one batch, then commits the batch.
+     *
+     * @param first the payload of the first message
+     * @return the payload of a polled message that did not fit into the batch, or null
+     * @throws IOException if the batch cannot be written; its messages are counted as dropped
+     */
+    private byte[] commitBatch(byte[] first) throws IOException {
+        Segment segment = segments.getLast();
+        ByteBuffer batch = batchBuffer.clear();
+        long id = nextId;
+        byte[] payload = first;
+        byte[] leftover = null;
+        batchPayloads.clear();
+        while (payload != null) {
+            int recordLength = Segment.HEADER_LENGTH + payload.length;
+            if (batch.remaining() < recordLength) {
+                if (batch.position() > 0) {
+                    leftover = payload;
+                    break;
+                }
+                batch = ByteBuffer.allocateDirect(recordLength);
+            }
+            segment.indexRecord(id, segment.getSize() + batch.position(), BinaryCodec.readTimestamp(payload, 0, payload.length));
+            putRecord(batch, id++, payload);
+            batchPayloads.add(payload);
+            if (segment.getSize() + batch.position() >= segmentBytes)
+                break;
+            payload = buffer.poll();
+        }
+        try {
+            segment.append(batch.flip(), id - 1, sync);
+        } catch (IOException e) {
+            dropped.add(id - nextId + (leftover == null ? 0 : 1));
+            throw e;
+        }
+        long firstId = nextId;
+        nextId = id;
+        batches++;
+        for (int i = 0; i < batchPayloads.size(); i++) {
+            byte[] committed = batchPayloads.get(i);
+            searchIndex.add(firstId + i, textOf(CodecType.BINARY.getCodec().decode(committed, 0, committed.length)));
+        }
+        try {
+            searchIndex.flushIfFull();
+        } catch (IOException e) {
+            System.err.println("Error writing search index: " + e.getMessage());
+        }
+        if (segment.getSize() >= segmentBytes) {
+            segment.seal();
+            segments.add(Segment.create(directory, nextId, segment.getMaxTimestamp()));
+        }
+        return leftover;
+    }
+
+    /**
+     * Gets the text of a message.
+     *
+     * @param message the message
+     * @return the text, or null if the message has no text content
+     */
+    private static String textOf(Message message) {
+        return message.getContent() instanceof TextMessageContent content ? content.getText() : null;
+    }
+
+    /**
+     * Encodes a record into a batch.
+     *
+     * @param batch   the batch to write to
+     * @param id      the id of the message
+     * @param payload the encoded message
+     */
+    private void putRecord(ByteBuffer batch, long id, byte[] payload) {
+        int start = batch.position();
+        batch.putInt(payload.length).putInt(0).putLong(id).put(payload);
+        crc.reset();
+        crc.update(batch.slice(start + 8, 8 + payload.length));
+        batch.putInt(start + 4, (int) crc.getValue());
+    }
+}
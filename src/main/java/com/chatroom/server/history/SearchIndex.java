@@ -0,0 +1,829 @@
+package com.chatroom.server.history;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * An inverted index from the words of stored messages to the ids of the messages containing them.
+ * <p>
+ * Words are runs of letters and digits, compared case-insensitively; ideographs, which are not separated by
+ * spaces, are indexed one character at a time. Each word's postings are kept as the differences between
+ * consecutive ids in a growable {@code int} array, about four bytes per occurrence.
+ * <p>
+ * Only the words of the latest messages are kept on the heap. Once they reach {@value #MAX_MEMORY_TERMS} words or
+ * {@value #MAX_MEMORY_POSTINGS} occurrences, they are streamed to a run file named after the ids it covers, with
+ * the words sorted so that a word is found by a binary search, and the file is memory-mapped from then on. The
+ * newest run is merged with the one before it while that one is no more than twice its size, so a history of
+ * {@code n} runs' worth of words is searched in about {@code log n} files, each written {@code log n} times. The
+ * heap taken by the index is therefore bounded however many messages or distinct words the history holds, and only
+ * the messages after the last run have to be indexed again on startup.
+ * <p>
+ * The index is maintained by a single thread, in increasing id order, while any thread may query it.
+ */
+public class SearchIndex {
+
+    private static final int MAX_MEMORY_TERMS = 4 * 1024;
+    private static final int MAX_MEMORY_POSTINGS = 256 * 1024;
+    private static final long MAX_MERGED_RUN_BYTES = 64L * 1024 * 1024;
+    private static final int RUN_HEADER_LENGTH = 20;
+    private static final int RUN_ENTRY_LENGTH = 16;
+
+    private final Path directory;
+    private volatile State state;
+    private long memoryPostings;
+    private long lastId;
+
+    /**
+     * Opens the index kept in a directory, mapping the run files that cover committed messages. A run file left
+     * behind by a merge is deleted, as the merged file covers its messages. A run file that is corrupt, does not
+     * follow the previous one or covers messages past the last committed one is deleted, together with every run
+     * after it, so that its messages are indexed again.
+     *
+     * @param directory the directory of the store
+     * @param lastId    the id of the last committed message
+     * @throws IOException if the directory cannot be listed or a run file cannot be read or deleted
+     */
+    public SearchIndex(Path directory, long lastId) throws IOException {
+        this.directory = directory;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.words.tmp")) {
+            for (Path file : stream)
+                Files.delete(file);
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.words")) {
+            for (Path file : stream)
+                if (idOf(file, 0) > 0 && idOf(file, 1) > 0)
+                    files.add(file);
+        }
+        files.sort(Comparator.comparingLong((Path file) -> idOf(file, 0))
+                .thenComparing(Comparator.comparingLong((Path file) -> idOf(file, 1)).reversed()));
+        List<Run> runs = new ArrayList<>();
+        long next = 1;
+        for (Path file : files) {
+            Run run = next > 0 ? Run.map(file) : null;
+            if (run != null && run.lastId() < next) {
+                Files.delete(file);
+                continue;
+            }
+            if (run == null || run.firstId() != next || run.lastId() > lastId) {
+                Files.delete(file);
+                next = -1;
+                continue;
+            }
+            runs.add(run);
+            next = run.lastId() + 1;
+        }
+        this.lastId = runs.isEmpty() ? 0 : runs.getLast().lastId();
+        this.state = new State(List.copyOf(runs), new ConcurrentHashMap<>(), this.lastId);
+    }
+
+    /**
+     * Adds the words of a message to the index. Must be called with increasing ids.
+     *
+     * @param id   the message id
+     * @param text the message text, may be null
+     */
+    public void add(long id, String text) {
+        lastId = id;
+        if (text == null)
+            return;
+        State current = state;
+        for (String term : tokenize(text)) {
+            current.terms().computeIfAbsent(term, key -> new Postings(current.base())).add(id);
+            memoryPostings++;
+        }
+    }
+
+    /**
+     * Writes the words kept on the heap to a run file once they reach the limits, maps it in their place, and
+     * merges the newest runs while they are of similar size. Must be called by the thread adding messages, between
+     * additions.
+     *
+     * @throws IOException if a run file cannot be written; the words stay on the heap if the new run could not be
+     *                     written, and the runs stay unmerged if a merge failed
+     */
+    public void flushIfFull() throws IOException {
+        State current = state;
+        if (current.terms().size() < MAX_MEMORY_TERMS && memoryPostings < MAX_MEMORY_POSTINGS)
+            return;
+        long firstId = current.base() + 1;
+        Run run = Run.write(runFile(firstId, lastId), firstId, lastId, () -> new MemoryCursor(current.terms()));
+        List<Run> runs = new ArrayList<>(current.runs());
+        runs.add(run);
+        state = new State(List.copyOf(runs), new ConcurrentHashMap<>(), lastId);
+        memoryPostings = 0;
+        while (runs.size() >= 2) {
+            Run newer = runs.getLast();
+            Run older = runs.get(runs.size() - 2);
+            if (older.size() > 2L * newer.size() || older.size() + newer.size() > MAX_MERGED_RUN_BYTES
+                    || newer.lastId() - older.firstId() >= Integer.MAX_VALUE)
+                break;
+            Run merged = Run.write(runFile(older.firstId(), newer.lastId()), older.firstId(), newer.lastId(),
+                    () -> new MergeCursor(older, newer));
+            runs.removeLast();
+            runs.set(runs.size() - 1, merged);
+            State flushed = state;
+            state = new State(List.copyOf(runs), flushed.terms(), flushed.base());
+            deleteMerged(older);
+            deleteMerged(newer);
+        }
+    }
+
+    /**
+     * Gets the id following the last message covered by the run files, from which messages have to be added
+     * again after the index is opened.
+     *
+     * @return the id of the first message not covered by a run file
+     */
+    public long getNextId() {
+        return state.base() + 1;
+    }
+
+    /**
+     * Finds the messages containing every word of a query.
+     *
+     * @param query the words to look for
+     * @return the candidate ids in increasing order; empty if the query has no words
+     */
+    public long[] search(String query) {
+        Set<String> queryTerms = tokenize(query);
+        if (queryTerms.isEmpty())
+            return new long[0];
+        State current = state;
+        List<long[]> parts = new ArrayList<>(current.runs().size() + 1);
+        int total = 0;
+        for (Run run : current.runs()) {
+            long[] ids = match(queryTerms, run::find);
+            parts.add(ids);
+            total += ids.length;
+        }
+        long[] ids = match(queryTerms, term -> {
+            Postings postings = current.terms().get(term);
+            return postings == null ? null : postings.toIds();
+        });
+        parts.add(ids);
+        total += ids.length;
+        long[] result = new long[total];
+        int position = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, result, position, part.length);
+            position += part.length;
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of distinct words kept on the heap.
+     *
+     * @return the number of words
+     */
+    public int getTermCount() {
+        return state.terms().size();
+    }
+
+    /**
+     * Gets the number of run files the index is searched in.
+     *
+     * @return the number of run files
+     */
+    public int getRunCount() {
+        return state.runs().size();
+    }
+
+    /**
+     * Resolves the run file covering a range of ids.
+     *
+     * @param firstId the id of the first message covered
+     * @param lastId  the id of the last message covered
+     * @return the run file
+     */
+    private Path runFile(long firstId, long lastId) {
+        return directory.resolve(String.format("%020d-%020d.words", firstId, lastId));
+    }
+
+    /**
+     * Deletes the file of a run replaced by a merged run. Queries that still hold the run keep reading its
+     * mapping. A file that cannot be deleted yet, e.g. while it is mapped on a platform that forbids that, is
+     * left for the next start to delete, as the merged run covers it.
+     *
+     * @param run the replaced run
+     */
+    private static void deleteMerged(Run run) {
+        try {
+            Files.deleteIfExists(run.file());
+        } catch (IOException e) {
+            // Covered by the merged run; removed when the index is next opened.
+        }
+    }
+
+    /**
+     * Finds the ids containing every word of a query in one part of the index.
+     *
+     * @param queryTerms the words of the query
+     * @param lookup     finds the ids of a word in the part, or null if it has none
+     * @return the ids in increasing order
+     */
+    private static long[] match(Set<String> queryTerms, Function<String, long[]> lookup) {
+        List<long[]> lists = new ArrayList<>(queryTerms.size());
+        for (String term : queryTerms) {
+            long[] ids = lookup.apply(term);
+            if (ids == null)
+                return new long[0];
+            lists.add(ids);
+        }
+        lists.sort(Comparator.comparingInt(ids -> ids.length));
+        long[] result = lists.getFirst();
+        for (int i = 1; i < lists.size() && result.length > 0; i++)
+            result = intersect(result, lists.get(i));
+        return result;
+    }
+
+    /**
+     * Parses one of the ids a run file covers from its name.
+     *
+     * @param file the run file
+     * @param part 0 for the first id covered, 1 for the last
+     * @return the id, or -1 if the file is not a run file
+     */
+    private static long idOf(Path file, int part) {
+        String name = file.getFileName().toString();
+        String[] ids = name.substring(0, name.length() - ".words".length()).split("-");
+        try {
+            return ids.length == 2 ? Long.parseLong(ids[part]) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Splits a text into the distinct words the index is keyed by.
+     *
+     * @param text the text to split
+     * @return the lower-cased words, in order of first occurrence
+     */
+    static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (Character.isIdeographic(codePoint)) {
+                addToken(tokens, word);
+                word.appendCodePoint(codePoint);
+                addToken(tokens, word);
+            } else if (Character.isLetterOrDigit(codePoint))
+                word.appendCodePoint(codePoint);
+            else
+                addToken(tokens, word);
+        }
+        addToken(tokens, word);
+        return tokens;
+    }
+
+    /**
+     * Moves a pending word to the set of tokens unless it is empty. A word already there is not added twice.
+     *
+     * @param tokens the tokens found so far
+     * @param word   the pending word, cleared afterwards
+     */
+    private static void addToken(Set<String> tokens, StringBuilder word) {
+        if (word.isEmpty())
+            return;
+        tokens.add(word.toString().toLowerCase(Locale.ROOT));
+        word.setLength(0);
+    }
+
+    /**
+     * Intersects two sorted id lists, galloping through the longer one.
+     *
+     * @param shorter the shorter list
+     * @param longer  the longer list
+     * @return the ids present in both lists, in increasing order
+     */
+    private static long[] intersect(long[] shorter, long[] longer) {
+        long[] result = new long[shorter.length];
+        int count = 0;
+        int from = 0;
+        for (long id : shorter) {
+            int step = 1;
+            int high = from;
+            while (high < longer.length && longer[high] < id) {
+                from = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            int found = Arrays.binarySearch(longer, from, Math.min(high + 1, longer.length), id);
+            if (found >= 0) {
+                result[count++] = id;
+                from = found + 1;
+            } else
+                from = -found - 1;
+            if (from >= longer.length)
+                break;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * The part of the index a query sees: the run files, and the words on the heap of the messages after them.
+     *
+     * @param runs  the run files, in id order
+     * @param terms the words of the messages after the runs
+     * @param base  the id of the last message covered by the runs
+     */
+    private record State(List<Run> runs, ConcurrentHashMap<String, Postings> terms, long base) {
+    }
+
+    /**
+     * Walks the words of a run being written, in byte order of their UTF-8 encoding.
+     */
+    private interface Cursor {
+
+        /**
+         * Moves to the next word.
+         *
+         * @return false if there are no more words
+         */
+        boolean next();
+
+        /**
+         * Gets the length of the UTF-8 encoding of the current word.
+         *
+         * @return the length in bytes
+         */
+        int wordLength();
+
+        /**
+         * Gets the number of ids of the current word.
+         *
+         * @return the number of ids
+         */
+        int postingsCount();
+
+        /**
+         * Writes the UTF-8 encoding of the current word.
+         *
+         * @param out the stream to write to
+         * @throws IOException if the stream fails
+         */
+        void writeWord(DataOutputStream out) throws IOException;
+
+        /**
+         * Writes the ids of the current word, delta-encoded from the id preceding the first one the run covers.
+         *
+         * @param out the stream to write to
+         * @throws IOException if the stream fails
+         */
+        void writePostings(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Walks the words kept on the heap, sorted once when the cursor is created.
+     */
+    private static final class MemoryCursor implements Cursor {
+
+        private final byte[][] words;
+        private final Postings[] postings;
+        private int index = -1;
+
+        /**
+         * Sorts the words kept on the heap.
+         *
+         * @param terms the words and their postings
+         */
+        MemoryCursor(Map<String, Postings> terms) {
+            List<Map.Entry<byte[], Postings>> sorted = new ArrayList<>(terms.size());
+            for (Map.Entry<String, Postings> term : terms.entrySet())
+                sorted.add(Map.entry(term.getKey().getBytes(StandardCharsets.UTF_8), term.getValue()));
+            sorted.sort(Map.Entry.comparingByKey(Arrays::compareUnsigned));
+            words = new byte[sorted.size()][];
+            postings = new Postings[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++) {
+                words[i] = sorted.get(i).getKey();
+                postings[i] = sorted.get(i).getValue();
+            }
+        }
+
+        @Override
+        public boolean next() {
+            return ++index < words.length;
+        }
+
+        @Override
+        public int wordLength() {
+            return words[index].length;
+        }
+
+        @Override
+        public int postingsCount() {
+            return postings[index].size();
+        }
+
+        @Override
+        public void writeWord(DataOutputStream out) throws IOException {
+            out.write(words[index]);
+        }
+
+        @Override
+        public void writePostings(DataOutputStream out) throws IOException {
+            postings[index].writeTo(out);
+        }
+    }
+
+    /**
+     * Walks the words of two consecutive runs, a word found in both giving the ids of the older run followed by
+     * those of the newer one.
+     */
+    private static final class MergeCursor implements Cursor {
+
+        private final Run older;
+        private final Run newer;
+        private int olderIndex;
+        private int newerIndex;
+        private int olderEntry = -1;
+        private int newerEntry = -1;
+
+        /**
+         * Creates a cursor before the first word of two runs.
+         *
+         * @param older the older run
+         * @param newer the run covering the messages right after it
+         */
+        MergeCursor(Run older, Run newer) {
+            this.older = older;
+            this.newer = newer;
+        }
+
+        @Override
+        public boolean next() {
+            if (olderEntry >= 0)
+                olderIndex++;
+            if (newerEntry >= 0)
+                newerIndex++;
+            boolean inOlder = olderIndex < older.count();
+            boolean inNewer = newerIndex < newer.count();
+            int order = !inNewer ? -1 : !inOlder ? 1 : older.compareWords(olderIndex, newer, newerIndex);
+            olderEntry = inOlder && order <= 0 ? olderIndex : -1;
+            newerEntry = inNewer && order >= 0 ? newerIndex : -1;
+            return inOlder || inNewer;
+        }
+
+        @Override
+        public int wordLength() {
+            return olderEntry >= 0 ? older.wordLength(olderEntry) : newer.wordLength(newerEntry);
+        }
+
+        @Override
+        public int postingsCount() {
+            return (olderEntry >= 0 ? older.postingsCount(olderEntry) : 0)
+                    + (newerEntry >= 0 ? newer.postingsCount(newerEntry) : 0);
+        }
+
+        @Override
+        public void writeWord(DataOutputStream out) throws IOException {
+            if (olderEntry >= 0)
+                older.writeWord(olderEntry, out);
+            else
+                newer.writeWord(newerEntry, out);
+        }
+
+        @Override
+        public void writePostings(DataOutputStream out) throws IOException {
+            long previous = older.firstId() - 1;
+            if (olderEntry >= 0)
+                previous = older.writePostings(olderEntry, out, previous);
+            if (newerEntry >= 0)
+                newer.writePostings(newerEntry, out, previous);
+        }
+    }
+
+    /**
+     * A memory-mapped run file. After a 20-byte header (first and last id covered, number of words), an entry per
+     * word in byte order of its UTF-8 encoding gives the position and length of the word and of its postings; the
+     * words and the postings follow. Postings are delta-encoded from the id preceding the first one covered.
+     *
+     * @param file    the run file
+     * @param firstId the id of the first message covered
+     * @param lastId  the id of the last message covered
+     * @param data    the mapped file
+     */
+    private record Run(Path file, long firstId, long lastId, MappedByteBuffer data) {
+
+        /**
+         * Streams the words of the messages covered by a run to a file and maps it. The words are walked three
+         * times, to size the file, to write the entries and to write the words and postings, so that a run never
+         * has to fit on the heap.
+         *
+         * @param file    the run file
+         * @param firstId the id of the first message covered
+         * @param lastId  the id of the last message covered
+         * @param terms   creates a cursor over the words and their postings, once per walk
+         * @return the run
+         * @throws IOException if the file cannot be written
+         */
+        static Run write(Path file, long firstId, long lastId, Supplier<Cursor> terms) throws IOException {
+            int count = 0;
+            long wordsLength = 0;
+            long postingsCount = 0;
+            for (Cursor cursor = terms.get(); cursor.next(); ) {
+                count++;
+                wordsLength += cursor.wordLength();
+                postingsCount += cursor.postingsCount();
+            }
+            long wordPosition = RUN_HEADER_LENGTH + (long) count * RUN_ENTRY_LENGTH;
+            long postingsPosition = wordPosition + wordsLength;
+            if (postingsPosition + 4 * postingsCount > Integer.MAX_VALUE)
+                throw new IOException("Search index run too large: " + (postingsPosition + 4 * postingsCount) + " bytes");
+            Path partial = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(partial, CREATE, TRUNCATE_EXISTING, WRITE)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+                out.writeLong(firstId);
+                out.writeLong(lastId);
+                out.writeInt(count);
+                for (Cursor cursor = terms.get(); cursor.next(); ) {
+                    out.writeInt((int) wordPosition);
+                    out.writeInt(cursor.wordLength());
+                    out.writeInt((int) postingsPosition);
+                    out.writeInt(cursor.postingsCount());
+                    wordPosition += cursor.wordLength();
+                    postingsPosition += 4L * cursor.postingsCount();
+                }
+                for (Cursor cursor = terms.get(); cursor.next(); )
+                    cursor.writeWord(out);
+                for (Cursor cursor = terms.get(); cursor.next(); )
+                    cursor.writePostings(out);
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Run run = map(file);
+            if (run == null)
+                throw new IOException("Search index run unreadable after writing: " + file);
+            return run;
+        }
+
+        /**
+         * Maps a run file.
+         *
+         * @param file the run file
+         * @return the run, or null if the file is too short for what its header and entries describe
+         * @throws IOException if the file cannot be read
+         */
+        static Run map(Path file) throws IOException {
+            MappedByteBuffer data;
+            try (FileChannel channel = FileChannel.open(file, READ)) {
+                long length = channel.size();
+                if (length < RUN_HEADER_LENGTH || length > Integer.MAX_VALUE)
+                    return null;
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+            int count = data.getInt(16);
+            if (count < 0 || RUN_HEADER_LENGTH + (long) count * RUN_ENTRY_LENGTH > data.capacity())
+                return null;
+            for (int i = 0; i < count; i++) {
+                int entry = RUN_HEADER_LENGTH + i * RUN_ENTRY_LENGTH;
+                if (data.getInt(entry) < 0 || (long) data.getInt(entry) + data.getInt(entry + 4) > data.capacity()
+                        || data.getInt(entry + 8) < 0 || data.getInt(entry + 8) + 4L * data.getInt(entry + 12) > data.capacity())
+                    return null;
+            }
+            return new Run(file, data.getLong(0), data.getLong(8), data);
+        }
+
+        /**
+         * Gets the size of the run file.
+         *
+         * @return the size in bytes
+         */
+        long size() {
+            return data.capacity();
+        }
+
+        /**
+         * Gets the number of words of the run.
+         *
+         * @return the number of words
+         */
+        int count() {
+            return data.getInt(16);
+        }
+
+        /**
+         * Gets the length of the UTF-8 encoding of a word.
+         *
+         * @param index the index of the word
+         * @return the length in bytes
+         */
+        int wordLength(int index) {
+            return data.getInt(RUN_HEADER_LENGTH + index * RUN_ENTRY_LENGTH + 4);
+        }
+
+        /**
+         * Gets the number of ids of a word.
+         *
+         * @param index the index of the word
+         * @return the number of ids
+         */
+        int postingsCount(int index) {
+            return data.getInt(RUN_HEADER_LENGTH + index * RUN_ENTRY_LENGTH + 12);
+        }
+
+        /**
+         * Copies the UTF-8 encoding of a word to a stream.
+         *
+         * @param index the index of the word
+         * @param out   the stream to write to
+         * @throws IOException if the stream fails
+         */
+        void writeWord(int index, DataOutputStream out) throws IOException {
+            int position = data.getInt(RUN_HEADER_LENGTH + index * RUN_ENTRY_LENGTH);
+            for (int i = 0; i < wordLength(index); i++)
+                out.write(data.get(position + i));
+        }
+
+        /**
+         * Copies the ids of a word to a stream, the first one delta-encoded from a given id and the others from
+         * the one before them.
+         *
+         * @param index    the index of the word
+         * @param out      the stream to write to
+         * @param previous the id the first one is encoded from, less than every id of the run
+         * @return the last id written, or {@code previous} if the word has no ids
+         * @throws IOException if the stream fails
+         */
+        long writePostings(int index, DataOutputStream out, long previous) throws IOException {
+            int position = data.getInt(RUN_HEADER_LENGTH + index * RUN_ENTRY_LENGTH + 8);
+            long id = firstId - 1;
+            for (int i = 0; i < postingsCount(index); i++) {
+                int delta = data.getInt(position + 4 * i);
+                out.writeInt(i == 0 ? (int) (id + delta - previous) : delta);
+                id += delta;
+            }
+            return postingsCount(index) == 0 ? previous : id;
+        }
+
+        /**
+         * Compares a word of this run with a word of another run, byte by byte.
+         *
+         * @param index      the index of the word in this run
+         * @param other      the other run
+         * @param otherIndex the index of the word in the other run
+         * @return a negative number, zero or a positive number as the word of this run sorts before, equal to or
+         * after the word of the other run
+         */
+        int compareWords(int index, Run other, int otherIndex) {
+            int position = data.getInt(RUN_HEADER_LENGTH + index * RUN_ENTRY_LENGTH);
+            int otherPosition = other.data.getInt(RUN_HEADER_LENGTH + otherIndex * RUN_ENTRY_LENGTH);
+            int length = wordLength(index);
+            int otherLength = other.wordLength(otherIndex);
+            for (int i = 0; i < Math.min(length, otherLength); i++) {
+                int order = Byte.compareUnsigned(data.get(position + i), other.data.get(otherPosition + i));
+                if (order != 0)
+                    return order;
+            }
+            return Integer.compare(length, otherLength);
+        }
+
+        /**
+         * Finds the ids of the messages of the run containing a word.
+         *
+         * @param term the word
+         * @return the ids in increasing order, or null if no message of the run contains the word
+         */
+        long[] find(String term) {
+            byte[] word = term.getBytes(StandardCharsets.UTF_8);
+            int low = 0;
+            int high = count() - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int entry = RUN_HEADER_LENGTH + middle * RUN_ENTRY_LENGTH;
+                int order = compare(data.getInt(entry), data.getInt(entry + 4), word);
+                if (order < 0)
+                    low = middle + 1;
+                else if (order > 0)
+                    high = middle - 1;
+                else {
+                    int position = data.getInt(entry + 8);
+                    long[] ids = new long[data.getInt(entry + 12)];
+                    long id = firstId - 1;
+                    for (int i = 0; i < ids.length; i++) {
+                        id += data.getInt(position + 4 * i);
+                        ids[i] = id;
+                    }
+                    return ids;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Compares a word of the file with a word looked for, byte by byte.
+         *
+         * @param position the position of the word in the file
+         * @param length   the length of the word in the file
+         * @param word     the word looked for
+         * @return a negative number, zero or a positive number as the word of the file sorts before, equal to or
+         * after the word looked for
+         */
+        private int compare(int position, int length, byte[] word) {
+            int common = Math.min(length, word.length);
+            for (int i = 0; i < common; i++) {
+                int order = Byte.compareUnsigned(data.get(position + i), word[i]);
+                if (order != 0)
+                    return order;
+            }
+            return Integer.compare(length, word.length);
+        }
+    }
+
+    /**
+     * The ids of the messages containing one word, delta-encoded.
+     */
+    private static final class Postings {
+
+        private final long base;
+        private int[] deltas = new int[4];
+        private int size;
+        private long lastId;
+
+        /**
+         * Creates empty postings.
+         *
+         * @param base the id preceding every id to be added
+         */
+        Postings(long base) {
+            this.base = base;
+            this.lastId = base;
+        }
+
+        /**
+         * Appends an id, ignoring repeats of the last one.
+         *
+         * @param id the message id, not less than the last one added
+         */
+        synchronized void add(long id) {
+            if (id <= lastId)
+                return;
+            if (size == deltas.length)
+                deltas = Arrays.copyOf(deltas, size + (size >> 1));
+            deltas[size++] = (int) (id - lastId);
+            lastId = id;
+        }
+
+        /**
+         * Decodes the postings.
+         *
+         * @return the ids in increasing order
+         */
+        synchronized long[] toIds() {
+            long[] ids = new long[size];
+            long id = base;
+            for (int i = 0; i < size; i++) {
+                id += deltas[i];
+                ids[i] = id;
+            }
+            return ids;
+        }
+
+        /**
+         * Gets the number of ids.
+         *
+         * @return the number of ids
+         */
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Writes the deltas to a stream.
+         *
+         * @param out the stream to write to
+         * @throws IOException if the stream fails
+         */
+        synchronized void writeTo(DataOutputStream out) throws IOException {
+            for (int i = 0; i < size; i++)
+                out.writeInt(deltas[i]);
+        }
+    }
+}
@@ -0,0 +1,530 @@
+package com.chatroom.server.history;
+
+import com.chatroom.common.message.Message;
+import com.chatroom.common.protocol.BinaryCodec;
+import com.chatroom.common.protocol.CodecType;
+import com.chatroom.common.protocol.Frames;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * One file of the {@link MessageStore}'s append-only log, holding the records with consecutive ids from its base id on.
+ * <p>
+ * Each record is a 16-byte header (payload length, CRC-32C of id and payload, message id) followed by the message
+ * encoded with {@link CodecType#BINARY}. A sparse index holds one entry per {@value #INDEX_INTERVAL} bytes of records:
+ * the id and position of a record, and the latest message time found before it. Since that time never decreases,
+ * both an id and a point in time are found with a binary search over the index followed by a sequential read.
+ * <p>
+ * The index of the segment being appended to is kept in memory. When the segment is sealed, its index is saved
+ * next to it and memory-mapped from then on, so sealed segments cost no heap and only the last segment has to be
+ * scanned on startup.
+ * <p>
+ * Only the store's committer thread appends; any thread may read up to the last committed record.
+ */
+final class Segment {
+
+    /**
+     * The length of the header preceding each record's payload.
+     */
+    static final int HEADER_LENGTH = 16;
+
+    private static final int INDEX_INTERVAL = 4096;
+    private static final int INDEX_HEADER_LENGTH = 24;
+    private static final int INDEX_ENTRY_LENGTH = 24;
+    private static final int READ_CHUNK = 64 * 1024;
+    private static final int LOOKUP_CHUNK = 2 * INDEX_INTERVAL;
+    private static final int MAX_PAYLOAD_LENGTH = Frames.MAX_FRAME_LENGTH * 2;
+
+    private final long baseId;
+    private final Path indexFile;
+    private final FileChannel channel;
+    private volatile long size;
+    private volatile long lastId;
+    private volatile long maxTimestamp;
+    private long appendMaxTimestamp;
+    private long[] indexIds = new long[16];
+    private long[] indexTimestamps = new long[16];
+    private long[] indexPositions = new long[16];
+    private MappedByteBuffer mappedIndex;
+    private int indexCount;
+    private long lastIndexedPosition = -INDEX_INTERVAL;
+    private long truncatedBytes;
+
+    /**
+     * Opens or creates the file of a segment.
+     *
+     * @param directory     the directory of the store
+     * @param baseId        the id of the segment's first record
+     * @param prevTimestamp the latest message time in the preceding segments
+     * @throws IOException if the file cannot be opened
+     */
+    private Segment(Path directory, long baseId, long prevTimestamp) throws IOException {
+        this.baseId = baseId;
+        this.indexFile = directory.resolve(String.format("%020d.idx", baseId));
+        this.channel = FileChannel.open(directory.resolve(String.format("%020d.log", baseId)), CREATE, READ, WRITE);
+        this.lastId = baseId - 1;
+        this.maxTimestamp = prevTimestamp;
+        this.appendMaxTimestamp = prevTimestamp;
+    }
+
+    /**
+     * Creates a new, empty segment.
+     *
+     * @param directory     the directory of the store
+     * @param baseId        the id of the segment's first record
+     * @param prevTimestamp the latest message time in the preceding segments
+     * @return the segment
+     * @throws IOException if the file cannot be created
+     */
+    static Segment create(Path directory, long baseId, long prevTimestamp) throws IOException {
+        return new Segment(directory, baseId, prevTimestamp);
+    }
+
+    /**
+     * Opens an existing segment. The last segment, or one whose saved index is missing or stale, is scanned,
+     * and any torn or corrupt records at its tail are truncated.
+     *
+     * @param directory     the directory of the store
+     * @param baseId        the id of the segment's first record
+     * @param prevTimestamp the latest message time in the preceding segments
+     * @param last          true if this is the segment the store appends to
+     * @return the segment
+     * @throws IOException if the file cannot be read or truncated
+     */
+    static Segment open(Path directory, long baseId, long prevTimestamp, boolean last) throws IOException {
+        Segment segment = new Segment(directory, baseId, prevTimestamp);
+        if (last || !segment.mapIndex())
+            segment.recover();
+        return segment;
+    }
+
+    /**
+     * Parses the base id from the name of a segment file.
+     *
+     * @param file the segment file
+     * @return the base id, or -1 if the file is not a segment
+     */
+    static long baseIdOf(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(".log"))
+            return -1;
+        try {
+            return Long.parseLong(name.substring(0, name.length() - 4));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Maps the index saved when the segment was sealed.
+     *
+     * @return true if the index was mapped and matches the segment file, false if it must be rebuilt
+     * @throws IOException if the index file cannot be read
+     */
+    private boolean mapIndex() throws IOException {
+        if (!Files.exists(indexFile))
+            return false;
+        MappedByteBuffer index;
+        try (FileChannel indexChannel = FileChannel.open(indexFile, READ)) {
+            long length = indexChannel.size();
+            if (length < INDEX_HEADER_LENGTH || (length - INDEX_HEADER_LENGTH) % INDEX_ENTRY_LENGTH != 0)
+                return false;
+            index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        if (index.getLong(8) != channel.size())
+            return false;
+        synchronized (this) {
+            mappedIndex = index;
+            indexCount = (index.capacity() - INDEX_HEADER_LENGTH) / INDEX_ENTRY_LENGTH;
+            indexIds = indexTimestamps = indexPositions = null;
+        }
+        lastId = index.getLong(0);
+        size = index.getLong(8);
+        maxTimestamp = index.getLong(16);
+        return true;
+    }
+
+    /**
+     * Rebuilds the index by scanning the segment and truncates whatever follows the last valid record.
+     *
+     * @throws IOException if the file cannot be read or truncated
+     */
+    private void recover() throws IOException {
+        long fileSize = channel.size();
+        long end = scan(0, fileSize, (id, position, data, offset, length) -> {
+            if (id != lastId + 1)
+                return false;
+            indexRecord(id, position, BinaryCodec.readTimestamp(data, offset, length));
+            lastId = id;
+            return true;
+        });
+        if (end < fileSize) {
+            truncatedBytes = fileSize - end;
+            channel.truncate(end);
+            channel.force(true);
+        }
+        size = end;
+        maxTimestamp = appendMaxTimestamp;
+        Files.deleteIfExists(indexFile);
+    }
+
+    /**
+     * Accounts for a record about to be appended, adding it to the index if it is far enough from the last
+     * indexed one.
+     *
+     * @param id        the record's id
+     * @param position  the record's position in the file
+     * @param timestamp the creation time of the record's message, in epoch milliseconds
+     */
+    void indexRecord(long id, long position, long timestamp) {
+        if (position - lastIndexedPosition >= INDEX_INTERVAL)
+            addIndexEntry(id, appendMaxTimestamp, position);
+        appendMaxTimestamp = Math.max(appendMaxTimestamp, timestamp);
+    }
+
+    /**
+     * Adds an entry to the in-memory index.
+     *
+     * @param id        the record's id
+     * @param timestamp the latest message time before the record
+     * @param position  the record's position in the file
+     */
+    private synchronized void addIndexEntry(long id, long timestamp, long position) {
+        if (indexCount == indexIds.length) {
+            indexIds = Arrays.copyOf(indexIds, indexCount * 2);
+            indexTimestamps = Arrays.copyOf(indexTimestamps, indexCount * 2);
+            indexPositions = Arrays.copyOf(indexPositions, indexCount * 2);
+        }
+        indexIds[indexCount] = id;
+        indexTimestamps[indexCount] = timestamp;
+        indexPositions[indexCount] = position;
+        indexCount++;
+        lastIndexedPosition = position;
+    }
+
+    /**
+     * Finds the position to start scanning from for a key, i.e. that of the last index entry whose key is
+     * below (or, for ids, equal to) the given one.
+     *
+     * @param byTimestamp true to search by message time, false to search by id
+     * @param key         the id or the time in epoch milliseconds
+     * @return the position of the entry found, or 0 if there is none
+     */
+    private synchronized long floorPosition(boolean byTimestamp, long key) {
+        int low = 0;
+        int high = indexCount - 1;
+        long position = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long entryKey;
+            if (mappedIndex != null)
+                entryKey = mappedIndex.getLong(INDEX_HEADER_LENGTH + mid * INDEX_ENTRY_LENGTH + (byTimestamp ? 8 : 0));
+            else
+                entryKey = byTimestamp ? indexTimestamps[mid] : indexIds[mid];
+            if (byTimestamp ? entryKey < key : entryKey <= key) {
+                position = mappedIndex != null
+                        ? mappedIndex.getLong(INDEX_HEADER_LENGTH + mid * INDEX_ENTRY_LENGTH + 16)
+                        : indexPositions[mid];
+                low = mid + 1;
+            } else
+                high = mid - 1;
+        }
+        return position;
+    }
+
+    /**
+     * Writes a batch of encoded records at the end of the segment and publishes them to readers.
+     *
+     * @param batch  the records, positioned for reading
+     * @param lastId the id of the last record in the batch
+     * @param sync   true to force the records to the storage device before publishing them
+     * @throws IOException if the records cannot be written
+     */
+    void append(ByteBuffer batch, long lastId, boolean sync) throws IOException {
+        long position = size;
+        while (batch.hasRemaining())
+            position += channel.write(batch, position);
+        if (sync)
+            channel.force(false);
+        this.size = position;
+        this.maxTimestamp = appendMaxTimestamp;
+        this.lastId = lastId;
+    }
+
+    /**
+     * Reads committed messages of this segment in id order.
+     *
+     * @param fromId the id of the first message to read
+     * @param toId   the id following the last message to read
+     * @param limit  the number of messages the result may hold
+     * @param filter the messages to include
+     * @param result the list the messages are added to
+     * @throws IOException if the segment cannot be read
+     */
+    void read(long fromId, long toId, int limit, Predicate<Message> filter, List<StoredMessage> result) throws IOException {
+        if (fromId > lastId || toId <= baseId || result.size() >= limit)
+            return;
+        scan(floorPosition(false, fromId), size, (id, position, data, offset, length) -> {
+            if (id >= toId)
+                return false;
+            if (id >= fromId) {
+                Message message = CodecType.BINARY.getCodec().decode(data, offset, length);
+                if (filter.test(message))
+                    result.add(new StoredMessage(id, message));
+            }
+            return result.size() < limit;
+        });
+    }
+
+    /**
+     * Reads committed messages of this segment by id. Each id is reached through the sparse index, so ids far
+     * apart cost a short read each rather than a scan of the records between them, and only the records asked
+     * for are decoded. Ids that are not committed in this segment are skipped.
+     *
+     * @param ids    the ids, in increasing order
+     * @param from   the index of the first id to read
+     * @param to     the index following the last id to read
+     * @param filter the messages to include
+     * @param result the list the messages are added to, in id order
+     * @throws IOException if the segment cannot be read
+     */
+    void readIds(long[] ids, int from, int to, Predicate<Message> filter, List<StoredMessage> result) throws IOException {
+        int[] next = {from};
+        while (next[0] < to && ids[next[0]] <= lastId) {
+            int started = next[0];
+            long start = floorPosition(false, ids[started]);
+            scan(start, size, LOOKUP_CHUNK, (id, position, data, offset, length) -> {
+                while (next[0] < to && ids[next[0]] < id)
+                    next[0]++;
+                if (next[0] == to)
+                    return false;
+                if (ids[next[0]] == id) {
+                    Message message = CodecType.BINARY.getCodec().decode(data, offset, length);
+                    if (filter.test(message))
+                        result.add(new StoredMessage(id, message));
+                    if (++next[0] == to)
+                        return false;
+                }
+                // Seek instead of reading on when the index leads closer to the next id.
+                return floorPosition(false, ids[next[0]]) <= position;
+            });
+            if (next[0] == started)
+                break;
+        }
+    }
+
+    /**
+     * Finds the first committed message created at or after a point in time.
+     *
+     * @param timestamp the time in epoch milliseconds
+     * @return the id of the message, or -1 if every message of this segment is older
+     * @throws IOException if the segment cannot be read
+     */
+    long findFirstSince(long timestamp) throws IOException {
+        if (maxTimestamp < timestamp)
+            return -1;
+        long[] found = {-1};
+        scan(floorPosition(true, timestamp), size, (id, position, data, offset, length) -> {
+            if (BinaryCodec.readTimestamp(data, offset, length) < timestamp)
+                return true;
+            found[0] = id;
+            return false;
+        });
+        return found[0];
+    }
+
+    /**
+     * Visits the valid records between two positions, stopping at the first torn or corrupt record
+     * or when the visitor asks to stop.
+     *
+     * @param position the position of the first record
+     * @param limit    the position not to read past
+     * @param visitor  the visitor called for each record
+     * @return the position following the last record visited
+     * @throws IOException if the file cannot be read, or the visitor fails
+     */
+    private long scan(long position, long limit, RecordVisitor visitor) throws IOException {
+        return scan(position, limit, READ_CHUNK, visitor);
+    }
+
+    /**
+     * Visits the valid records between two positions with a read buffer of a given initial size, stopping at the
+     * first torn or corrupt record or when the visitor asks to stop.
+     *
+     * @param position the position of the first record
+     * @param limit    the position not to read past
+     * @param chunk    the number of bytes to read at a time, grown for a larger record
+     * @param visitor  the visitor called for each record
+     * @return the position following the last record visited
+     * @throws IOException if the file cannot be read, or the visitor fails
+     */
+    private long scan(long position, long limit, int chunk, RecordVisitor visitor) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(chunk).limit(0);
+        long readPosition = position;
+        CRC32C crc = new CRC32C();
+        while (true) {
+            if (buffer.remaining() < HEADER_LENGTH) {
+                buffer = fill(buffer, readPosition, limit, HEADER_LENGTH);
+                readPosition = position + buffer.remaining();
+                if (buffer.remaining() < HEADER_LENGTH)
+                    return position;
+            }
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            int checksum = buffer.getInt(start + 4);
+            long id = buffer.getLong(start + 8);
+            if (length < 0 || length > MAX_PAYLOAD_LENGTH)
+                return position;
+            int recordLength = HEADER_LENGTH + length;
+            if (buffer.remaining() < recordLength) {
+                buffer = fill(buffer, readPosition, limit, recordLength);
+                readPosition = position + buffer.remaining();
+                if (buffer.remaining() < recordLength)
+                    return position;
+                start = buffer.position();
+            }
+            crc.reset();
+            crc.update(buffer.array(), start + 8, 8 + length);
+            if ((int) crc.getValue() != checksum
+                    || !visitor.visit(id, position, buffer.array(), start + HEADER_LENGTH, length))
+                return position;
+            buffer.position(start + recordLength);
+            position += recordLength;
+        }
+    }
+
+    /**
+     * Moves the unread bytes of a buffer to its start and reads more from the file.
+     *
+     * @param buffer       the buffer, positioned at the next unread byte
+     * @param readPosition the file position following the buffer's last byte
+     * @param limit        the position not to read past
+     * @param needed       the number of bytes wanted in the buffer
+     * @return the buffer, or a larger one if needed does not fit, positioned for reading
+     * @throws IOException if the file cannot be read
+     */
+    private ByteBuffer fill(ByteBuffer buffer, long readPosition, long limit, int needed) throws IOException {
+        if (buffer.capacity() < needed)
+            buffer = ByteBuffer.allocate(needed).put(buffer);
+        else
+            buffer.compact();
+        while (buffer.position() < needed && readPosition < limit) {
+            buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + limit - readPosition));
+            int read = channel.read(buffer, readPosition);
+            if (read <= 0)
+                break;
+            readPosition += read;
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Forces the segment to the storage device, saves its index and maps it in place of the in-memory one.
+     * The segment is never appended to again.
+     *
+     * @throws IOException if the segment or its index cannot be written
+     */
+    void seal() throws IOException {
+        channel.force(true);
+        ByteBuffer data;
+        synchronized (this) {
+            data = ByteBuffer.allocate(INDEX_HEADER_LENGTH + indexCount * INDEX_ENTRY_LENGTH);
+            data.putLong(lastId).putLong(size).putLong(maxTimestamp);
+            for (int i = 0; i < indexCount; i++)
+                data.putLong(indexIds[i]).putLong(indexTimestamps[i]).putLong(indexPositions[i]);
+        }
+        Path partial = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (FileChannel indexChannel = FileChannel.open(partial, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            indexChannel.write(data.flip());
+            indexChannel.force(true);
+        }
+        Files.move(partial, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        mapIndex();
+    }
+
+    /**
+     * Closes the segment file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Gets the id of the segment's first record.
+     *
+     * @return the base id
+     */
+    long getBaseId() {
+        return baseId;
+    }
+
+    /**
+     * Gets the id of the last committed record.
+     *
+     * @return the last id, or the base id minus one if the segment is empty
+     */
+    long getLastId() {
+        return lastId;
+    }
+
+    /**
+     * Gets the latest creation time of the committed messages in this and the preceding segments.
+     *
+     * @return the time in epoch milliseconds, or {@link Long#MIN_VALUE} if the store is empty
+     */
+    long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * Gets the size of the committed records.
+     *
+     * @return the size in bytes
+     */
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the number of bytes truncated from the tail of the segment when it was opened.
+     *
+     * @return the number of truncated bytes
+     */
+    long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    /**
+     * Called for each valid record found by a scan.
+     */
+    @FunctionalInterface
+    private interface RecordVisitor {
+
+        /**
+         * Visits a record.
+         *
+         * @param id       the record's id
+         * @param position the record's position in the file
+         * @param data     the buffer holding the payload
+         * @param offset   the offset of the payload in the buffer
+         * @param length   the length of the payload
+         * @return true to continue scanning, false to stop before this record
+         * @throws IOException if the record cannot be processed
+         */
+        boolean visit(long id, long position, byte[] data, int offset, int length) throws IOException;
+    }
+}
@@ -0,0 +1,12 @@
+package com.chatroom.server.history;
+
+import com.chatroom.common.message.Message;
+
+/**
+ * A message read back from the {@link MessageStore}.
+ *
+ * @param id      the sequence number the store assigned to the message
+ * @param message the stored message
+ */
+public record StoredMessage(long id, Message message) {
+}
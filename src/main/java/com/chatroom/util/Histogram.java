@@ -0,0 +1,149 @@
+package com.chatroom.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values with a fixed set of buckets and a bounded relative error.
+ * <p>
+ * Values below 32 have a bucket each. Above that, every power of two is split into 16 buckets of equal width, so
+ * a value is known to within 1/16 of itself whatever its magnitude, and the whole range of {@code long} fits in
+ * under a thousand counters. Recording a value is an increment of one counter, safe from any thread.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = bucketOf(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Finds the bucket of a value.
+     *
+     * @param value the value, not negative
+     * @return the index of its bucket
+     */
+    private static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Gets the largest value falling into a bucket.
+     *
+     * @param bucket the index of the bucket
+     * @return the upper bound of the bucket, inclusive
+     */
+    private static long highestValueOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the sum of the recorded values.
+     *
+     * @return the sum
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Gets the largest recorded value.
+     *
+     * @return the maximum, or 0 if nothing was recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the mean of the recorded values.
+     *
+     * @return the mean, or 0 if nothing was recorded
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / (double) n;
+    }
+
+    /**
+     * Estimates a percentile of the recorded values. Values recorded while it runs may or may not be counted.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the upper bound of the bucket holding the percentile, never above the maximum, or 0 if nothing was
+     * recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            total += snapshot[i] = counts.get(i);
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return Math.min(highestValueOf(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Counts the recorded values up to each of a series of bounds, from one snapshot of the buckets so that the
+     * counts are consistent with each other. A bucket straddling a bound is counted in full if its lower end is
+     * within the bound, so a count may include values up to 1/16 above it.
+     *
+     * @param bounds the bounds, in increasing order
+     * @return the number of values at most each bound, followed by the number of all values
+     */
+    public long[] getCumulativeCounts(long... bounds) {
+        long[] cumulative = new long[bounds.length + 1];
+        long seen = 0;
+        int bound = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long lowest = i == 0 ? 0 : highestValueOf(i - 1) + 1;
+            while (bound < bounds.length && bounds[bound] < lowest)
+                cumulative[bound++] = seen;
+            seen += counts.get(i);
+        }
+        while (bound < bounds.length)
+            cumulative[bound++] = seen;
+        cumulative[bounds.length] = seen;
+        return cumulative;
+    }
+}
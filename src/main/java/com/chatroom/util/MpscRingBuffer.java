@@ -0,0 +1,83 @@
+package com.chatroom.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free ring buffer for many producers and a single consumer.
+ * <p>
+ * Producers claim a sequence number with a compare-and-set on the tail and then publish their element
+ * into the claimed slot; the consumer takes elements in sequence order and clears their slots. An offer
+ * to a full buffer fails immediately instead of waiting.
+ *
+ * @param <E> the type of elements held in the buffer
+ */
+public class MpscRingBuffer<E> {
+
+    private final AtomicReferenceArray<E> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    /**
+     * Creates a new ring buffer.
+     *
+     * @param capacity the minimum capacity, rounded up to a power of two
+     */
+    public MpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds an element if there is room. Safe to call from any thread.
+     *
+     * @param element the element to add, not null
+     * @return true if the element was added, false if the buffer is full
+     */
+    public boolean offer(E element) {
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head >= slots.length())
+                return false;
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+        slots.set((int) sequence & mask, element);
+        return true;
+    }
+
+    /**
+     * Removes the next element. Must only be called from the consumer thread.
+     *
+     * @return the next element, or null if the buffer is empty or the next element is not yet published
+     */
+    public E poll() {
+        long sequence = head;
+        int index = (int) sequence & mask;
+        E element = slots.get(index);
+        if (element == null)
+            return null;
+        slots.set(index, null);
+        head = sequence + 1;
+        return element;
+    }
+
+    /**
+     * Checks whether the buffer holds no claimed elements.
+     *
+     * @return true if the buffer is empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return tail.get() == head;
+    }
+
+    /**
+     * Gets the capacity of the buffer.
+     *
+     * @return the number of slots
+     */
+    public int capacity() {
+        return slots.length();
+    }
+}